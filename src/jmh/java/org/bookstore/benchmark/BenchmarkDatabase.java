@@ -0,0 +1,115 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.DailySalesRollup;
+import org.bookstore.GenreRevenueRollup;
+import org.bookstore.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Embedded H2 database in PostgreSQL mode seeded with synthetic books, customers and sales.
+ * Number of books and customers grows with number of sales.
+ */
+public class BenchmarkDatabase {
+    public static final int GENRE_COUNT = 20;
+
+    private static final String SEED_BOOKS_QUERY = "INSERT INTO books " +
+            "(book_id, title, author, genre, price, quantity_in_stock) " +
+            "SELECT X, CONCAT('Title ', X), CONCAT('Author ', MOD(X, :authorCount)), " +
+            "CONCAT('Genre ', MOD(X, :genreCount)), 5 + MOD(X, 50), 1000000000 " +
+            "FROM SYSTEM_RANGE(1, :bookCount)";
+    private static final String SEED_CUSTOMERS_QUERY = "INSERT INTO customers " +
+            "(customer_id, name, email, phone) " +
+            "SELECT X, CONCAT('Customer ', X), CONCAT('customer', X, '@example.com'), CONCAT('555', X) " +
+            "FROM SYSTEM_RANGE(1, :customerCount)";
+    private static final String SEED_SALES_QUERY = "INSERT INTO sales " +
+            "(sale_id, book_id, customer_id, date_of_sale, quantity_sold, total_price) " +
+            "SELECT X, 1 + MOD(X * 7919, :bookCount), 1 + MOD(X, :customerCount), " +
+            "DATEADD(DAY, -MOD(X, 3650), CURRENT_DATE), 1 + MOD(X, 3), " +
+            "(1 + MOD(X, 3)) * (5 + MOD(1 + MOD(X * 7919, :bookCount), 50)) " +
+            "FROM SYSTEM_RANGE(1, :salesCount)";
+
+    private final SessionFactory sessionFactory;
+    private final int bookCount;
+    private final int customerCount;
+    private final int authorCount;
+
+    private BenchmarkDatabase(SessionFactory sessionFactory, int bookCount, int customerCount, int authorCount) {
+        this.sessionFactory = sessionFactory;
+        this.bookCount = bookCount;
+        this.customerCount = customerCount;
+        this.authorCount = authorCount;
+    }
+
+    /**
+     * This method starts embedded database and seeds it with given number of sales
+     * @param salesCount Number of sales to seed
+     * @return Seeded database
+     */
+    public static BenchmarkDatabase create(int salesCount) {
+        System.setProperty("hibernate.connection.url", "jdbc:h2:mem:bookstore;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        System.setProperty("hibernate.connection.username", "sa");
+        System.setProperty("hibernate.connection.password", "");
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        System.setProperty("hibernate.show_sql", "false");
+        System.setProperty("bookstore.schema.migrate", "false");
+        SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+
+        int bookCount = Math.max(1000, salesCount / 100);
+        int customerCount = Math.max(100, salesCount / 50);
+        int authorCount = Math.max(10, bookCount / 10);
+        sessionFactory.inTransaction(session -> {
+            session.createNativeQuery(SEED_BOOKS_QUERY)
+                    .setParameter("authorCount", authorCount)
+                    .setParameter("genreCount", GENRE_COUNT)
+                    .setParameter("bookCount", bookCount)
+                    .executeUpdate();
+            session.createNativeQuery(SEED_CUSTOMERS_QUERY)
+                    .setParameter("customerCount", customerCount)
+                    .executeUpdate();
+            session.createNativeQuery(SEED_SALES_QUERY)
+                    .setParameter("bookCount", bookCount)
+                    .setParameter("customerCount", customerCount)
+                    .setParameter("salesCount", salesCount)
+                    .executeUpdate();
+            restartSequence(session, "books_seq", bookCount);
+            restartSequence(session, "customers_seq", customerCount);
+            restartSequence(session, "sales_seq", salesCount);
+            new GenreRevenueRollup().rebuild(session);
+            new DailySalesRollup().rebuild(session);
+        });
+        return new BenchmarkDatabase(sessionFactory, bookCount, customerCount, authorCount);
+    }
+
+    private static void restartSequence(Session session, String sequence, int seededRows) {
+        session.createNativeQuery("ALTER SEQUENCE " + sequence + " RESTART WITH " + (seededRows + 1000))
+                .executeUpdate();
+    }
+
+    public SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    public int randomBookId() {
+        return 1 + ThreadLocalRandom.current().nextInt(bookCount);
+    }
+
+    public int randomCustomerId() {
+        return 1 + ThreadLocalRandom.current().nextInt(customerCount);
+    }
+
+    public String randomCustomerEmail() {
+        return "customer" + randomCustomerId() + "@example.com";
+    }
+
+    public String randomGenre() {
+        return "Genre " + ThreadLocalRandom.current().nextInt(GENRE_COUNT);
+    }
+
+    public String randomAuthor() {
+        return "Author " + ThreadLocalRandom.current().nextInt(authorCount);
+    }
+}
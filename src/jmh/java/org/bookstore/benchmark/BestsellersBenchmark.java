@@ -0,0 +1,90 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.Bestsellers;
+import org.bookstore.HibernateUtil;
+import org.bookstore.StockWatchlist;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares top books of the last 7 days and books that are running out of stock when they are queried
+ * from sales and books and when they are read from live bestsellers and watchlist.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class BestsellersBenchmark {
+    private static final String TOP_BOOKS_QUERY = "SELECT book.bookID, book.title, SUM(sale.quantitySold) " +
+            "FROM Sale sale " +
+            "INNER JOIN sale.book book " +
+            "WHERE sale.dateOfSale >= :fromDate " +
+            "GROUP BY book.bookID, book.title " +
+            "ORDER BY SUM(sale.quantitySold) DESC";
+    private static final String LOW_STOCK_QUERY = "SELECT bookID, title, quantityInStock " +
+            "FROM Book " +
+            "WHERE quantityInStock <= :threshold " +
+            "ORDER BY quantityInStock";
+
+    @Param({"1000000"})
+    public int salesCount;
+
+    private BenchmarkDatabase database;
+    private SessionFactory sessionFactory;
+    private Bestsellers bestsellers;
+    private StockWatchlist stockWatchlist;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.create(salesCount);
+        sessionFactory = database.getSessionFactory();
+        sessionFactory.inTransaction(session -> session.createNativeQuery("UPDATE books " +
+                        "SET quantity_in_stock = MOD(book_id, 100) WHERE MOD(book_id, 10) = 0")
+                .executeUpdate());
+        bestsellers = Bestsellers.load(sessionFactory, 10);
+        stockWatchlist = StockWatchlist.load(sessionFactory, 5);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public List<Object[]> topBooksQuery() {
+        return sessionFactory.fromSession(session -> session.createQuery(TOP_BOOKS_QUERY, Object[].class)
+                .setParameter("fromDate", LocalDate.now().minusDays(6))
+                .setMaxResults(10)
+                .list());
+    }
+
+    @Benchmark
+    public List<Bestsellers.Bestseller> topBooks() {
+        return bestsellers.getTop(Bestsellers.Window.LAST_7_DAYS, Bestsellers.Metric.UNITS, null);
+    }
+
+    @Benchmark
+    public List<Bestsellers.Bestseller> topBooksOfGenre() {
+        return bestsellers.getTop(Bestsellers.Window.LAST_7_DAYS, Bestsellers.Metric.REVENUE,
+                database.randomGenre());
+    }
+
+    @Benchmark
+    public List<Object[]> lowStockQuery() {
+        return sessionFactory.fromSession(session -> session.createQuery(LOW_STOCK_QUERY, Object[].class)
+                .setParameter("threshold", 5)
+                .setMaxResults(20)
+                .list());
+    }
+
+    @Benchmark
+    public List<StockWatchlist.LowStockBook> lowStockWatchlist() {
+        return stockWatchlist.getBooks(20);
+    }
+}
@@ -0,0 +1,110 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.Book;
+import org.bookstore.BookstoreService;
+import org.bookstore.Customer;
+import org.bookstore.DailySalesRollup;
+import org.bookstore.GenreRevenue;
+import org.bookstore.HibernateUtil;
+import org.bookstore.Sale;
+import org.bookstore.SaleProcessor;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of operations behind every ActionType.
+ * Throughput and latency percentiles can be written as JSON with "-rf json".
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class BookstoreBenchmark {
+    @Param({"10000"})
+    public int salesCount;
+
+    private BenchmarkDatabase database;
+    private SessionFactory sessionFactory;
+    private SaleProcessor saleProcessor;
+    private BookstoreService bookstoreService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.create(salesCount);
+        sessionFactory = database.getSessionFactory();
+        saleProcessor = new SaleProcessor(sessionFactory);
+        bookstoreService = new BookstoreService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public void updateBookDetails() {
+        sessionFactory.inTransaction(session -> {
+            Book book = session.get(Book.class, database.randomBookId());
+            book.setPrice(5f + ThreadLocalRandom.current().nextInt(50));
+        });
+    }
+
+    @Benchmark
+    public List<Book> listBooksByGenre() {
+        return sessionFactory.fromSession(session -> bookstoreService.listBooksByGenre(session, database.randomGenre()));
+    }
+
+    @Benchmark
+    public List<Book> listBooksByAuthor() {
+        return sessionFactory.fromSession(session -> bookstoreService.listBooksByAuthor(session, database.randomAuthor()));
+    }
+
+    @Benchmark
+    public void updateCustomerInformation() {
+        sessionFactory.inTransaction(session -> {
+            Customer customer = session.get(Customer.class, database.randomCustomerId());
+            customer.setPhone(Integer.toString(ThreadLocalRandom.current().nextInt(1_000_000)));
+        });
+    }
+
+    @Benchmark
+    public List<Sale> customerPurchaseHistory() {
+        return sessionFactory.fromSession(session ->
+                bookstoreService.getPurchaseHistoryPage(session, database.randomCustomerId(), null, null, null, 20));
+    }
+
+    @Benchmark
+    public double revenueByGenre() {
+        return sessionFactory.fromSession(session -> bookstoreService.getRevenue(session, database.randomGenre()));
+    }
+
+    @Benchmark
+    public Sale processNewSale() {
+        return saleProcessor.processSale(database.randomBookId(), database.randomCustomerId(), 1);
+    }
+
+    @Benchmark
+    public long soldBookReport(Blackhole blackhole) {
+        return bookstoreService.streamSoldBooks(sessionFactory, blackhole::consume);
+    }
+
+    @Benchmark
+    public List<GenreRevenue> revenueByGenreReport() {
+        return sessionFactory.fromSession(session -> bookstoreService.getGenreRevenues(session));
+    }
+
+    @Benchmark
+    public List<DailySalesRollup.PeriodSales> salesReport() {
+        LocalDate toDate = LocalDate.now();
+        return sessionFactory.fromSession(session -> bookstoreService.getSales(session,
+                DailySalesRollup.Granularity.MONTH, DailySalesRollup.Dimension.GENRE, toDate.minusYears(1), toDate));
+    }
+}
@@ -0,0 +1,153 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.BulkImporter;
+import org.bookstore.Customer;
+import org.bookstore.CustomerDirectory;
+import org.bookstore.HibernateUtil;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares lookup of customers by email with a query and through natural-id cache and filter of emails,
+ * and import of customers when every row is checked in the database and when only rows that may be
+ * duplicates according to the filter are checked.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CustomerLookupBenchmark {
+    private static final String BY_EMAIL_QUERY = "FROM Customer WHERE email = :email";
+    private static final String EMAIL_COUNT_QUERY = "SELECT COUNT(*) FROM Customer WHERE email = :email";
+    private static final int IMPORTED_ROWS = 100_000;
+    private static final AtomicLong NEW_EMAILS = new AtomicLong();
+
+    @Param({"1000000"})
+    public int salesCount;
+
+    private BenchmarkDatabase database;
+    private SessionFactory sessionFactory;
+    private CustomerDirectory customerDirectory;
+
+    /**
+     * File of customers of which "duplicatePercent" have emails of seeded customers and the rest have new emails
+     */
+    @State(Scope.Thread)
+    public static class ImportFile {
+        @Param({"10", "90"})
+        public int duplicatePercent;
+
+        private Path file;
+
+        @Setup(Level.Invocation)
+        public void write(CustomerLookupBenchmark benchmark) throws IOException {
+            file = Files.createTempFile("customers", ".csv");
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write("name,email,phone\n");
+                for (int i = 0; i < IMPORTED_ROWS; i++) {
+                    String email = random.nextInt(100) < duplicatePercent
+                            ? benchmark.database.randomCustomerEmail()
+                            : "new" + NEW_EMAILS.incrementAndGet() + "@example.com";
+                    writer.write("Imported " + i + "," + email + ",555" + i + "\n");
+                }
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() throws IOException {
+            Files.delete(file);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.create(salesCount);
+        sessionFactory = database.getSessionFactory();
+        customerDirectory = CustomerDirectory.load(sessionFactory, 1_000_000, 0.01);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public Customer lookupByIdentifier() {
+        return sessionFactory.fromSession(session -> session.get(Customer.class, database.randomCustomerId()));
+    }
+
+    @Benchmark
+    public Customer lookupByEmailQuery() {
+        return sessionFactory.fromSession(session -> session.createQuery(BY_EMAIL_QUERY, Customer.class)
+                .setParameter("email", database.randomCustomerEmail())
+                .uniqueResult());
+    }
+
+    @Benchmark
+    public Customer lookupByNaturalId() {
+        return customerDirectory.findByEmail(database.randomCustomerEmail());
+    }
+
+    @Benchmark
+    public Customer lookupNewEmailQuery() {
+        return sessionFactory.fromSession(session -> session.createQuery(BY_EMAIL_QUERY, Customer.class)
+                .setParameter("email", "new" + ThreadLocalRandom.current().nextLong() + "@example.com")
+                .uniqueResult());
+    }
+
+    @Benchmark
+    public Customer lookupNewEmail() {
+        String email = "new" + ThreadLocalRandom.current().nextLong() + "@example.com";
+        return customerDirectory.mightExist(email) ? customerDirectory.findByEmail(email) : null;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public long importCheckingEveryRow(ImportFile importFile) throws IOException {
+        long rowCount = 0;
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             BufferedReader reader = Files.newBufferedReader(importFile.file, StandardCharsets.UTF_8)) {
+            session.beginTransaction();
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                long count = session.createQuery(EMAIL_COUNT_QUERY, Long.class)
+                        .setParameter("email", fields[1])
+                        .getSingleResult();
+                if (count == 0) {
+                    session.insert(new Customer(fields[0], fields[1], fields[2]));
+                    rowCount++;
+                }
+            }
+            session.getTransaction().commit();
+        }
+        return rowCount;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public long importWithEmailFilter(ImportFile importFile) throws IOException {
+        return new BulkImporter(sessionFactory).importFile(BulkImporter.ImportType.CUSTOMERS, importFile.file);
+    }
+}
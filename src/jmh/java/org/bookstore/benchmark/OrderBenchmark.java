@@ -0,0 +1,66 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.HibernateUtil;
+import org.bookstore.Order;
+import org.bookstore.Sale;
+import org.bookstore.SaleProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares checkout of several books as one order with checkout of the same books as separate sales,
+ * every operation is one checkout of all books
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class OrderBenchmark {
+    @Param({"10000"})
+    public int salesCount;
+
+    @Param({"1", "4", "12"})
+    public int booksPerCheckout;
+
+    private BenchmarkDatabase database;
+    private SaleProcessor saleProcessor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.create(salesCount);
+        saleProcessor = new SaleProcessor(database.getSessionFactory());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public Order processOrder() {
+        return saleProcessor.processOrder(database.randomCustomerId(), randomQuantities());
+    }
+
+    @Benchmark
+    public void processSales(Blackhole blackhole) {
+        int customerId = database.randomCustomerId();
+        for (Map.Entry<Integer, Integer> line : randomQuantities().entrySet()) {
+            Sale sale = saleProcessor.processSale(line.getKey(), customerId, line.getValue());
+            blackhole.consume(sale);
+        }
+    }
+
+    private Map<Integer, Integer> randomQuantities() {
+        Map<Integer, Integer> quantities = new HashMap<>();
+        while (quantities.size() < booksPerCheckout) {
+            quantities.put(database.randomBookId(), 1);
+        }
+        return quantities;
+    }
+}
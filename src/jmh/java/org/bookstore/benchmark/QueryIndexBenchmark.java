@@ -0,0 +1,177 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.Book;
+import org.bookstore.BookstoreService;
+import org.bookstore.HibernateUtil;
+import org.bookstore.Sale;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Compares queries of ConsoleApp with and without indexes of books and sales.
+ * Before measurement every query is explained by the database, plans are printed, and when indexes are created
+ * the trial fails unless the plan of the query uses its index. Listings are queried without the query cache,
+ * so the database is hit by every call. H2 creates an index for every foreign key, which PostgreSQL doesn't,
+ * so foreign keys of sales are dropped before plans are explained.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class QueryIndexBenchmark {
+    private static final int LOW_STOCK_THRESHOLD = 5;
+    private static final String[] INDEXES = {"idx_books_genre", "idx_books_author", "idx_books_quantity_in_stock",
+            "idx_sales_customer_date_id", "idx_sales_book_total_price"};
+    private static final String SALES_FOREIGN_KEYS_QUERY = "SELECT constraint_name " +
+            "FROM information_schema.table_constraints " +
+            "WHERE table_name = 'SALES' AND constraint_type = 'FOREIGN KEY'";
+
+    @Param({"1000000"})
+    public int salesCount;
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private BenchmarkDatabase database;
+    private SessionFactory sessionFactory;
+    private BookstoreService bookstoreService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.create(salesCount);
+        sessionFactory = database.getSessionFactory();
+        bookstoreService = new BookstoreService();
+        sessionFactory.inTransaction(session -> {
+            session.createNativeMutationQuery("UPDATE books " +
+                            "SET quantity_in_stock = MOD(book_id, 100) WHERE MOD(book_id, 10) = 0")
+                    .executeUpdate();
+            for (String foreignKey : session.createNativeQuery(SALES_FOREIGN_KEYS_QUERY, String.class).list()) {
+                session.createNativeMutationQuery("ALTER TABLE sales DROP CONSTRAINT \"" + foreignKey + "\"")
+                        .executeUpdate();
+            }
+            if (!indexed) {
+                for (String index : INDEXES) {
+                    session.createNativeMutationQuery("DROP INDEX " + index).executeUpdate();
+                }
+            }
+        });
+
+        verifyPlan("books by genre", "idx_books_genre", this::booksByGenre);
+        verifyPlan("books by author", "idx_books_author", this::booksByAuthor);
+        verifyPlan("purchase history", "idx_sales_customer_date_id", this::purchaseHistory);
+        verifyPlan("revenue of book", "idx_sales_book_total_price", this::revenueOfBook);
+        verifyPlan("low stock books", "idx_books_quantity_in_stock", this::lowStockBooks);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public List<Integer> listBooksByGenre() {
+        return sessionFactory.fromSession(this::booksByGenre);
+    }
+
+    @Benchmark
+    public List<Integer> listBooksByAuthor() {
+        return sessionFactory.fromSession(this::booksByAuthor);
+    }
+
+    @Benchmark
+    public List<Sale> customerPurchaseHistory() {
+        return sessionFactory.fromSession(this::purchaseHistory);
+    }
+
+    @Benchmark
+    public Object[] revenueOfBook() {
+        return sessionFactory.fromSession(this::revenueOfBook);
+    }
+
+    @Benchmark
+    public List<Object[]> lowStockBooks() {
+        return sessionFactory.fromSession(this::lowStockBooks);
+    }
+
+    private List<Integer> booksByGenre(Session session) {
+        return session.createNamedQuery(Book.BY_GENRE_QUERY, Integer.class)
+                .setParameter("genre", database.randomGenre())
+                .list();
+    }
+
+    private List<Integer> booksByAuthor(Session session) {
+        return session.createNamedQuery(Book.BY_AUTHOR_QUERY, Integer.class)
+                .setParameter("author", database.randomAuthor())
+                .list();
+    }
+
+    private List<Sale> purchaseHistory(Session session) {
+        return bookstoreService.getPurchaseHistoryPage(session, database.randomCustomerId(), null, null, null, 20);
+    }
+
+    private Object[] revenueOfBook(Session session) {
+        return session.createNamedQuery(Sale.REVENUE_OF_BOOK_QUERY, Object[].class)
+                .setParameter("bookId", database.randomBookId())
+                .uniqueResult();
+    }
+
+    private List<Object[]> lowStockBooks(Session session) {
+        return session.createNamedQuery(Book.LOW_STOCK_QUERY, Object[].class)
+                .setParameter("threshold", LOW_STOCK_THRESHOLD)
+                .list();
+    }
+
+    /**
+     * This method runs the query in a session that collects SQL of its statements, explains them and prints
+     * their plans. When indexes are created, one of the plans has to use the given index.
+     * @param name The name of the query
+     * @param index The index the query should use
+     * @param query The query
+     */
+    private void verifyPlan(String name, String index, Consumer<Session> query) {
+        List<String> statements = new ArrayList<>();
+        List<String> plans;
+        try (Session session = sessionFactory.withOptions()
+                .statementInspector(sql -> {
+                    statements.add(sql);
+                    return sql;
+                })
+                .openSession()) {
+            query.accept(session);
+            plans = session.doReturningWork(connection -> explain(connection, statements));
+        }
+        String plan = String.join(System.lineSeparator(), plans);
+        System.out.printf("%nPlan of %s, %d sales, indexes %s:%n%s%n", name, salesCount,
+                indexed ? "created" : "dropped", plan);
+        if (indexed && !plan.toLowerCase(Locale.ROOT).contains(index)) {
+            throw new IllegalStateException("Plan of " + name + " doesn't use " + index + ":"
+                    + System.lineSeparator() + plan);
+        }
+    }
+
+    private static List<String> explain(Connection connection, List<String> statements) throws SQLException {
+        List<String> plans = new ArrayList<>();
+        for (String sql : statements) {
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql);
+                 ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    plans.add(resultSet.getString(1));
+                }
+            }
+        }
+        return plans;
+    }
+}
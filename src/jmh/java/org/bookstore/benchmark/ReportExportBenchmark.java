@@ -0,0 +1,79 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.BookstoreService;
+import org.bookstore.HibernateUtil;
+import org.bookstore.ReportExporter;
+import org.bookstore.SalesSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures export of the report of all books sold to files in both formats, in one file and in parallel parts,
+ * streamed from the database and from the snapshot of sales. Besides exports per second it reports throughput
+ * as "rows" and "megabytes" per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class ReportExportBenchmark {
+    private static final Path DIRECTORY = Path.of("target", "report-export-benchmark");
+
+    @Param({"1000000"})
+    public int salesCount;
+
+    @Param({"CSV", "COLUMNAR"})
+    public ReportExporter.Format format;
+
+    @Param({"1", "4"})
+    public int parts;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private BenchmarkDatabase database;
+    private ReportExporter reportExporter;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long rows;
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = BenchmarkDatabase.create(salesCount);
+        BookstoreService bookstoreService = snapshot
+                ? new BookstoreService(SalesSnapshot.load(database.getSessionFactory()))
+                : new BookstoreService();
+        reportExporter = new ReportExporter(bookstoreService);
+        Files.createDirectories(DIRECTORY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public ReportExporter.ExportResult exportSoldBooks(Throughput throughput) throws IOException {
+        ReportExporter.ExportResult result = reportExporter.exportSoldBooks(database.getSessionFactory(),
+                DIRECTORY.resolve("sold-books." + format.getExtension()), format, parts);
+        throughput.rows += result.rowCount();
+        throughput.megabytes += result.byteCount() / (double) (1 << 20);
+        return result;
+    }
+}
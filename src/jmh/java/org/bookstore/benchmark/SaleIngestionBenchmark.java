@@ -0,0 +1,66 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.HibernateUtil;
+import org.bookstore.Sale;
+import org.bookstore.SaleIngestion;
+import org.bookstore.SaleProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sales committed one per transaction with sales committed in batches by the writer of sale ingestion,
+ * at different batch sizes. Every operation is one sale submitted by one of many threads and waited for until
+ * it is committed, so throughput is sales per millisecond and sample time is commit latency.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(32)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SaleIngestionBenchmark {
+    private static final Path JOURNAL = Path.of("target", "sale-ingestion-benchmark.journal");
+
+    @Param({"10000"})
+    public int salesCount;
+
+    @Param({"1", "8", "32", "256"})
+    public int batchSize;
+
+    @Param({"2"})
+    public int flushIntervalMillis;
+
+    private BenchmarkDatabase database;
+    private SaleProcessor saleProcessor;
+    private SaleIngestion saleIngestion;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = BenchmarkDatabase.create(salesCount);
+        saleProcessor = new SaleProcessor(database.getSessionFactory());
+        Files.deleteIfExists(JOURNAL);
+        saleIngestion = SaleIngestion.start(database.getSessionFactory(), JOURNAL, batchSize, flushIntervalMillis,
+                1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        saleIngestion.close();
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public Sale processSale() {
+        return saleProcessor.processSale(database.randomBookId(), database.randomCustomerId(), 1);
+    }
+
+    @Benchmark
+    public Sale ingestSale() {
+        return saleIngestion.submit(database.randomBookId(), database.randomCustomerId(), 1).committed().join();
+    }
+}
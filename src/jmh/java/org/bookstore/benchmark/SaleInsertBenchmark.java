@@ -0,0 +1,56 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.Book;
+import org.bookstore.Customer;
+import org.bookstore.HibernateUtil;
+import org.bookstore.Sale;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares throughput of batched sale inserts when every identifier costs a sequence call
+ * ("none" optimizer, as with allocation size of 1) and when identifiers are allocated in blocks ("pooled-lo").
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SaleInsertBenchmark {
+    private static final int SALES_PER_TRANSACTION = 1000;
+
+    @Param({"none", "pooled-lo"})
+    public String idOptimizer;
+
+    private BenchmarkDatabase database;
+    private SessionFactory sessionFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("hibernate.id.optimizer.pooled.preferred", idOptimizer);
+        database = BenchmarkDatabase.create(10_000);
+        sessionFactory = database.getSessionFactory();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SALES_PER_TRANSACTION)
+    public void insertSales() {
+        sessionFactory.inTransaction(session -> {
+            LocalDate today = LocalDate.now();
+            for (int i = 0; i < SALES_PER_TRANSACTION; i++) {
+                Book book = session.getReference(Book.class, database.randomBookId());
+                Customer customer = session.getReference(Customer.class, database.randomCustomerId());
+                session.persist(new Sale(book, customer, today, 1, 10f));
+            }
+        });
+    }
+}
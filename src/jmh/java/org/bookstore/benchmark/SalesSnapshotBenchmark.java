@@ -0,0 +1,98 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.BookstoreService;
+import org.bookstore.GenreRevenue;
+import org.bookstore.HibernateUtil;
+import org.bookstore.SalesSnapshot;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reports that aggregate or stream all sales when they are answered by HQL over sales table
+ * and when they scan the in-memory snapshot of sales. Seeding 10 million sales needs a few gigabytes of heap.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SalesSnapshotBenchmark {
+    private static final String GENRE_REVENUES_QUERY = "SELECT book.genre, SUM(sale.totalPrice), COUNT(sale) " +
+            "FROM Sale sale " +
+            "INNER JOIN sale.book book " +
+            "WHERE sale.quantitySold > :minQuantity " +
+            "GROUP BY book.genre " +
+            "ORDER BY book.genre";
+    private static final String GENRE_REVENUE_QUERY = "SELECT SUM(sale.totalPrice) " +
+            "FROM Sale sale " +
+            "INNER JOIN sale.book book " +
+            "WHERE book.genre = :genre";
+
+    @Param({"10000000"})
+    public int salesCount;
+
+    private BenchmarkDatabase database;
+    private SessionFactory sessionFactory;
+    private SalesSnapshot salesSnapshot;
+    private BookstoreService databaseService;
+    private BookstoreService snapshotService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.create(salesCount);
+        sessionFactory = database.getSessionFactory();
+        salesSnapshot = SalesSnapshot.load(sessionFactory);
+        databaseService = new BookstoreService();
+        snapshotService = new BookstoreService(salesSnapshot);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    /**
+     * Quantity filter that matches every sale is different in every call, so H2 doesn't give
+     * result of the previous execution of the same query
+     */
+    @Benchmark
+    public List<Object[]> genreRevenuesQuery() {
+        return sessionFactory.fromSession(session ->
+                session.createQuery(GENRE_REVENUES_QUERY, Object[].class)
+                        .setParameter("minQuantity", -ThreadLocalRandom.current().nextInt(1, 1_000_000))
+                        .list());
+    }
+
+    @Benchmark
+    public List<GenreRevenue> genreRevenuesSnapshot() {
+        return salesSnapshot.getGenreRevenues();
+    }
+
+    @Benchmark
+    public Double genreRevenueQuery() {
+        return sessionFactory.fromSession(session -> session.createQuery(GENRE_REVENUE_QUERY, Double.class)
+                .setParameter("genre", database.randomGenre())
+                .uniqueResult());
+    }
+
+    @Benchmark
+    public double genreRevenueSnapshot() {
+        return salesSnapshot.getRevenue(database.randomGenre());
+    }
+
+    @Benchmark
+    public long soldBookReportQuery(Blackhole blackhole) {
+        return databaseService.streamSoldBooks(sessionFactory, blackhole::consume);
+    }
+
+    @Benchmark
+    public long soldBookReportSnapshot(Blackhole blackhole) {
+        return snapshotService.streamSoldBooks(sessionFactory, blackhole::consume);
+    }
+}
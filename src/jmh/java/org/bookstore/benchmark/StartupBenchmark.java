@@ -0,0 +1,77 @@
+package org.bookstore.benchmark;
+
+import org.bookstore.GenreRevenue;
+import org.bookstore.HibernateUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time from cold start of Hibernate to the result of the first query, with schema validation
+ * and named query checks and in fast-start mode. Every measurement runs in a new JVM, AppCDS archive
+ * can be added with "-jvmArgsAppend -XX:SharedArchiveFile=target/bookstore.jsa".
+ * Schema of the file database is created by a separate JVM, so classes used to create it aren't loaded
+ * in the measured one.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(10)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class StartupBenchmark {
+    private static final Path DATABASE_DIRECTORY = Path.of("target", "startup-benchmark").toAbsolutePath();
+
+    @Param({"false", "true"})
+    public String fastStart;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        if (!Files.exists(DATABASE_DIRECTORY.resolve("bookstore.mv.db"))) {
+            Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), StartupBenchmark.class.getName())
+                    .inheritIO()
+                    .start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException("Schema of the startup benchmark database wasn't created.");
+            }
+        }
+        useDatabase("validate");
+        System.setProperty("bookstore.fastStart", fastStart);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public List<GenreRevenue> timeToFirstQuery() {
+        return HibernateUtil.getSessionFactory().fromSession(session ->
+                session.createNamedQuery(GenreRevenue.ALL_QUERY, GenreRevenue.class).list());
+    }
+
+    /**
+     * This method creates schema of the file database used by the benchmark
+     */
+    public static void main(String[] args) {
+        useDatabase("create");
+        boolean created = HibernateUtil.getSessionFactory() != null;
+        HibernateUtil.shutdown();
+        System.exit(created ? 0 : 1);
+    }
+
+    private static void useDatabase(String schemaAction) {
+        System.setProperty("hibernate.connection.url",
+                "jdbc:h2:file:" + DATABASE_DIRECTORY.resolve("bookstore") + ";MODE=PostgreSQL");
+        System.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        System.setProperty("hibernate.connection.username", "sa");
+        System.setProperty("hibernate.connection.password", "");
+        System.setProperty("hibernate.hbm2ddl.auto", schemaAction);
+        System.setProperty("bookstore.schema.migrate", "false");
+    }
+}
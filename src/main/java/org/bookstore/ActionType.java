@@ -10,6 +10,18 @@ enum ActionType{
     PROCESS_NEW_SALE(7),
     SOLD_BOOK_REPORT(8),
     REVENUE_BY_GENRE_REPORT(9),
+    CACHE_STATISTICS(10),
+    VERIFY_REVENUE_ROLLUP(11),
+    METRICS(12),
+    SEARCH_BOOKS(13),
+    SALES_REPORT(14),
+    BACKFILL_DAILY_SALES(15),
+    PROCESS_NEW_ORDER(16),
+    EXPORT_REPORT(17),
+    BESTSELLERS(18),
+    LOW_STOCK_WATCHLIST(19),
+    FIND_CUSTOMER_BY_EMAIL(20),
+    ADD_CUSTOMER(21),
     EXIT(0);
 
     private int value;
@@ -0,0 +1,49 @@
+package org.bookstore;
+
+import jakarta.persistence.*;
+
+@Entity
+@Table(name = "archived_book_sales")
+@NamedQuery(name = ArchivedBookSales.REVENUE_BY_GENRE_QUERY, query = "SELECT book.genre, SUM(a.revenue), " +
+        "SUM(a.salesCount) " +
+        "FROM ArchivedBookSales a " +
+        "INNER JOIN Book book ON book.bookID = a.bookId " +
+        "GROUP BY book.genre")
+public class ArchivedBookSales {
+    /**
+     * Genre, revenue and number of archived sales of every genre
+     */
+    public static final String REVENUE_BY_GENRE_QUERY = "ArchivedBookSales.revenueByGenre";
+
+    @Id
+    @Column(name = "book_id", nullable = false)
+    private Integer bookId;
+
+    @Column(name = "revenue", nullable = false)
+    private Double revenue;
+
+    @Column(name = "units", nullable = false)
+    private Long units;
+
+    @Column(name = "sales_count", nullable = false)
+    private Long salesCount;
+
+    public ArchivedBookSales() {
+    }
+
+    public Integer getBookId() {
+        return bookId;
+    }
+
+    public Double getRevenue() {
+        return revenue;
+    }
+
+    public Long getUnits() {
+        return units;
+    }
+
+    public Long getSalesCount() {
+        return salesCount;
+    }
+}
@@ -0,0 +1,470 @@
+package org.bookstore;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.Query;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Live top books by units and by revenue, overall and per genre, of today, of the last 7 and 30 days and of all time.
+ * Units and revenue of every book are counted per window in arrays indexed by book identifier, and per day of the last
+ * 30 days only for books sold that day. Every window, metric and genre keeps a min-heap of the top books, so a sale
+ * is compared with the smallest of them and a report reads a few heap entries instead of sales. When a day leaves
+ * windows, its counts are subtracted from them and their heaps are rebuilt, once per day.
+ * <p>
+ * Sales are dated by day, so windows are made of whole days in the default time zone.
+ * All-time counts are seeded from sales and archived totals, windows are seeded from daily sales.
+ * After the load, sales, and books that change title or genre, are followed when they are committed through
+ * the session factory, changes made by other processes aren't seen until restart.
+ */
+public class Bestsellers {
+    private static final int DAYS = 30;
+    private static final int NO_DAY = Integer.MIN_VALUE;
+    private static final int LOAD_FETCH_SIZE = 10_000;
+    private static final Comparator<Candidate> BETTER_FIRST =
+            Comparator.comparingLong(Candidate::score).reversed().thenComparingInt(Candidate::bookId);
+    private static final Window[] SLIDING_WINDOWS = {Window.TODAY, Window.LAST_7_DAYS, Window.LAST_30_DAYS};
+
+    public enum Window {
+        TODAY(1),
+        LAST_7_DAYS(7),
+        LAST_30_DAYS(DAYS),
+        ALL_TIME(0);
+
+        private final int days;
+
+        Window(int days) {
+            this.days = days;
+        }
+
+        /**
+         * @return Number of days of the window including today, 0 for all time
+         */
+        public int getDays() {
+            return days;
+        }
+    }
+
+    public enum Metric {
+        UNITS,
+        REVENUE
+    }
+
+    /**
+     * @param units Number of sold copies in the window
+     * @param revenue Revenue in the window
+     */
+    public record Bestseller(int bookId, String title, String genre, long units, double revenue) {
+    }
+
+    private final Object lock = new Object();
+    private final CommitBuffer commitBuffer = new CommitBuffer();
+    private final int size;
+    private final long[][][] counts = new long[Window.values().length][Metric.values().length][0];
+    private final List<Map<Integer, long[]>> dayCounts = new ArrayList<>(DAYS);
+    private final int[] slotDays = new int[DAYS];
+    private String[] titles = new String[0];
+    private String[] genres = new String[0];
+    private final TopBooks[][] overall;
+    private final Map<String, TopBooks[][]> byGenre = new HashMap<>();
+    private int today;
+
+    private Bestsellers(int size) {
+        this.size = size;
+        for (int slot = 0; slot < DAYS; slot++) {
+            dayCounts.add(new HashMap<>());
+        }
+        Arrays.fill(slotDays, NO_DAY);
+        overall = newTopBooks();
+        today = (int) LocalDate.now().toEpochDay();
+    }
+
+    /**
+     * This method counts sales of all books in one REPEATABLE READ transaction, so all-time counts and windows
+     * see the same sales, and starts following sales committed through the session factory. Listeners are
+     * registered before reading, and sales they report during the load are counted after it,
+     * unless the load has already counted them.
+     * @param sessionFactory The Hibernate session factory of the primary database
+     * @param size Number of books in every list of bestsellers
+     * @return Loaded bestsellers
+     */
+    public static Bestsellers load(SessionFactory sessionFactory, int size) {
+        Bestsellers bestsellers = new Bestsellers(size);
+        EventListenerRegistry listeners = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        CommitListener listener = bestsellers.new CommitListener();
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+
+        LocalDate firstDay = LocalDate.ofEpochDay(bestsellers.today - DAYS + 1);
+        bestsellers.commitBuffer.load(sessionFactory, session -> {
+            scroll(session.createQuery("SELECT book.bookID, book.title, book.genre, SUM(sale.quantitySold), " +
+                    "SUM(sale.totalPrice) " +
+                    "FROM Sale sale " +
+                    "INNER JOIN sale.book book " +
+                    "GROUP BY book.bookID, book.title, book.genre", Object[].class), row ->
+                    bestsellers.add((Integer) row[0], (String) row[1], (String) row[2], null,
+                            (Long) row[3], cents((Double) row[4])));
+            scroll(session.createQuery("SELECT book.bookID, book.title, book.genre, archived.units, " +
+                    "archived.revenue " +
+                    "FROM ArchivedBookSales archived " +
+                    "INNER JOIN Book book ON book.bookID = archived.bookId", Object[].class), row ->
+                    bestsellers.add((Integer) row[0], (String) row[1], (String) row[2], null,
+                            (Long) row[3], cents((Double) row[4])));
+            scroll(session.createQuery("SELECT book.bookID, book.title, book.genre, daily.key.saleDate, " +
+                    "daily.units, daily.revenue " +
+                    "FROM DailyBookSales daily " +
+                    "INNER JOIN Book book ON book.bookID = daily.key.bookId " +
+                    "WHERE daily.key.saleDate >= :firstDay", Object[].class)
+                    .setParameter("firstDay", firstDay), row ->
+                    bestsellers.addToWindows((Integer) row[0], (String) row[1], (String) row[2],
+                            (LocalDate) row[3], (Long) row[4], cents((Double) row[5])));
+        });
+        return bestsellers;
+    }
+
+    private static void scroll(Query<Object[]> query, Consumer<Object[]> rowConsumer) {
+        query.setFetchSize(LOAD_FETCH_SIZE);
+        try (ScrollableResults<Object[]> results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                rowConsumer.accept(results.get());
+            }
+        }
+    }
+
+    /**
+     * @return Number of books in every list of bestsellers
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * This method gives books with the largest units or revenue in the window. It reads only books kept
+     * in the heap of the window, so it takes the same time however many sales and books there are.
+     * @param window The window of sales
+     * @param metric The value books are ordered by
+     * @param genre The genre of books or null for books of all genres
+     * @return Up to {@link #getSize()} books ordered from the largest value
+     */
+    public List<Bestseller> getTop(Window window, Metric metric, String genre) {
+        synchronized (lock) {
+            advanceTo((int) LocalDate.now().toEpochDay());
+            TopBooks[][] topBooks = genre == null ? overall : byGenre.get(genre);
+            if (topBooks == null) {
+                return List.of();
+            }
+            long[][] windowCounts = counts[window.ordinal()];
+            List<Bestseller> bestsellers = new ArrayList<>();
+            for (Candidate candidate : topBooks[window.ordinal()][metric.ordinal()].top()) {
+                int bookId = candidate.bookId();
+                bestsellers.add(new Bestseller(bookId, titles[bookId], genres[bookId],
+                        windowCounts[Metric.UNITS.ordinal()][bookId],
+                        windowCounts[Metric.REVENUE.ordinal()][bookId] / 100.0));
+            }
+            return bestsellers;
+        }
+    }
+
+    /**
+     * This method counts units and revenue of the book in all time and, when the date is within the last
+     * 30 days, in every window that contains it. Dates after today are counted as today.
+     * @param date The date of sales or null if they have no date
+     */
+    private void add(int bookId, String title, String genre, LocalDate date, long units, long cents) {
+        synchronized (lock) {
+            advanceTo((int) LocalDate.now().toEpochDay());
+            putBook(bookId, title, genre);
+            addToWindow(Window.ALL_TIME, bookId, units, cents);
+            if (date != null) {
+                addToWindows(bookId, title, genre, date, units, cents);
+            }
+        }
+    }
+
+    private void addToWindows(int bookId, String title, String genre, LocalDate date, long units, long cents) {
+        synchronized (lock) {
+            int day = (int) Math.min(date.toEpochDay(), today);
+            if (day <= today - DAYS) {
+                return;
+            }
+            putBook(bookId, title, genre);
+            int slot = Math.floorMod(day, DAYS);
+            slotDays[slot] = day;
+            long[] bookDayCounts = dayCounts.get(slot).computeIfAbsent(bookId, id -> new long[Metric.values().length]);
+            bookDayCounts[Metric.UNITS.ordinal()] += units;
+            bookDayCounts[Metric.REVENUE.ordinal()] += cents;
+            for (Window window : SLIDING_WINDOWS) {
+                if (day > today - window.getDays()) {
+                    addToWindow(window, bookId, units, cents);
+                }
+            }
+        }
+    }
+
+    private void addToWindow(Window window, int bookId, long units, long cents) {
+        long[][] windowCounts = counts[window.ordinal()];
+        windowCounts[Metric.UNITS.ordinal()][bookId] += units;
+        windowCounts[Metric.REVENUE.ordinal()][bookId] += cents;
+        TopBooks[][] genreTopBooks = byGenre.computeIfAbsent(genres[bookId], genre -> newTopBooks());
+        for (Metric metric : Metric.values()) {
+            long count = windowCounts[metric.ordinal()][bookId];
+            overall[window.ordinal()][metric.ordinal()].offer(bookId, count);
+            genreTopBooks[window.ordinal()][metric.ordinal()].offer(bookId, count);
+        }
+    }
+
+    /**
+     * This method moves windows to the day, counts of days that leave a window are subtracted from it
+     * and heaps of windows are rebuilt from their counts
+     */
+    private void advanceTo(int day) {
+        if (day <= today) {
+            return;
+        }
+        if (day - today >= DAYS) {
+            for (Window window : SLIDING_WINDOWS) {
+                for (long[] metricCounts : counts[window.ordinal()]) {
+                    Arrays.fill(metricCounts, 0);
+                }
+            }
+            dayCounts.forEach(Map::clear);
+            Arrays.fill(slotDays, NO_DAY);
+            today = day;
+        }
+        while (today < day) {
+            today++;
+            for (Window window : SLIDING_WINDOWS) {
+                int expiredDay = today - window.getDays();
+                int slot = Math.floorMod(expiredDay, DAYS);
+                if (slotDays[slot] == expiredDay) {
+                    long[][] windowCounts = counts[window.ordinal()];
+                    dayCounts.get(slot).forEach((bookId, bookDayCounts) -> {
+                        for (Metric metric : Metric.values()) {
+                            windowCounts[metric.ordinal()][bookId] -= bookDayCounts[metric.ordinal()];
+                        }
+                    });
+                }
+            }
+            int slot = Math.floorMod(today, DAYS);
+            dayCounts.get(slot).clear();
+            slotDays[slot] = NO_DAY;
+        }
+        for (Window window : SLIDING_WINDOWS) {
+            rebuild(window);
+        }
+    }
+
+    private void rebuild(Window window) {
+        List<TopBooks[][]> allTopBooks = new ArrayList<>(byGenre.values());
+        allTopBooks.add(overall);
+        for (TopBooks[][] topBooks : allTopBooks) {
+            for (TopBooks metricTopBooks : topBooks[window.ordinal()]) {
+                metricTopBooks.clear();
+            }
+        }
+        long[][] windowCounts = counts[window.ordinal()];
+        for (int bookId = 0; bookId < titles.length; bookId++) {
+            if (windowCounts[Metric.UNITS.ordinal()][bookId] == 0) {
+                continue;
+            }
+            TopBooks[][] genreTopBooks = byGenre.get(genres[bookId]);
+            for (Metric metric : Metric.values()) {
+                long count = windowCounts[metric.ordinal()][bookId];
+                overall[window.ordinal()][metric.ordinal()].offer(bookId, count);
+                genreTopBooks[window.ordinal()][metric.ordinal()].offer(bookId, count);
+            }
+        }
+    }
+
+    /**
+     * This method keeps title and genre of the book, when its genre changed the book is moved to heaps
+     * of the new genre
+     */
+    private void updateBook(int bookId, String title, String genre) {
+        synchronized (lock) {
+            if (bookId >= titles.length || titles[bookId] == null) {
+                return;
+            }
+            String oldGenre = genres[bookId];
+            titles[bookId] = title;
+            genres[bookId] = genre;
+            if (oldGenre.equals(genre)) {
+                return;
+            }
+            TopBooks[][] oldGenreTopBooks = byGenre.get(oldGenre);
+            TopBooks[][] newGenreTopBooks = byGenre.computeIfAbsent(genre, newGenre -> newTopBooks());
+            for (Window window : Window.values()) {
+                for (Metric metric : Metric.values()) {
+                    if (oldGenreTopBooks[window.ordinal()][metric.ordinal()].remove(bookId)) {
+                        rebuildGenre(window, metric, oldGenre, oldGenreTopBooks);
+                    }
+                    long count = counts[window.ordinal()][metric.ordinal()][bookId];
+                    if (count > 0) {
+                        newGenreTopBooks[window.ordinal()][metric.ordinal()].offer(bookId, count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This method fills the heap of the genre again after one of its books left it,
+     * so a book of the genre that was just below the heap takes its place
+     */
+    private void rebuildGenre(Window window, Metric metric, String genre, TopBooks[][] genreTopBooks) {
+        TopBooks topBooks = genreTopBooks[window.ordinal()][metric.ordinal()];
+        topBooks.clear();
+        long[] metricCounts = counts[window.ordinal()][metric.ordinal()];
+        for (int bookId = 0; bookId < titles.length; bookId++) {
+            if (metricCounts[bookId] > 0 && genre.equals(genres[bookId])) {
+                topBooks.offer(bookId, metricCounts[bookId]);
+            }
+        }
+    }
+
+    private void putBook(int bookId, String title, String genre) {
+        if (bookId >= titles.length) {
+            int length = Math.max(bookId + 1, titles.length * 2);
+            titles = Arrays.copyOf(titles, length);
+            genres = Arrays.copyOf(genres, length);
+            for (long[][] windowCounts : counts) {
+                for (int metric = 0; metric < windowCounts.length; metric++) {
+                    windowCounts[metric] = Arrays.copyOf(windowCounts[metric], length);
+                }
+            }
+        }
+        if (titles[bookId] == null) {
+            titles[bookId] = title;
+            genres[bookId] = genre;
+        }
+    }
+
+    private TopBooks[][] newTopBooks() {
+        TopBooks[][] topBooks = new TopBooks[Window.values().length][Metric.values().length];
+        for (TopBooks[] windowTopBooks : topBooks) {
+            for (int metric = 0; metric < windowTopBooks.length; metric++) {
+                windowTopBooks[metric] = new TopBooks(size);
+            }
+        }
+        return topBooks;
+    }
+
+    private static long cents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    private record Candidate(int bookId, long score) {
+    }
+
+    /**
+     * Books with the largest scores, kept in a min-heap, so a book is compared with the smallest one of them.
+     * Scores of books only grow between rebuilds, so the heap always holds the real top books.
+     */
+    private static class TopBooks {
+        private final int capacity;
+        private final Map<Integer, Candidate> candidates = new HashMap<>();
+        private final PriorityQueue<Candidate> heap = new PriorityQueue<>(BETTER_FIRST.reversed());
+
+        private TopBooks(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void offer(int bookId, long score) {
+            Candidate newCandidate = new Candidate(bookId, score);
+            Candidate candidate = candidates.get(bookId);
+            if (candidate != null) {
+                heap.remove(candidate);
+            } else if (heap.size() == capacity) {
+                if (BETTER_FIRST.compare(newCandidate, heap.peek()) >= 0) {
+                    return;
+                }
+                candidates.remove(heap.poll().bookId());
+            }
+            candidates.put(bookId, newCandidate);
+            heap.add(newCandidate);
+        }
+
+        /**
+         * @return Whether the book was in the heap
+         */
+        private boolean remove(int bookId) {
+            Candidate candidate = candidates.remove(bookId);
+            return candidate != null && heap.remove(candidate);
+        }
+
+        private void clear() {
+            candidates.clear();
+            heap.clear();
+        }
+
+        private List<Candidate> top() {
+            List<Candidate> top = new ArrayList<>(heap);
+            top.sort(BETTER_FIRST);
+            return top;
+        }
+    }
+
+    /**
+     * Counts sales after transactions that insert them commit, so rolled back sales are never counted,
+     * and keeps titles and genres of books after they are changed
+     */
+    private class CommitListener implements PostCommitInsertEventListener, PostCommitUpdateEventListener {
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (event.getEntity() instanceof Sale sale) {
+                Book book = sale.getBook();
+                int bookId = book.getBookID();
+                String title = book.getTitle();
+                String genre = book.getGenre();
+                LocalDate dateOfSale = sale.getDateOfSale();
+                int quantity = sale.getQuantitySold();
+                long cents = cents(sale.getTotalPrice());
+                commitBuffer.applySale(sale.getSaleID(), () ->
+                        add(bookId, title, genre, dateOfSale, quantity, cents));
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (event.getEntity() instanceof Book book) {
+                int bookId = book.getBookID();
+                String title = book.getTitle();
+                String genre = book.getGenre();
+                commitBuffer.apply(() -> updateBook(bookId, title, genre));
+            }
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return true;
+        }
+    }
+}
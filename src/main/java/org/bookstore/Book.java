@@ -1,15 +1,63 @@
 package org.bookstore;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NamedNativeQuery;
 
 import java.math.BigDecimal;
 
 @Entity
-@Table(name = "books")
+@Table(name = "books", indexes = {
+        @Index(name = "idx_books_genre", columnList = "genre, book_id"),
+        @Index(name = "idx_books_author", columnList = "author"),
+        @Index(name = "idx_books_quantity_in_stock", columnList = "quantity_in_stock, book_id")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "books")
+@NamedQuery(name = Book.BY_GENRE_QUERY, query = "SELECT bookID FROM Book WHERE genre = :genre")
+@NamedQuery(name = Book.BY_AUTHOR_QUERY, query = "SELECT bookID FROM Book WHERE author = :author")
+@NamedQuery(name = Book.LOW_STOCK_QUERY, query = "SELECT bookID, title, quantityInStock FROM Book " +
+        "WHERE quantityInStock <= :threshold")
+@NamedNativeQuery(name = Book.LOCK_QUERY, query = "SELECT * FROM books WHERE book_id = :bookId FOR UPDATE",
+        resultClass = Book.class)
+@NamedNativeQuery(name = Book.TAKE_STOCK_QUERY, query = "UPDATE books " +
+        "SET quantity_in_stock = quantity_in_stock - :quantity " +
+        "WHERE book_id = :bookId AND quantity_in_stock >= :quantity", querySpaces = Book.STOCK_QUERY_SPACE)
 public class Book {
+    /**
+     * Identifiers of books that have the genre given as "genre" parameter
+     */
+    public static final String BY_GENRE_QUERY = "Book.byGenre";
+    /**
+     * Identifiers of books that were written by the author given as "author" parameter
+     */
+    public static final String BY_AUTHOR_QUERY = "Book.byAuthor";
+    /**
+     * Identifier, title and quantity in stock of books which quantity in stock is at most "threshold" parameter
+     */
+    public static final String LOW_STOCK_QUERY = "Book.lowStock";
+    /**
+     * Book which identifier is given as "bookId" parameter, its row is locked until the end of the transaction,
+     * so the book shouldn't be loaded by the session before
+     */
+    public static final String LOCK_QUERY = "Book.lock";
+    /**
+     * Takes "quantity" parameter from stock of the book which identifier is given as "bookId" parameter,
+     * it updates no row if there isn't enough quantity in stock
+     */
+    public static final String TAKE_STOCK_QUERY = "Book.takeStock";
+    /**
+     * Query space of the update of stock. No cached query depends on quantity in stock, so this space doesn't
+     * match any table and the update invalidates neither cached queries nor cached books,
+     * the sold book has to be refreshed or evicted by the caller.
+     */
+    public static final String STOCK_QUERY_SPACE = "books_stock";
+
     @Id
     @Column(name = "book_id", nullable = false)
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "books_seq")
+    @SequenceGenerator(name = "books_seq", sequenceName = "books_seq", allocationSize = 50)
     private Integer bookID;
 
     @Column(name = "title", nullable = false)
@@ -30,6 +78,14 @@ public class Book {
     public Book() {
     }
 
+    /**
+     * Creates reference to existing book, so associations can be set without loading it
+     * @param bookID The identifier of the book
+     */
+    Book(Integer bookID) {
+        this.bookID = bookID;
+    }
+
     public Book(String title, String author, String genre, Float price, Integer quantityInStock) {
         this.title = title;
         this.author = author;
@@ -0,0 +1,88 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Searches books by title or author ignoring case.
+ * Books which value starts with searched text are found first, ordered alphabetically. If there are fewer
+ * of them than requested, they are followed by books which value contains words similar to the text,
+ * ordered from the most similar, so misspelled names are found too.
+ * On PostgreSQL both searches are served by indexes of V6__book_search.sql, other databases
+ * support only prefix search.
+ */
+public class BookSearch {
+    private static final String WORD_SIMILARITY_THRESHOLD = "0.4";
+
+    private static final String SET_THRESHOLD_QUERY =
+            "SELECT set_config('pg_trgm.word_similarity_threshold', :threshold, true)";
+
+    public enum Field {
+        TITLE("title"),
+        AUTHOR("author");
+
+        private final String column;
+
+        Field(String column) {
+            this.column = column;
+        }
+    }
+
+    /**
+     * This method finds books which title or author matches the text
+     * @param session The Hibernate session
+     * @param field The searched field
+     * @param text The searched text
+     * @param limit Maximal number of books
+     * @return Books which value starts with the text followed by books with similar values
+     */
+    public List<Book> search(Session session, Field field, String text, int limit) {
+        String normalizedText = text.trim().toLowerCase(Locale.ROOT);
+        if (normalizedText.isEmpty()) {
+            return List.of();
+        }
+        String prefix = escapeLike(normalizedText) + "%";
+        if (!isPostgreSQL(session)) {
+            return session.createQuery("FROM Book WHERE lower(" + field.column + ") LIKE :prefix " +
+                            "ORDER BY lower(" + field.column + "), bookID", Book.class)
+                    .setParameter("prefix", prefix)
+                    .setMaxResults(limit)
+                    .list();
+        }
+        String value = "lower(b." + field.column + ")";
+        List<Book> books = new ArrayList<>(session.createNativeQuery("SELECT b.* FROM books b " +
+                        "WHERE " + value + " COLLATE \"C\" LIKE :prefix " +
+                        "ORDER BY " + value + " COLLATE \"C\", b.book_id " +
+                        "LIMIT :limit", Book.class)
+                .setParameter("prefix", prefix)
+                .setParameter("limit", limit)
+                .list());
+        if (books.size() == limit) {
+            return books;
+        }
+        session.createNativeQuery(SET_THRESHOLD_QUERY, String.class)
+                .setParameter("threshold", WORD_SIMILARITY_THRESHOLD)
+                .getSingleResult();
+        books.addAll(session.createNativeQuery("SELECT b.* FROM books b " +
+                        "WHERE :text <% " + value + " AND NOT " + value + " COLLATE \"C\" LIKE :prefix " +
+                        "ORDER BY :text <<-> " + value + " " +
+                        "LIMIT :limit", Book.class)
+                .setParameter("text", normalizedText)
+                .setParameter("prefix", prefix)
+                .setParameter("limit", limit - books.size())
+                .list());
+        return books;
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static boolean isPostgreSQL(Session session) {
+        return session.doReturningWork(connection -> connection.isWrapperFor(PGConnection.class));
+    }
+}
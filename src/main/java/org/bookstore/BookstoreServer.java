@@ -0,0 +1,725 @@
+package org.bookstore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * HTTP API of the bookstore, every operation of the console application is available as a resource.
+ * Parameters are taken from query string and from form encoded body, responses are JSON.
+ * <pre>
+ * GET  /books?genre=...                  list books of the genre
+ * GET  /books?author=...                 list books of the author
+ * GET  /books/search?title=...           books which title starts with or is similar to the text
+ * GET  /books/search?author=...          books which author starts with or is similar to the text
+ * PUT  /books/{id}                       update title, author, genre, price or quantityInStock
+ * GET  /customers?email=...              the customer that has the email
+ * POST /customers                        add customer of name, email and phone, or give the one
+ *                                        that already has the email
+ * PUT  /customers/{id}                   update name, email or phone
+ * GET  /customers/{id}/sales             purchase history, optional from, to, limit and cursor from "next"
+ * GET  /revenues/{genre}                 revenue of the genre
+ * GET  /revenues                         revenues of all genres
+ * POST /sales                            process sale of quantity of bookId to customerId, it is committed
+ *                                        with other sales by the writer of SaleIngestion when it is enabled
+ * POST /orders                           process order of customerId with items "bookId:quantity,..."
+ * GET  /reports/sold-books               all sold books, streamed, the last element is {"error": ...}
+ *                                        if the report fails after it started
+ * GET  /analytics/sales                  sales by day, week or month of granularity, grouped by genre, author
+ *                                        or book of dimension, optional from and to
+ * POST /analytics/backfill               recompute daily sales of optional from and to from sales
+ * GET  /revenue-verification             mismatches between revenue rollup and sales
+ * GET  /cache-statistics                 second-level and query cache statistics
+ * GET  /metrics                          latencies of operations and queries
+ * </pre>
+ * Every request is executed in its own transaction by a bounded pool of worker threads,
+ * listings, history and reports are read from the read-only session factory.
+ * Requests that need the database wait for one of as many permits as there are connections in the pool,
+ * if no permit is given in time they are answered with 503, so clients back off instead of piling up
+ * behind the connection pool. When the queue of workers is full, new connections are closed.
+ */
+public class BookstoreServer {
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 20;
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    private static final String EMAIL_REGEX = "^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,}$";
+    private static final String PHONE_REGEX = "^[0-9]+$";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+    private static final String MAX_IDLE_CONNECTIONS_PROPERTY = "sun.net.httpserver.maxIdleConnections";
+    private static final int MAX_IDLE_CONNECTIONS = 10_000;
+
+    static {
+        // Server writes headers and body separately, without TCP_NODELAY every response waits for delayed ACK
+        if (System.getProperty(NO_DELAY_PROPERTY) == null) {
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+        }
+        // By default server keeps only 200 idle connections and closes the others after their response,
+        // while keep-alive clients may already be sending the next request on them
+        if (System.getProperty(MAX_IDLE_CONNECTIONS_PROPERTY) == null) {
+            System.setProperty(MAX_IDLE_CONNECTIONS_PROPERTY, String.valueOf(MAX_IDLE_CONNECTIONS));
+        }
+    }
+
+    private final SessionFactory sessionFactory;
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore databasePermits;
+    private final long permitTimeoutMillis;
+    private final Supplier<SessionFactory> readOnlySessionFactory;
+    private final UnitOfWork unitOfWork;
+    private final UnitOfWork readOnlyUnitOfWork;
+    private final SaleProcessor saleProcessor;
+    private final BookstoreService bookstoreService = new BookstoreService(HibernateUtil.getSalesSnapshot());
+    private final SaleIngestion saleIngestion = HibernateUtil.getSaleIngestion();
+    private final CustomerDirectory customerDirectory = HibernateUtil.getCustomerDirectory();
+    private final GenreRevenueRollup genreRevenueRollup = new GenreRevenueRollup();
+    private final DailySalesRollup dailySalesRollup = new DailySalesRollup();
+
+    /**
+     * @param sessionFactory The Hibernate session factory
+     * @param readOnlySessionFactory Supplier of session factory for listings, history and reports
+     * @param port The port to listen on
+     * @param threads Number of worker threads
+     * @param queueCapacity Number of requests that can wait for a worker thread
+     * @param databasePermits Number of requests that can use the database at once, should be size of connection pool
+     * @param permitTimeoutMillis How long request waits for the database before it is answered with 503
+     * @throws IOException If the port can't be bound
+     */
+    public BookstoreServer(SessionFactory sessionFactory, Supplier<SessionFactory> readOnlySessionFactory, int port, int threads, int queueCapacity,
+                           int databasePermits, long permitTimeoutMillis) throws IOException {
+        this.sessionFactory = sessionFactory;
+        this.readOnlySessionFactory = readOnlySessionFactory;
+        this.unitOfWork = new UnitOfWork(sessionFactory);
+        this.readOnlyUnitOfWork = new UnitOfWork(readOnlySessionFactory, true);
+        this.saleProcessor = new SaleProcessor(sessionFactory);
+        this.databasePermits = new Semaphore(databasePermits, true);
+        this.permitTimeoutMillis = permitTimeoutMillis;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        this.server = HttpServer.create(new InetSocketAddress(port), queueCapacity);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * This method stops accepting requests and waits for the ones in progress to finish
+     * @param delaySeconds Maximal time to wait for requests in progress
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            List<String> path = Arrays.stream(exchange.getRequestURI().getPath().split("/"))
+                    .filter(segment -> !segment.isEmpty())
+                    .toList();
+            Map<String, String> params = readParameters(exchange);
+            ActionType action = resolveAction(exchange.getRequestMethod(), path, params);
+            if (action == null) {
+                sendError(exchange, 404, "Resource wasn't found.");
+                return;
+            }
+            long startTime = System.nanoTime();
+            long startStatementCount = QueryMetrics.statementCount();
+            boolean failed = false;
+            try {
+                execute(exchange, action, path, params);
+            } catch (RequestException e) {
+                failed = e.status >= 500;
+                sendError(exchange, e.status, e.getMessage());
+            } catch (IllegalArgumentException | DateTimeException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (RuntimeException e) {
+                failed = true;
+                e.printStackTrace();
+                sendError(exchange, 500, "Request failed, its changes were rolled back.");
+            } finally {
+                Metrics.recordAction(action.name(), System.nanoTime() - startTime,
+                        QueryMetrics.statementCount() - startStatementCount, failed);
+            }
+        }
+    }
+
+    private ActionType resolveAction(String method, List<String> path, Map<String, String> params) {
+        String resource = path.isEmpty() ? "" : path.get(0);
+        int length = path.size();
+        return switch (method + " " + resource) {
+            case "GET books" -> length == 2 && path.get(1).equals("search") ? ActionType.SEARCH_BOOKS
+                    : length != 1 ? null
+                    : params.containsKey("author") ? ActionType.LIST_BOOKS_BY_AUTHOR : ActionType.LIST_BOOKS_BY_GENRE;
+            case "PUT books" -> length == 2 ? ActionType.UPDATE_BOOK_DETAILS : null;
+            case "PUT customers" -> length == 2 ? ActionType.UPDATE_CUSTOMERS_INFO : null;
+            case "GET customers" -> length == 3 && path.get(2).equals("sales") ? ActionType.CUSTOMERS_PURCHASE_HISTORY
+                    : length == 1 ? ActionType.FIND_CUSTOMER_BY_EMAIL : null;
+            case "POST customers" -> length == 1 ? ActionType.ADD_CUSTOMER : null;
+            case "GET revenues" -> length == 1 ? ActionType.REVENUE_BY_GENRE_REPORT
+                    : length == 2 ? ActionType.REVENUE_BY_GENRE : null;
+            case "POST sales" -> length == 1 ? ActionType.PROCESS_NEW_SALE : null;
+            case "POST orders" -> length == 1 ? ActionType.PROCESS_NEW_ORDER : null;
+            case "GET reports" -> length == 2 && path.get(1).equals("sold-books") ? ActionType.SOLD_BOOK_REPORT : null;
+            case "GET analytics" -> length == 2 && path.get(1).equals("sales") ? ActionType.SALES_REPORT : null;
+            case "POST analytics" -> length == 2 && path.get(1).equals("backfill")
+                    ? ActionType.BACKFILL_DAILY_SALES : null;
+            case "GET revenue-verification" -> length == 1 ? ActionType.VERIFY_REVENUE_ROLLUP : null;
+            case "GET cache-statistics" -> length == 1 ? ActionType.CACHE_STATISTICS : null;
+            case "GET metrics" -> length == 1 ? ActionType.METRICS : null;
+            default -> null;
+        };
+    }
+
+    private void execute(HttpExchange exchange, ActionType action, List<String> path, Map<String, String> params)
+            throws IOException {
+        if (action == ActionType.CACHE_STATISTICS) {
+            sendJson(exchange, 200, cacheStatistics());
+            return;
+        }
+        if (action == ActionType.METRICS) {
+            sendJson(exchange, 200, metrics());
+            return;
+        }
+        if (action == ActionType.PROCESS_NEW_SALE && saleIngestion != null) {
+            sendJson(exchange, 201, ingestSale(params));
+            return;
+        }
+        acquireDatabasePermit();
+        try {
+            switch (action) {
+                case LIST_BOOKS_BY_GENRE -> sendJson(exchange, 200, readOnlyUnitOfWork.execute(session -> toJson(
+                        bookstoreService.listBooksByGenre(session, requiredParameter(params, "genre")))));
+                case LIST_BOOKS_BY_AUTHOR -> sendJson(exchange, 200, readOnlyUnitOfWork.execute(session -> toJson(
+                        bookstoreService.listBooksByAuthor(session, requiredParameter(params, "author")))));
+                case SEARCH_BOOKS -> sendJson(exchange, 200, searchBooks(params));
+                case UPDATE_BOOK_DETAILS -> sendJson(exchange, 200, updateBook(parseId(path.get(1)), params));
+                case UPDATE_CUSTOMERS_INFO -> sendJson(exchange, 200, updateCustomer(parseId(path.get(1)), params));
+                case CUSTOMERS_PURCHASE_HISTORY -> sendJson(exchange, 200,
+                        customerHistory(parseId(path.get(1)), params));
+                case FIND_CUSTOMER_BY_EMAIL -> sendJson(exchange, 200, findCustomer(params));
+                case ADD_CUSTOMER -> sendJson(exchange, 200, addCustomer(params));
+                case REVENUE_BY_GENRE -> {
+                    String genre = path.get(1);
+                    double revenue = readOnlyUnitOfWork.execute(session -> bookstoreService.getRevenue(session, genre));
+                    sendJson(exchange, 200, Map.of("genre", genre, "revenue", revenue));
+                }
+                case REVENUE_BY_GENRE_REPORT -> sendJson(exchange, 200, readOnlyUnitOfWork.execute(session -> {
+                    List<Map<String, Object>> revenues = new ArrayList<>();
+                    for (GenreRevenue genreRevenue : bookstoreService.getGenreRevenues(session)) {
+                        revenues.add(Map.of("genre", genreRevenue.getGenre(), "revenue", genreRevenue.getRevenue()));
+                    }
+                    return revenues;
+                }));
+                case PROCESS_NEW_SALE -> sendJson(exchange, 201, processSale(params));
+                case PROCESS_NEW_ORDER -> sendJson(exchange, 201, processOrder(params));
+                case SOLD_BOOK_REPORT -> streamSoldBooks(exchange);
+                case VERIFY_REVENUE_ROLLUP -> sendJson(exchange, 200,
+                        Map.of("mismatches", readOnlyUnitOfWork.execute(genreRevenueRollup::verify)));
+                case SALES_REPORT -> sendJson(exchange, 200, salesReport(params));
+                case BACKFILL_DAILY_SALES -> sendJson(exchange, 200, backfillDailySales(params));
+                default -> throw new RequestException(404, "Resource wasn't found.");
+            }
+        } finally {
+            databasePermits.release();
+        }
+    }
+
+    private void acquireDatabasePermit() {
+        try {
+            if (!databasePermits.tryAcquire(permitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new RequestException(503, "All database connections are busy, try again later.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(503, "Request was interrupted.");
+        }
+    }
+
+    private List<Map<String, Object>> searchBooks(Map<String, String> params) {
+        BookSearch.Field field = params.containsKey("author") ? BookSearch.Field.AUTHOR : BookSearch.Field.TITLE;
+        String text = requiredParameter(params, field == BookSearch.Field.AUTHOR ? "author" : "title");
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_SEARCH_LIMIT;
+        if (limit <= 0 || limit > MAX_SEARCH_LIMIT) {
+            throw new IllegalArgumentException("Limit should be between 1 and " + MAX_SEARCH_LIMIT + ".");
+        }
+        return readOnlyUnitOfWork.execute(session -> toJson(bookstoreService.searchBooks(session, field, text, limit)));
+    }
+
+    private Map<String, Object> updateBook(int bookId, Map<String, String> params) {
+        return unitOfWork.execute(session -> {
+            Book book = session.createNamedQuery(Book.LOCK_QUERY, Book.class)
+                    .setParameter("bookId", bookId)
+                    .uniqueResult();
+            if (book == null) {
+                throw new RequestException(404, "There is no book with given identifier.");
+            }
+            String oldGenre = book.getGenre();
+            if (params.containsKey("title")) {
+                book.setTitle(params.get("title"));
+            }
+            if (params.containsKey("author")) {
+                book.setAuthor(params.get("author"));
+            }
+            if (params.containsKey("genre")) {
+                book.setGenre(params.get("genre"));
+            }
+            if (params.containsKey("price")) {
+                float price = Float.parseFloat(params.get("price"));
+                if (price <= 0) {
+                    throw new IllegalArgumentException("Price should be positive floating point number.");
+                }
+                book.setPrice(price);
+            }
+            if (params.containsKey("quantityInStock")) {
+                int quantityInStock = Integer.parseInt(params.get("quantityInStock"));
+                if (quantityInStock < 0) {
+                    throw new IllegalArgumentException("Quantity in stock should be not negative integer number.");
+                }
+                book.setQuantityInStock(quantityInStock);
+            }
+            if (!oldGenre.equals(book.getGenre())) {
+                genreRevenueRollup.moveBookRevenue(session, bookId, oldGenre, book.getGenre());
+            }
+            return toJson(book);
+        });
+    }
+
+    private Map<String, Object> updateCustomer(int customerId, Map<String, String> params) {
+        return unitOfWork.execute(session -> {
+            Customer customer = session.get(Customer.class, customerId);
+            if (customer == null) {
+                throw new RequestException(404, "There is no customer with given identifier.");
+            }
+            if (params.containsKey("name")) {
+                customer.setName(params.get("name"));
+            }
+            if (params.containsKey("email")) {
+                if (!params.get("email").matches(EMAIL_REGEX)) {
+                    throw new IllegalArgumentException("Not valid email was given.");
+                }
+                customer.setEmail(params.get("email"));
+            }
+            if (params.containsKey("phone")) {
+                if (!params.get("phone").matches(PHONE_REGEX)) {
+                    throw new IllegalArgumentException("Not valid phone number was given.");
+                }
+                customer.setPhone(params.get("phone"));
+            }
+            return toJson(customer);
+        });
+    }
+
+    /**
+     * This method gives one page of purchase history, cursor of the next page is "date,id" of the last sale
+     */
+    private Map<String, Object> customerHistory(int customerId, Map<String, String> params) {
+        LocalDate fromDate = params.containsKey("from") ? LocalDate.parse(params.get("from")) : null;
+        LocalDate toDate = params.containsKey("to") ? LocalDate.parse(params.get("to")) : null;
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_HISTORY_PAGE_SIZE;
+        if (limit <= 0 || limit > MAX_HISTORY_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit should be between 1 and " + MAX_HISTORY_PAGE_SIZE + ".");
+        }
+        LocalDate lastDateOfSale = null;
+        Integer lastSaleId = null;
+        if (params.containsKey("cursor")) {
+            String[] cursor = params.get("cursor").split(",");
+            if (cursor.length != 2) {
+                throw new IllegalArgumentException("Cursor should be the value of \"next\" of previous page.");
+            }
+            lastDateOfSale = LocalDate.parse(cursor[0]);
+            lastSaleId = Integer.parseInt(cursor[1]);
+        }
+        LocalDate afterDate = lastDateOfSale;
+        Integer afterId = lastSaleId;
+        return readOnlyUnitOfWork.execute(session -> {
+            if (session.get(Customer.class, customerId) == null) {
+                throw new RequestException(404, "There is no customer with given identifier.");
+            }
+            List<Sale> sales = bookstoreService.getPurchaseHistoryPage(session, customerId, fromDate, toDate,
+                    afterDate, afterId, limit);
+            List<Map<String, Object>> salesJson = new ArrayList<>();
+            for (Sale sale : sales) {
+                salesJson.add(toJson(sale));
+            }
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("sales", salesJson);
+            if (sales.size() == limit) {
+                Sale last = sales.get(sales.size() - 1);
+                page.put("next", last.getDateOfSale() + "," + last.getSaleID());
+            }
+            return page;
+        });
+    }
+
+    /**
+     * This method gives sales of every period, by default daily sales of genres in the last month
+     */
+    private List<Map<String, Object>> salesReport(Map<String, String> params) {
+        DailySalesRollup.Granularity granularity = DailySalesRollup.Granularity.valueOf(
+                params.getOrDefault("granularity", "day").toUpperCase(Locale.ROOT));
+        DailySalesRollup.Dimension dimension = DailySalesRollup.Dimension.valueOf(
+                params.getOrDefault("dimension", "genre").toUpperCase(Locale.ROOT));
+        LocalDate toDate = params.containsKey("to") ? LocalDate.parse(params.get("to")) : LocalDate.now();
+        LocalDate fromDate = params.containsKey("from") ? LocalDate.parse(params.get("from")) : toDate.minusMonths(1);
+        return readOnlyUnitOfWork.execute(session -> {
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (DailySalesRollup.PeriodSales sales : bookstoreService.getSales(session, granularity, dimension,
+                    fromDate, toDate)) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("period", sales.period());
+                json.put("name", sales.name());
+                json.put("revenue", sales.revenue());
+                json.put("units", sales.units());
+                json.put("salesCount", sales.salesCount());
+                results.add(json);
+            }
+            return results;
+        });
+    }
+
+    private Map<String, Object> backfillDailySales(Map<String, String> params) {
+        LocalDate fromDate = params.containsKey("from") ? LocalDate.parse(params.get("from")) : null;
+        LocalDate toDate = params.containsKey("to") ? LocalDate.parse(params.get("to")) : null;
+        Map<String, Object> months = new LinkedHashMap<>();
+        dailySalesRollup.backfill(unitOfWork, fromDate, toDate, (month, rows) -> months.put(month.toString(), rows));
+        return Map.of("months", months);
+    }
+
+    private Map<String, Object> processSale(Map<String, String> params) {
+        int bookId = Integer.parseInt(requiredParameter(params, "bookId"));
+        int customerId = Integer.parseInt(requiredParameter(params, "customerId"));
+        int quantity = Integer.parseInt(requiredParameter(params, "quantity"));
+        return unitOfWork.execute(session -> {
+            if (session.get(Customer.class, customerId) == null) {
+                throw new RequestException(404, "There is no customer with given identifier.");
+            }
+            Sale sale = saleProcessor.processSale(session, bookId, customerId, quantity);
+            if (sale == null) {
+                throw new RequestException(409, "There is no such book or there isn't enough quantity of it in stock.");
+            }
+            return toJson(sale);
+        });
+    }
+
+    private Map<String, Object> findCustomer(Map<String, String> params) {
+        Customer customer = customerDirectory.findByEmail(requiredParameter(params, "email"));
+        if (customer == null) {
+            throw new RequestException(404, "There is no customer with given email.");
+        }
+        return toJson(customer);
+    }
+
+    private Map<String, Object> addCustomer(Map<String, String> params) {
+        String name = requiredParameter(params, "name");
+        String email = requiredParameter(params, "email");
+        String phone = requiredParameter(params, "phone");
+        if (!email.matches(EMAIL_REGEX)) {
+            throw new IllegalArgumentException("Not valid email was given.");
+        }
+        if (!phone.matches(PHONE_REGEX)) {
+            throw new IllegalArgumentException("Not valid phone number was given.");
+        }
+        return toJson(customerDirectory.findOrCreate(name, email, phone));
+    }
+
+    /**
+     * This method waits until the sale is committed by the writer of sale ingestion. It doesn't take
+     * a database permit, since the writer commits sales of all waiting requests with its own connection.
+     */
+    private Map<String, Object> ingestSale(Map<String, String> params) {
+        int bookId = Integer.parseInt(requiredParameter(params, "bookId"));
+        int customerId = Integer.parseInt(requiredParameter(params, "customerId"));
+        int quantity = Integer.parseInt(requiredParameter(params, "quantity"));
+        Sale sale;
+        try {
+            sale = saleIngestion.submit(bookId, customerId, quantity).committed().join();
+        } catch (CompletionException e) {
+            if (UnitOfWork.isConstraintViolation(e)) {
+                throw new RequestException(409, "Sale was rejected, there may be no customer with given identifier.");
+            }
+            throw e;
+        }
+        if (sale == null) {
+            throw new RequestException(409, "There is no such book or there isn't enough quantity of it in stock.");
+        }
+        return toJson(sale);
+    }
+
+    private Map<String, Object> processOrder(Map<String, String> params) {
+        int customerId = Integer.parseInt(requiredParameter(params, "customerId"));
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (String item : requiredParameter(params, "items").split(",")) {
+            String[] bookQuantity = item.split(":");
+            if (bookQuantity.length != 2) {
+                throw new IllegalArgumentException("Items should be given as \"bookId:quantity,bookId:quantity\".");
+            }
+            quantities.merge(Integer.parseInt(bookQuantity[0].trim()), Integer.parseInt(bookQuantity[1].trim()),
+                    Integer::sum);
+        }
+        return unitOfWork.execute(session -> {
+            if (session.get(Customer.class, customerId) == null) {
+                throw new RequestException(404, "There is no customer with given identifier.");
+            }
+            Order order = saleProcessor.processOrder(session, customerId, quantities);
+            if (order == null) {
+                throw new RequestException(409,
+                        "Some book doesn't exist or there isn't enough quantity of it in stock.");
+            }
+            return toJson(order);
+        });
+    }
+
+    /**
+     * This method writes the report as JSON array while rows are read, so its size isn't limited by memory.
+     * Status 200 is sent before the first row, so if reading fails later the array ends with an error object
+     * instead of the remaining rows.
+     */
+    private void streamSoldBooks(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            writer.write('[');
+            StringBuilder row = new StringBuilder();
+            long[] rowCount = {0};
+            try {
+                streamSoldBooks(writer, row, rowCount);
+            } catch (RuntimeException e) {
+                row.setLength(0);
+                if (rowCount[0] > 0) {
+                    row.append(',');
+                }
+                Json.write(row, Map.of("error", "Report failed, the remaining rows are missing."));
+                try {
+                    writer.write(row.toString());
+                    writer.write(']');
+                } catch (IOException writeException) {
+                    e.addSuppressed(writeException);
+                }
+                throw e;
+            }
+            writer.write(']');
+        }
+    }
+
+    private void streamSoldBooks(Writer writer, StringBuilder row, long[] rowCount) {
+        bookstoreService.streamSoldBooks(readOnlySessionFactory.get(), result -> {
+            row.setLength(0);
+            if (rowCount[0]++ > 0) {
+                row.append(',');
+            }
+            Map<String, Object> rowJson = new LinkedHashMap<>();
+            rowJson.put("title", result[0]);
+            rowJson.put("customer", result[1]);
+            rowJson.put("dateOfSale", result[2]);
+            Json.write(row, rowJson);
+            try {
+                writer.write(row.toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private Map<String, Object> cacheStatistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(regionName);
+            if (regionStatistics != null) {
+                regions.put(regionName, Map.of("hits", regionStatistics.getHitCount(),
+                        "misses", regionStatistics.getMissCount(), "puts", regionStatistics.getPutCount()));
+            }
+        }
+        Map<String, Object> cacheStatistics = new LinkedHashMap<>();
+        cacheStatistics.put("regions", regions);
+        cacheStatistics.put("queryCache", Map.of("hits", statistics.getQueryCacheHitCount(),
+                "misses", statistics.getQueryCacheMissCount(), "puts", statistics.getQueryCachePutCount()));
+        return cacheStatistics;
+    }
+
+    private Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        Map<String, Object> actions = new LinkedHashMap<>();
+        Metrics.actionSnapshot().forEach((action, snapshot) -> {
+            Map<String, Object> actionJson = toJson(snapshot);
+            actionJson.put("statementsPerExecution", Metrics.statementsPerExecution(action, snapshot));
+            actions.put(action, actionJson);
+        });
+        Map<String, Object> queries = new LinkedHashMap<>();
+        QueryMetrics.snapshot().forEach((query, snapshot) -> queries.put(query, toJson(snapshot)));
+        metrics.put("actions", actions);
+        metrics.put("queries", queries);
+        PoolMetrics.Snapshot poolMetrics = HibernateUtil.getPoolMetrics();
+        metrics.put("connectionPool", poolMetrics == null ? null : poolMetrics.toString());
+        return metrics;
+    }
+
+    private static Map<String, Object> toJson(LatencyMetrics.Snapshot snapshot) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("count", snapshot.count());
+        json.put("errors", snapshot.errors());
+        json.put("p50Millis", snapshot.p50Millis());
+        json.put("p95Millis", snapshot.p95Millis());
+        json.put("p99Millis", snapshot.p99Millis());
+        json.put("maxMillis", snapshot.maxMillis());
+        return json;
+    }
+
+    private static List<Map<String, Object>> toJson(List<Book> books) {
+        List<Map<String, Object>> json = new ArrayList<>(books.size());
+        for (Book book : books) {
+            json.add(toJson(book));
+        }
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Book book) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", book.getBookID());
+        json.put("title", book.getTitle());
+        json.put("author", book.getAuthor());
+        json.put("genre", book.getGenre());
+        json.put("price", book.getPrice());
+        json.put("quantityInStock", book.getQuantityInStock());
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Customer customer) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", customer.getCustomerID());
+        json.put("name", customer.getName());
+        json.put("email", customer.getEmail());
+        json.put("phone", customer.getPhone());
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Order order) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", order.getOrderID());
+        json.put("customerId", order.getCustomer().getCustomerID());
+        json.put("dateOfOrder", order.getDateOfOrder());
+        json.put("totalPrice", order.getTotalPrice());
+        List<Map<String, Object>> sales = new ArrayList<>();
+        for (Sale sale : order.getSales()) {
+            sales.add(toJson(sale));
+        }
+        json.put("sales", sales);
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Sale sale) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", sale.getSaleID());
+        json.put("bookId", sale.getBook().getBookID());
+        json.put("title", sale.getBook().getTitle());
+        json.put("dateOfSale", sale.getDateOfSale());
+        json.put("quantitySold", sale.getQuantitySold());
+        json.put("totalPrice", sale.getTotalPrice());
+        return json;
+    }
+
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            throw new RequestException(404, "Resource wasn't found.");
+        }
+    }
+
+    private static String requiredParameter(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Parameter " + name + " is required.");
+        }
+        return value;
+    }
+
+    private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseParameters(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parseParameters(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseParameters(String encoded, Map<String, String> params) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            // Headers of another response were already sent, the error was reported in its body if possible
+            return;
+        }
+        if (status == 503) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+        sendJson(exchange, status, Map.of("error", message == null ? "" : message));
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+
+    /**
+     * Request can't be executed, the status is sent to client and the transaction is rolled back
+     */
+    private static class RequestException extends RuntimeException {
+        private final int status;
+
+        private RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
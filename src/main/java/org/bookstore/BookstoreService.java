@@ -0,0 +1,291 @@
+package org.bookstore;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.jpa.SpecHints;
+import org.hibernate.query.Query;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Read operations of the bookstore that don't depend on the way results are presented,
+ * so they can be used by console application as well as by other callers.
+ */
+public class BookstoreService {
+    static final String BOOK_LISTINGS_CACHE_REGION = "book-listings";
+    private static final int REPORT_FETCH_SIZE = 1000;
+
+    private final GenreRevenueRollup genreRevenueRollup = new GenreRevenueRollup();
+    private final BookSearch bookSearch = new BookSearch();
+    private final DailySalesRollup dailySalesRollup = new DailySalesRollup();
+    private final SalesSnapshot salesSnapshot;
+
+    public BookstoreService() {
+        this(null);
+    }
+
+    /**
+     * @param salesSnapshot In-memory snapshot of sales that answers revenue and sold book reports
+     *                      instead of the database, or null if reports should query the database
+     */
+    public BookstoreService(SalesSnapshot salesSnapshot) {
+        this.salesSnapshot = salesSnapshot;
+    }
+
+    /**
+     * This method gives books that have given genre. Only identifiers of the books are kept in the query cache,
+     * and the books are read through the books cache, so selling a book evicts only that book
+     * and the cached listing stays valid.
+     * @param session The Hibernate session
+     * @param genre The genre of books
+     * @return List of books with given genre
+     */
+    public List<Book> listBooksByGenre(Session session, String genre) {
+        Query<Integer> query = session.createNamedQuery(Book.BY_GENRE_QUERY, Integer.class);
+        query.setParameter("genre", genre);
+        return loadListedBooks(session, query);
+    }
+
+    /**
+     * This method gives books that were written by given author, it is cached the same way
+     * as {@link #listBooksByGenre(Session, String)}
+     * @param session The Hibernate session
+     * @param author The author of books
+     * @return List of books written by given author
+     */
+    public List<Book> listBooksByAuthor(Session session, String author) {
+        Query<Integer> query = session.createNamedQuery(Book.BY_AUTHOR_QUERY, Integer.class);
+        query.setParameter("author", author);
+        return loadListedBooks(session, query);
+    }
+
+    private List<Book> loadListedBooks(Session session, Query<Integer> bookIdsQuery) {
+        bookIdsQuery.setCacheable(true);
+        bookIdsQuery.setCacheRegion(BOOK_LISTINGS_CACHE_REGION);
+        return session.byMultipleIds(Book.class).multiLoad(bookIdsQuery.getResultList());
+    }
+
+    /**
+     * This method finds books which title or author starts with the text or is similar to it, ignoring case
+     * @param session The Hibernate session
+     * @param field The searched field
+     * @param text The searched text
+     * @param limit Maximal number of books
+     * @return Books ordered from the best match
+     */
+    public List<Book> searchBooks(Session session, BookSearch.Field field, String text, int limit) {
+        return bookSearch.search(session, field, text, limit);
+    }
+
+    /**
+     * This method gives one page of purchase history of the customer ordered by date of sale and identifier.
+     * Pages are found by seeking past the last sale of previous page instead of skipping rows,
+     * so with index on (customer_id, date_of_sale, sale_id) every page costs the same.
+     * Sales are loaded together with their books in one query.
+     * @param session The Hibernate session
+     * @param customerId The identifier of the customer
+     * @param fromDate The first date of sales to include or null to include sales from the beginning
+     * @param toDate The last date of sales to include or null to include sales till now
+     * @param lastSale The last sale of previous page or null for the first page
+     * @param pageSize Maximal number of sales in the page
+     * @return Sales made by the customer, empty list if there are no more sales
+     */
+    public List<Sale> getPurchaseHistoryPage(Session session, int customerId, LocalDate fromDate, LocalDate toDate,
+                                             Sale lastSale, int pageSize) {
+        return lastSale == null
+                ? getPurchaseHistoryPage(session, customerId, fromDate, toDate, null, null, pageSize)
+                : getPurchaseHistoryPage(session, customerId, fromDate, toDate,
+                        lastSale.getDateOfSale(), lastSale.getSaleID(), pageSize);
+    }
+
+    /**
+     * This method gives one page of purchase history of the customer that follows the sale with given
+     * date and identifier, so callers that don't keep sales of previous page can ask for the next one
+     * @param session The Hibernate session
+     * @param customerId The identifier of the customer
+     * @param fromDate The first date of sales to include or null to include sales from the beginning
+     * @param toDate The last date of sales to include or null to include sales till now
+     * @param lastDateOfSale The date of the last sale of previous page or null for the first page
+     * @param lastSaleId The identifier of the last sale of previous page or null for the first page
+     * @param pageSize Maximal number of sales in the page
+     * @return Sales made by the customer, empty list if there are no more sales
+     */
+    public List<Sale> getPurchaseHistoryPage(Session session, int customerId, LocalDate fromDate, LocalDate toDate,
+                                             LocalDate lastDateOfSale, Integer lastSaleId, int pageSize) {
+        StringBuilder historyQuery = new StringBuilder("FROM Sale s " +
+                "WHERE s.customer.id = :customerId AND s.dateOfSale IS NOT NULL");
+        if (fromDate != null) {
+            historyQuery.append(" AND s.dateOfSale >= :fromDate");
+        }
+        if (toDate != null) {
+            historyQuery.append(" AND s.dateOfSale <= :toDate");
+        }
+        if (lastDateOfSale != null) {
+            // The redundant date condition lets PostgreSQL skip partitions of sales before the cursor
+            historyQuery.append(" AND s.dateOfSale >= :lastDateOfSale" +
+                    " AND (s.dateOfSale, s.saleID) > (:lastDateOfSale, :lastSaleId)");
+        }
+        historyQuery.append(" ORDER BY s.dateOfSale, s.saleID");
+        Query<Sale> query = session.createQuery(historyQuery.toString(), Sale.class);
+        query.setParameter("customerId", customerId);
+        if (fromDate != null) {
+            query.setParameter("fromDate", fromDate);
+        }
+        if (toDate != null) {
+            query.setParameter("toDate", toDate);
+        }
+        if (lastDateOfSale != null) {
+            query.setParameter("lastDateOfSale", lastDateOfSale);
+            query.setParameter("lastSaleId", lastSaleId);
+        }
+        query.setMaxResults(pageSize);
+        query.setHint(SpecHints.HINT_SPEC_FETCH_GRAPH, session.getEntityGraph(Sale.WITH_BOOK_GRAPH));
+        return query.list();
+    }
+
+    /**
+     * This method gives total revenue of the genre
+     * @param session The Hibernate session
+     * @param genre The genre
+     * @return Total revenue of the genre
+     */
+    public double getRevenue(Session session, String genre) {
+        if (salesSnapshot != null) {
+            return salesSnapshot.getRevenue(genre);
+        }
+        return genreRevenueRollup.getRevenue(session, genre);
+    }
+
+    /**
+     * This method gives revenues of all genres which books were sold
+     * @param session The Hibernate session
+     * @return Revenues ordered by genre
+     */
+    public List<GenreRevenue> getGenreRevenues(Session session) {
+        if (salesSnapshot != null) {
+            return salesSnapshot.getGenreRevenues();
+        }
+        return genreRevenueRollup.getRevenues(session);
+    }
+
+    /**
+     * This method gives sales of every genre, author or book in every day, week or month of the date range
+     * @param session The Hibernate session
+     * @param granularity Length of periods
+     * @param dimension What sales are grouped by
+     * @param fromDate The first day of the range
+     * @param toDate The last day of the range
+     * @return Sales ordered by period and name
+     */
+    public List<DailySalesRollup.PeriodSales> getSales(Session session, DailySalesRollup.Granularity granularity,
+                                                       DailySalesRollup.Dimension dimension,
+                                                       LocalDate fromDate, LocalDate toDate) {
+        return dailySalesRollup.getSales(session, granularity, dimension, fromDate, toDate);
+    }
+
+    /**
+     * This method streams information about all books that were sold.
+     * Rows are read through a stateless session, so memory use doesn't depend on number of sales
+     * and the first row is given to consumer before the query finishes.
+     * When there is a snapshot of sales, rows are read from it and the same row array is given for every sale,
+     * so consumer shouldn't keep it.
+     * @param sessionFactory The Hibernate session factory
+     * @param rowConsumer Consumer of rows of book title, customer name and date of sale
+     * @return Number of rows
+     */
+    public long streamSoldBooks(SessionFactory sessionFactory, Consumer<Object[]> rowConsumer) {
+        if (salesSnapshot != null) {
+            return salesSnapshot.streamSoldBooks(rowConsumer);
+        }
+        return scrollSoldBooks(sessionFactory, statelessSession -> statelessSession
+                .createNamedQuery(Sale.SOLD_BOOKS_QUERY, Object[].class), rowConsumer);
+    }
+
+    /**
+     * Range of sales from "from" inclusive to "to" exclusive, which are identifiers of sales when they are read
+     * from the database, or positions of sales in the snapshot of sales when there is one
+     */
+    public record SoldBooksPart(long from, long to) {
+    }
+
+    /**
+     * This method splits sales into parts for {@link #streamSoldBooks(SessionFactory, SoldBooksPart, Consumer)},
+     * so parts can be streamed by different threads at the same time, every one with its own connection.
+     * Bounds of all parts are computed at once, so every sale that exists now is in exactly one part,
+     * and sales added while parts are streamed are in none of them. Sales are split into parts of equal ranges
+     * of identifiers, or of equal number of sales when there is a snapshot of sales.
+     * @param sessionFactory The Hibernate session factory
+     * @param parts Number of parts
+     * @return Parts in order of their ranges, they are empty if there are no sales
+     */
+    public List<SoldBooksPart> splitSoldBooks(SessionFactory sessionFactory, int parts) {
+        long first = 0;
+        long end = 0;
+        if (salesSnapshot != null) {
+            end = salesSnapshot.size();
+        } else {
+            try (StatelessSession statelessSession = sessionFactory.openStatelessSession()) {
+                Transaction transaction = statelessSession.beginTransaction();
+                Object[] ids = statelessSession.createNamedQuery(Sale.IDS_QUERY, Object[].class).getSingleResult();
+                transaction.commit();
+                if (ids[0] != null) {
+                    first = (Integer) ids[0];
+                    end = (Integer) ids[1] + 1L;
+                }
+            }
+        }
+        List<SoldBooksPart> soldBooksParts = new ArrayList<>(parts);
+        for (int part = 0; part < parts; part++) {
+            soldBooksParts.add(new SoldBooksPart(first + (end - first) * part / parts,
+                    first + (end - first) * (part + 1) / parts));
+        }
+        return soldBooksParts;
+    }
+
+    /**
+     * This method streams the same rows as {@link #streamSoldBooks(SessionFactory, Consumer)} for one of parts
+     * given by {@link #splitSoldBooks(SessionFactory, int)}. Rows of a part are in no particular order.
+     * @param sessionFactory The Hibernate session factory
+     * @param part The part of sales
+     * @param rowConsumer Consumer of rows of book title, customer name and date of sale
+     * @return Number of rows
+     */
+    public long streamSoldBooks(SessionFactory sessionFactory, SoldBooksPart part, Consumer<Object[]> rowConsumer) {
+        if (salesSnapshot != null) {
+            return salesSnapshot.streamSoldBooks((int) part.from(), (int) part.to(), rowConsumer);
+        }
+        if (part.from() >= part.to()) {
+            return 0;
+        }
+        return scrollSoldBooks(sessionFactory, statelessSession -> statelessSession
+                .createNamedQuery(Sale.SOLD_BOOKS_IN_RANGE_QUERY, Object[].class)
+                .setParameter("fromId", (int) part.from())
+                .setParameter("toId", (int) part.to()), rowConsumer);
+    }
+
+    private long scrollSoldBooks(SessionFactory sessionFactory, Function<StatelessSession, Query<Object[]>> createQuery,
+                                 Consumer<Object[]> rowConsumer) {
+        try (StatelessSession statelessSession = sessionFactory.openStatelessSession()) {
+            Transaction transaction = statelessSession.beginTransaction();
+            Query<Object[]> query = createQuery.apply(statelessSession);
+            query.setFetchSize(REPORT_FETCH_SIZE);
+            long rowCount = 0;
+            try (ScrollableResults<Object[]> results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    rowConsumer.accept(results.get());
+                    rowCount++;
+                }
+            }
+            transaction.commit();
+            return rowCount;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.Generator;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Imports books, customers or sales from CSV or TSV files of any size in constant memory.
+ * The first line of a file is a header and is skipped. Columns are expected in this order:
+ * books: title, author, genre, price, quantity_in_stock
+ * customers: name, email, phone
+ * sales: book_id, customer_id, date_of_sale, quantity_sold, total_price
+ * On PostgreSQL rows are written with COPY, on other databases with batched inserts of a stateless session.
+ * Customers which email already belongs to a customer, or to an earlier row of the file, are skipped.
+ * Emails are checked against a Bloom filter of existing emails, so rows with new emails are written
+ * without asking the database, and only rows that may be duplicates are checked with one query per batch.
+ */
+public class BulkImporter {
+    private static final int PROGRESS_INTERVAL = 100_000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int DUPLICATE_CHECK_BATCH_SIZE = 1000;
+    private static final int MIN_CUSTOMER_LINE_LENGTH = 16;
+
+    public enum ImportType {
+        BOOKS(Book.class, "COPY books (book_id, title, author, genre, price, quantity_in_stock) " +
+                "FROM STDIN WITH (FORMAT csv)", 5),
+        CUSTOMERS(Customer.class, "COPY customers (customer_id, name, email, phone) " +
+                "FROM STDIN WITH (FORMAT csv)", 3),
+        SALES(Sale.class, "COPY sales (sale_id, book_id, customer_id, date_of_sale, quantity_sold, total_price) " +
+                "FROM STDIN WITH (FORMAT csv)", 5);
+
+        private final Class<?> entityClass;
+        private final String copyStatement;
+        private final int columnCount;
+
+        ImportType(Class<?> entityClass, String copyStatement, int columnCount) {
+            this.entityClass = entityClass;
+            this.copyStatement = copyStatement;
+            this.columnCount = columnCount;
+        }
+    }
+
+    private final SessionFactory sessionFactory;
+    private final double emailFalsePositiveRate;
+
+    public BulkImporter(SessionFactory sessionFactory) {
+        this(sessionFactory, 0.01);
+    }
+
+    /**
+     * @param sessionFactory The Hibernate session factory
+     * @param emailFalsePositiveRate Probability that a customer with new email has to be checked in the database
+     */
+    public BulkImporter(SessionFactory sessionFactory, double emailFalsePositiveRate) {
+        this.sessionFactory = sessionFactory;
+        this.emailFalsePositiveRate = emailFalsePositiveRate;
+    }
+
+    /**
+     * This method imports all rows of the file in one transaction and prints progress with rows per second
+     * @param type The type of imported rows
+     * @param file CSV file, or TSV file if its name ends with ".tsv"
+     * @return Number of imported rows, without skipped duplicate customers
+     * @throws IOException If the file can't be read
+     */
+    public long importFile(ImportType type, Path file) throws IOException {
+        char delimiter = file.getFileName().toString().endsWith(".tsv") ? '\t' : ',';
+        long startTime = System.nanoTime();
+        long rowCount;
+        DuplicateCustomers duplicates = null;
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                reader.readLine();
+                if (type == ImportType.CUSTOMERS) {
+                    duplicates = new DuplicateCustomers(CustomerDirectory.loadEmails(session,
+                            Files.size(file) / MIN_CUSTOMER_LINE_LENGTH, emailFalsePositiveRate));
+                }
+                DuplicateCustomers duplicateCustomers = duplicates;
+                rowCount = session.doReturningWork(connection -> isPostgreSQL(connection)
+                        ? copyRows(session, connection, type, reader, delimiter, duplicateCustomers, startTime)
+                        : insertRows(session, type, reader, delimiter, duplicateCustomers, startTime));
+                transaction.commit();
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (type == ImportType.SALES) {
+            sessionFactory.inTransaction(session -> {
+                new GenreRevenueRollup().rebuild(session);
+                new DailySalesRollup().rebuild(session);
+            });
+        }
+        printProgress(rowCount, startTime);
+        if (duplicates != null) {
+            System.out.printf("%d customers were skipped, their emails already belong to customers, " +
+                    "%d rows were checked in the database%n", duplicates.skippedCount, duplicates.checkedCount);
+        }
+        return rowCount;
+    }
+
+    private long insertRows(StatelessSession session, ImportType type, BufferedReader reader,
+                            char delimiter, DuplicateCustomers duplicates, long startTime) {
+        long rowCount = 0;
+        long lineCount = 0;
+        String line;
+        while ((line = readLine(reader)) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = parseLine(line, delimiter, type.columnCount);
+            if (duplicates == null || duplicates.isNew(fields)) {
+                session.insert(toEntity(type, fields));
+                rowCount++;
+            } else if (duplicates.isFull()) {
+                rowCount += duplicates.insertNew(session);
+            }
+            if (++lineCount % PROGRESS_INTERVAL == 0) {
+                printProgress(rowCount, startTime);
+            }
+        }
+        if (duplicates != null) {
+            rowCount += duplicates.insertNew(session);
+        }
+        return rowCount;
+    }
+
+    /**
+     * This method writes rows with COPY. Customers that may be duplicates are checked when a batch of them
+     * is collected, the COPY is ended first, so rows it wrote can be seen by the check, and started again after it.
+     */
+    private long copyRows(StatelessSession session, Connection connection, ImportType type, BufferedReader reader,
+                          char delimiter, DuplicateCustomers duplicates, long startTime) throws SQLException {
+        Generator generator = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getMappingMetamodel()
+                .getEntityDescriptor(type.entityClass)
+                .getGenerator();
+        if (!(generator instanceof BeforeExecutionGenerator identifierGenerator)) {
+            throw new IllegalStateException("Identifiers of " + type.entityClass.getSimpleName()
+                    + " aren't generated before insert, so they can't be written by COPY.");
+        }
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(type.copyStatement);
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+            long rowCount = 0;
+            long lineCount = 0;
+            String line;
+            while ((line = readLine(reader)) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<String> fields = parseLine(line, delimiter, type.columnCount);
+                if (++lineCount % PROGRESS_INTERVAL == 0) {
+                    printProgress(rowCount, startTime);
+                }
+                if (duplicates != null && !duplicates.isNew(fields)) {
+                    if (duplicates.isFull()) {
+                        writeToCopy(copyIn, buffer);
+                        copyIn.endCopy();
+                        rowCount += duplicates.insertNew(session);
+                        copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(type.copyStatement);
+                    }
+                    continue;
+                }
+                Object id = identifierGenerator.generate((SharedSessionContractImplementor) session, null, null,
+                        EventType.INSERT);
+                buffer.append(id);
+                for (String field : fields) {
+                    buffer.append(',').append('"').append(field.replace("\"", "\"\"")).append('"');
+                }
+                buffer.append('\n');
+                if (buffer.length() >= COPY_BUFFER_SIZE) {
+                    writeToCopy(copyIn, buffer);
+                }
+                rowCount++;
+            }
+            writeToCopy(copyIn, buffer);
+            copyIn.endCopy();
+            if (duplicates != null) {
+                rowCount += duplicates.insertNew(session);
+            }
+            return rowCount;
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    private static Object toEntity(ImportType type, List<String> fields) {
+        return switch (type) {
+            case BOOKS -> new Book(fields.get(0), fields.get(1), fields.get(2),
+                    Float.parseFloat(fields.get(3)), Integer.parseInt(fields.get(4)));
+            case CUSTOMERS -> new Customer(fields.get(0), fields.get(1), fields.get(2));
+            case SALES -> new Sale(new Book(Integer.parseInt(fields.get(0))), new Customer(Integer.parseInt(fields.get(1))),
+                    LocalDate.parse(fields.get(2)), Integer.parseInt(fields.get(3)), Float.parseFloat(fields.get(4)));
+        };
+    }
+
+    /**
+     * Rows of customers which emails may already be used. Emails of rows that aren't held back are added
+     * to the filter, so later rows with the same email are held back as well.
+     */
+    private static class DuplicateCustomers {
+        private final BloomFilter emails;
+        private final List<List<String>> rows = new ArrayList<>(DUPLICATE_CHECK_BATCH_SIZE);
+        private long skippedCount;
+        private long checkedCount;
+
+        private DuplicateCustomers(BloomFilter emails) {
+            this.emails = emails;
+        }
+
+        /**
+         * This method tells whether the email of the customer is definitely new, otherwise it holds the row back
+         * @param fields Name, email and phone of the customer
+         * @return Whether the customer can be written without checking it in the database
+         */
+        private boolean isNew(List<String> fields) {
+            String email = fields.get(1);
+            if (emails.mightContain(email)) {
+                rows.add(fields);
+                return false;
+            }
+            emails.add(email);
+            return true;
+        }
+
+        private boolean isFull() {
+            return rows.size() >= DUPLICATE_CHECK_BATCH_SIZE;
+        }
+
+        /**
+         * This method checks held back rows with one query and inserts the ones which emails
+         * belong neither to a customer nor to an earlier held back row
+         * @param session The stateless session which transaction wrote the rows that weren't held back
+         * @return Number of inserted customers
+         */
+        private long insertNew(StatelessSession session) {
+            if (rows.isEmpty()) {
+                return 0;
+            }
+            Set<String> usedEmails = new HashSet<>(session.createNamedQuery(Customer.EXISTING_EMAILS_QUERY, String.class)
+                    .setParameter("emails", rows.stream().map(fields -> fields.get(1)).distinct().toList())
+                    .list());
+            long insertedCount = 0;
+            for (List<String> fields : rows) {
+                if (usedEmails.add(fields.get(1))) {
+                    session.insert(toEntity(ImportType.CUSTOMERS, fields));
+                    insertedCount++;
+                } else {
+                    skippedCount++;
+                }
+            }
+            checkedCount += rows.size();
+            rows.clear();
+            return insertedCount;
+        }
+    }
+
+    /**
+     * This method splits line into fields, fields in double quotes can contain delimiter and doubled quotes
+     */
+    static List<String> parseLine(String line, char delimiter, int columnCount) {
+        List<String> fields = new ArrayList<>(columnCount);
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    inQuotes = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        if (fields.size() != columnCount) {
+            throw new IllegalArgumentException("Expected " + columnCount + " columns, but line has " +
+                    fields.size() + ": " + line);
+        }
+        return fields;
+    }
+
+    private static String readLine(BufferedReader reader) {
+        try {
+            return reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isPostgreSQL(Connection connection) throws SQLException {
+        return connection.isWrapperFor(PGConnection.class);
+    }
+
+    private static void printProgress(long rowCount, long startTime) {
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        System.out.printf("%d rows imported in %.1f s (%.0f rows/sec)%n", rowCount, seconds, rowCount / seconds);
+    }
+}
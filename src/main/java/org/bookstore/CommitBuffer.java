@@ -0,0 +1,101 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.postgresql.PGConnection;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Changes committed through the session factory while an in-memory view is loaded from the database.
+ * The view reads all its queries in one REPEATABLE READ transaction, and its commit listeners are registered
+ * before that transaction starts, so a sale committed meanwhile may be both reported to listeners and read
+ * by the load. Changes reported during the load are held back, and when the load has read everything,
+ * sales it has already read are dropped and the other changes are applied in order they were reported,
+ * so every sale is counted exactly once. Changes reported after the load are applied at once.
+ */
+final class CommitBuffer {
+    private static final int ID_CHECK_BATCH_SIZE = 1000;
+
+    private record Change(Integer saleId, Runnable change) {
+    }
+
+    private List<Change> changes = new ArrayList<>();
+
+    /**
+     * This method reads the view in one REPEATABLE READ transaction, so all its queries see the same sales,
+     * and then applies changes reported during the load that the load hasn't read. On databases other than
+     * PostgreSQL the transaction is SERIALIZABLE, since H2 takes REPEATABLE READ snapshots per table
+     * at their first use instead of one snapshot for the whole transaction.
+     * @param sessionFactory The Hibernate session factory
+     * @param load Reads the view with the stateless session
+     */
+    void load(SessionFactory sessionFactory, Consumer<StatelessSession> load) {
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            session.beginTransaction();
+            session.doWork(connection -> connection.setTransactionIsolation(connection.isWrapperFor(PGConnection.class)
+                    ? Connection.TRANSACTION_REPEATABLE_READ : Connection.TRANSACTION_SERIALIZABLE));
+            load.accept(session);
+            finish(session);
+            session.getTransaction().commit();
+        }
+    }
+
+    /**
+     * This method applies the change of a committed sale, or holds it back while the view is loaded
+     * @param saleId The identifier of the sale
+     * @param change Change of the view
+     */
+    void applySale(int saleId, Runnable change) {
+        apply(saleId, change);
+    }
+
+    /**
+     * This method applies the change of committed book or customer, or holds it back while the view is loaded,
+     * so the older row read by the load doesn't replace it
+     * @param change Change of the view
+     */
+    void apply(Runnable change) {
+        apply(null, change);
+    }
+
+    private void apply(Integer saleId, Runnable change) {
+        synchronized (this) {
+            if (changes != null) {
+                changes.add(new Change(saleId, change));
+                return;
+            }
+        }
+        change.run();
+    }
+
+    private void finish(StatelessSession session) {
+        List<Change> heldChanges;
+        synchronized (this) {
+            heldChanges = changes;
+            changes = null;
+        }
+        List<Integer> saleIds = new ArrayList<>();
+        for (Change change : heldChanges) {
+            if (change.saleId() != null) {
+                saleIds.add(change.saleId());
+            }
+        }
+        Set<Integer> loadedSaleIds = new HashSet<>();
+        for (int from = 0; from < saleIds.size(); from += ID_CHECK_BATCH_SIZE) {
+            loadedSaleIds.addAll(session.createNamedQuery(Sale.EXISTING_IDS_QUERY, Integer.class)
+                    .setParameter("ids", saleIds.subList(from, Math.min(saleIds.size(), from + ID_CHECK_BATCH_SIZE)))
+                    .list());
+        }
+        for (Change change : heldChanges) {
+            if (change.saleId() == null || !loadedSaleIds.contains(change.saleId())) {
+                change.change().run();
+            }
+        }
+    }
+}
@@ -2,33 +2,62 @@ package org.bookstore;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.Transaction;
-import org.hibernate.query.Query;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.Date;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class ConsoleApp {
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final int SEARCH_RESULT_LIMIT = 20;
+    private static final int WATCHLIST_LIMIT = 20;
+    private static final String BOOKS_CACHE_REGION = "books";
+    private static final String CUSTOMERS_CACHE_REGION = "customers";
+    private static final String CUSTOMER_EMAILS_CACHE_REGION = "customer-emails";
+    private static final String EMAIL_REGEX = "^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,}$";
+    private static final String PHONE_REGEX = "^[0-9]+$";
+
     private Scanner scanner = new Scanner(System.in);
+    private SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+    private UnitOfWork unitOfWork = new UnitOfWork(sessionFactory);
+    private UnitOfWork readOnlyUnitOfWork = new UnitOfWork(HibernateUtil::getReadOnlySessionFactory, true);
+    private SaleProcessor saleProcessor = new SaleProcessor(sessionFactory);
+    private GenreRevenueRollup genreRevenueRollup = new GenreRevenueRollup();
+    private DailySalesRollup dailySalesRollup = new DailySalesRollup();
+    private BookstoreService bookstoreService = new BookstoreService(HibernateUtil.getSalesSnapshot());
+    private ReportExporter reportExporter = new ReportExporter(bookstoreService);
+    private Bestsellers bestsellers = HibernateUtil.getBestsellers();
+    private StockWatchlist stockWatchlist = HibernateUtil.getStockWatchlist();
+    /**
+     * Time the running action has spent waiting for user, it isn't counted in latency of the action
+     */
+    private long inputWaitNanos;
 
     /**
      * This method is used to start the application.
      */
     public void run() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        try {
             actions: while (true) {
                 System.out.println(menu());
                 int choiceValue;
                 int firstValueInMenu = 0;
-                int lastValueInMenu = 9;
+                int lastValueInMenu = 21;
                 if (scanner.hasNextInt()) {
                     choiceValue = scanner.nextInt();
                     scanner.nextLine();
                 } else {
-                    System.out.println("Invalid input. Please enter a number between 0 and 9.");
+                    System.out.println("Invalid input. Please enter a number between " +
+                            firstValueInMenu + " and " + lastValueInMenu);
                     scanner.nextLine();
                     continue actions;
                 }
@@ -38,19 +67,30 @@ public class ConsoleApp {
                     continue actions;
                 }
                 ActionType action = ActionType.fromValue(choiceValue);
-                switch (action) {
-                    case UPDATE_BOOK_DETAILS -> updateBookDetails(session);
-                    case LIST_BOOKS_BY_GENRE -> listBooksByGenre(session);
-                    case LIST_BOOKS_BY_AUTHOR -> listBooksByAuthor(session);
-                    case UPDATE_CUSTOMERS_INFO -> updateCustomerInformation(session);
-                    case CUSTOMERS_PURCHASE_HISTORY -> customerHistory(session);
-                    case REVENUE_BY_GENRE -> calculateRevenue(session);
-                    case PROCESS_NEW_SALE -> processNewSale(session);
-                    case SOLD_BOOK_REPORT -> getBookReport(session);
-                    case REVENUE_BY_GENRE_REPORT -> getGenreRevenues(session);
-                    case EXIT -> {
-                        break actions;
-                    }
+                if (action == ActionType.EXIT) {
+                    break actions;
+                }
+                Runnable work;
+                try {
+                    work = readAction(action);
+                } catch (RuntimeException e) {
+                    System.out.println("Action failed.");
+                    e.printStackTrace();
+                    continue actions;
+                }
+                inputWaitNanos = 0;
+                long startTime = System.nanoTime();
+                long startStatementCount = QueryMetrics.statementCount();
+                boolean failed = false;
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    failed = true;
+                    System.out.println("Action failed, its changes were rolled back.");
+                    e.printStackTrace();
+                } finally {
+                    Metrics.recordAction(action.name(), System.nanoTime() - startTime - inputWaitNanos,
+                            QueryMetrics.statementCount() - startStatementCount, failed);
                 }
                 System.out.println();
             }
@@ -61,6 +101,40 @@ public class ConsoleApp {
         }
     }
 
+    /**
+     * This method makes user to input everything the action needs and gives the rest of the action,
+     * which reads or changes the database and prints results. Sessions and transactions are opened
+     * only by the given work, so no connection is held and no row is locked while user types.
+     * @param action The action chosen by user
+     * @return Work of the action
+     */
+    private Runnable readAction(ActionType action) {
+        return switch (action) {
+            case UPDATE_BOOK_DETAILS -> updateBookDetails();
+            case LIST_BOOKS_BY_GENRE -> listBooksByGenre();
+            case LIST_BOOKS_BY_AUTHOR -> listBooksByAuthor();
+            case UPDATE_CUSTOMERS_INFO -> updateCustomerInformation();
+            case CUSTOMERS_PURCHASE_HISTORY -> customerHistory();
+            case REVENUE_BY_GENRE -> calculateRevenue();
+            case PROCESS_NEW_SALE -> processNewSale();
+            case SOLD_BOOK_REPORT -> this::getBookReport;
+            case REVENUE_BY_GENRE_REPORT -> () -> readOnlyUnitOfWork.run(this::getGenreRevenues);
+            case CACHE_STATISTICS -> this::printCacheStatistics;
+            case VERIFY_REVENUE_ROLLUP -> () -> readOnlyUnitOfWork.run(this::verifyRevenueRollup);
+            case METRICS -> this::printMetrics;
+            case SEARCH_BOOKS -> searchBooks();
+            case SALES_REPORT -> salesReport();
+            case BACKFILL_DAILY_SALES -> backfillDailySales();
+            case PROCESS_NEW_ORDER -> processNewOrder();
+            case EXPORT_REPORT -> exportReport();
+            case BESTSELLERS -> printBestsellers();
+            case LOW_STOCK_WATCHLIST -> this::printLowStockWatchlist;
+            case FIND_CUSTOMER_BY_EMAIL -> findCustomerByEmail();
+            case ADD_CUSTOMER -> addCustomer();
+            case EXIT -> throw new IllegalArgumentException("Exit has no work.");
+        };
+    }
+
     /**
      * Method for getting menu of actions that are available in app
      * @return String representation of actions
@@ -77,22 +151,35 @@ public class ConsoleApp {
                 .append("7: Process new sale.\n")
                 .append("8: Generate a report of all books sold.\n")
                 .append("9: Generate a report of revenue of each genre.\n")
+                .append("10: Show cache statistics.\n")
+                .append("11: Verify revenues of genres against all sales.\n")
+                .append("12: Show latency metrics.\n")
+                .append("13: Search books by title or author.\n")
+                .append("14: Report sales by day, week or month.\n")
+                .append("15: Recompute daily sales from all sales.\n")
+                .append("16: Process new order of several books.\n")
+                .append("17: Export a report to a file.\n")
+                .append("18: Show bestsellers.\n")
+                .append("19: Show books that are running out of stock.\n")
+                .append("20: Find a customer by email.\n")
+                .append("21: Add a customer.\n")
                 .append("0: Exit.")
                 .toString();
     }
 
     /**
-     * THis method is used for updating book's details in database
-     * @param session The Hibernate session
+     * THis method is used for updating book's details in database.
+     * New details are collected first, and then the row of the book is locked and read, so the update written
+     * by the transaction can't bring back quantity in stock that concurrent sales have changed meanwhile.
+     * @return Work that updates the book
      */
-    private void updateBookDetails(Session session) {
-        Transaction transaction = session.beginTransaction();
-        Book book = getBookByID(session);
-        if (book == null) {
-            System.out.println("There is no book with given identifier.");
-            transaction.rollback();
-            return;
-        }
+    private Runnable updateBookDetails() {
+        int bookId = readBookID();
+        String newTitle = null;
+        String newAuthor = null;
+        String newGenre = null;
+        Float newPrice = null;
+        Integer newQuantity = null;
         updating: while (true) {
             System.out.println("Choose column you want to update");
             System.out.println("1: title");
@@ -105,26 +192,22 @@ public class ConsoleApp {
             switch (choice) {
                 case "1" -> {
                     System.out.println("Input new title.");
-                    String newTitle = scanner.next();
-                    book.setTitle(newTitle);
+                    newTitle = scanner.next();
                 }
                 case "2" -> {
                     System.out.println("Input new author.");
-                    String newAuthor = scanner.next();
-                    book.setAuthor(newAuthor);
+                    newAuthor = scanner.next();
                 }
                 case "3" -> {
                     System.out.println("Input new genre.");
-                    String newGenre = scanner.next();
-                    book.setGenre(newGenre);
+                    newGenre = scanner.next();
                 }
                 case "4" -> {
                     while (true) {
                         System.out.println("Input new price.");
                         if (scanner.hasNextFloat()) {
-                            float newPrice = scanner.nextFloat();
+                            newPrice = scanner.nextFloat();
                             if (newPrice > 0) {
-                                book.setPrice(newPrice);
                                 break;
                             }
                         }
@@ -135,9 +218,8 @@ public class ConsoleApp {
                     while (true) {
                         System.out.println("Input quantity in stock.");
                         if (scanner.hasNextInt()) {
-                            int newQuantitiy = scanner.nextInt();
-                            if (newQuantitiy >= 0) {
-                                book.setQuantityInStock(newQuantitiy);
+                            newQuantity = scanner.nextInt();
+                            if (newQuantity >= 0) {
                                 break;
                             }
                         }
@@ -150,22 +232,60 @@ public class ConsoleApp {
                 default -> System.out.println("Invalid choice. Try again.");
             }
         }
+        BookDetails details = new BookDetails(newTitle, newAuthor, newGenre, newPrice, newQuantity);
+        return () -> unitOfWork.run(session -> updateBookDetails(session, bookId, details));
+    }
+
+    private void updateBookDetails(Session session, int bookId, BookDetails details) {
+        Book book = session.createNamedQuery(Book.LOCK_QUERY, Book.class)
+                .setParameter("bookId", bookId)
+                .uniqueResult();
+        if (book == null) {
+            System.out.println("There is no book with given identifier.");
+            session.getTransaction().markRollbackOnly();
+            return;
+        }
+        String oldGenre = book.getGenre();
+        if (details.title() != null) {
+            book.setTitle(details.title());
+        }
+        if (details.author() != null) {
+            book.setAuthor(details.author());
+        }
+        if (details.genre() != null) {
+            book.setGenre(details.genre());
+        }
+        if (details.price() != null) {
+            book.setPrice(details.price());
+        }
+        if (details.quantityInStock() != null) {
+            book.setQuantityInStock(details.quantityInStock());
+        }
+        if (!oldGenre.equals(book.getGenre())) {
+            genreRevenueRollup.moveBookRevenue(session, book.getBookID(), oldGenre, book.getGenre());
+        }
         System.out.println("Details were successfully updated.");
-        transaction.commit();
+    }
+
+    /**
+     * New details of a book, null for details that aren't changed
+     */
+    private record BookDetails(String title, String author, String genre, Float price, Integer quantityInStock) {
     }
 
     /**
      * This method makes user to input genre and prints list of books that have given genre
-     * @param session The Hibernate session
+     * @return Work that prints the books
      */
-    private void listBooksByGenre(Session session) {
-        String hql = "FROM Book WHERE genre = :genre";
+    private Runnable listBooksByGenre() {
+        System.out.println("Input genre: ");
+        String genre = scanner.nextLine();
+        return () -> readOnlyUnitOfWork.run(session -> listBooksByGenre(session, genre));
+    }
+
+    private void listBooksByGenre(Session session, String genre) {
         try {
-            Query<Book> query = session.createQuery(hql, Book.class);
-            System.out.println("Input genre: ");
-            String genre = scanner.nextLine();
-            query.setParameter("genre", genre);
-            List<Book> books = query.getResultList();
+            List<Book> books = bookstoreService.listBooksByGenre(session, genre);
             if (books.isEmpty()) {
                 System.out.println("There is no book that have given genre.");
                 return;
@@ -188,16 +308,17 @@ public class ConsoleApp {
 
     /**
      * This method makes user to input author and prints list of books that was written by given author
-     * @param session The Hibernate session
+     * @return Work that prints the books
      */
-    private void listBooksByAuthor(Session session) {
-        String hql = "FROM Book WHERE author = :author";
+    private Runnable listBooksByAuthor() {
+        System.out.println("Input author: ");
+        String author = scanner.nextLine();
+        return () -> readOnlyUnitOfWork.run(session -> listBooksByAuthor(session, author));
+    }
+
+    private void listBooksByAuthor(Session session, String author) {
         try {
-            Query<Book> query = session.createQuery(hql, Book.class);
-            System.out.println("Input author: ");
-            String author = scanner.nextLine();
-            query.setParameter("author", author);
-            List<Book> books = query.getResultList();
+            List<Book> books = bookstoreService.listBooksByAuthor(session, author);
             if (books.isEmpty()) {
                 System.out.println("There is no book written by given author.");
                 return;
@@ -219,17 +340,43 @@ public class ConsoleApp {
     }
 
     /**
-     * This method is used for updating customer's information in database
-     * @param session The Hibernate session
+     * This method makes user to choose title or author and input text, and prints books that match it
+     * by prefix or by similarity, ignoring case
+     * @return Work that prints the books
      */
-    private void updateCustomerInformation(Session session) {
-        Transaction transaction = session.beginTransaction();
-        Customer customer = getCustomerByID(session);
-        if (customer == null) {
-            System.out.println("There is no customer with given identifier.");
-            transaction.rollback();
+    private Runnable searchBooks() {
+        BookSearch.Field field = BookSearch.Field.values()[choose("Choose field you want to search by",
+                "title", "author")];
+        System.out.println("Input text to search for: ");
+        String text = scanner.nextLine();
+        return () -> readOnlyUnitOfWork.run(session -> searchBooks(session, field, text));
+    }
+
+    private void searchBooks(Session session, BookSearch.Field field, String text) {
+        List<Book> books = bookstoreService.searchBooks(session, field, text, SEARCH_RESULT_LIMIT);
+        if (books.isEmpty()) {
+            System.out.println("There is no book that matches given text.");
             return;
         }
+        System.out.printf("%-30s | %-25s | %-20s | %-10s | %-15s%n",
+                "Book Title", "Author", "Genre", "Price", "Quantity In Stock");
+        System.out.println("-------------------------------------------------------------------------------------------------------------------------------------");
+        for (Book book : books) {
+            System.out.printf("%-30s | %-25s | %-20s | %-10.2f | %-15d%n", book.getTitle(), book.getAuthor(),
+                    book.getGenre(), book.getPrice(), book.getQuantityInStock());
+        }
+    }
+
+    /**
+     * This method is used for updating customer's information in database.
+     * New information is collected first, and then the customer is read and updated.
+     * @return Work that updates the customer
+     */
+    private Runnable updateCustomerInformation() {
+        int customerId = readCustomerID();
+        String newName = null;
+        String newEmail = null;
+        String newPhone = null;
         updating: while (true) {
             System.out.println("Choose column you want to update");
             System.out.println("1: name");
@@ -240,25 +387,22 @@ public class ConsoleApp {
             switch (choice) {
                 case "1" -> {
                     System.out.println("Input new name.");
-                    String newName = scanner.next();
-                    customer.setName(newName);
+                    newName = scanner.next();
                 }
                 case "2" -> {
                     System.out.println("Input new email.");
-                    String newEmail = scanner.next();
-                    String emailRegex = "^[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,}$";
-                    if (newEmail.matches(emailRegex)) {
-                        customer.setEmail(newEmail);
+                    String email = scanner.next();
+                    if (email.matches(EMAIL_REGEX)) {
+                        newEmail = email;
                     } else {
                         System.out.println("Not valid email was given.");
                     }
                 }
                 case "3" -> {
                     System.out.println("Input new phone number.");
-                    String newPhone = scanner.next();
-                    String phoneRegex = "^[0-9]+$";
-                    if(newPhone.matches(phoneRegex)) {
-                        customer.setPhone(newPhone);
+                    String phone = scanner.next();
+                    if (phone.matches(PHONE_REGEX)) {
+                        newPhone = phone;
                     } else {
                         System.out.println("Not valid phone number was given.");
                     }
@@ -269,91 +413,122 @@ public class ConsoleApp {
                 default -> System.out.println("Invalid choice. Try again.");
             }
         }
-        System.out.println("Information was successfully updated.");
-        transaction.commit();
+        CustomerDetails details = new CustomerDetails(newName, newEmail, newPhone);
+        return () -> unitOfWork.run(session -> {
+            Customer customer = session.get(Customer.class, customerId);
+            if (customer == null) {
+                System.out.println("There is no customer with given identifier.");
+                session.getTransaction().markRollbackOnly();
+                return;
+            }
+            if (details.name() != null) {
+                customer.setName(details.name());
+            }
+            if (details.email() != null) {
+                customer.setEmail(details.email());
+            }
+            if (details.phone() != null) {
+                customer.setPhone(details.phone());
+            }
+            System.out.println("Information was successfully updated.");
+        });
     }
 
     /**
-     * This method prints purchase history of certain customer
-     * @param session The Hibernate session
+     * New information of a customer, null for information that isn't changed
      */
-    private void customerHistory(Session session) {
-        Customer customer = getCustomerByID(session);
-        if (customer == null) {
-            System.out.println("There is no customer with given identifier.");
-            return;
-        }
-        String historyQuery = "SELECT s.dateOfSale, s.quantitySold, " +
-                "b.title, b.price " +
-                "FROM Sale s " +
-                "INNER JOIN s.book b " +
-                "WHERE s.customer.id = :customerId";
-        try {
-            Query<Object[]> query = session.createQuery(historyQuery, Object[].class);
-            query.setParameter("customerId", customer.getCustomerID());
+    private record CustomerDetails(String name, String email, String phone) {
+    }
 
-            List<Object[]> results = query.list();
-            if (results.isEmpty()) {
-                System.out.println("Customer with given id didn't purchase any book.");
+    /**
+     * This method prints purchase history of certain customer page by page.
+     * Every page is read in its own transaction, so no connection is held while user decides to see the next one.
+     * @return Work that prints the history
+     */
+    private Runnable customerHistory() {
+        int customerId = readCustomerID();
+        scanner.nextLine();
+        LocalDate fromDate = getOptionalDate("Enter the first date of purchases (yyyy-mm-dd) or leave empty.");
+        LocalDate toDate = getOptionalDate("Enter the last date of purchases (yyyy-mm-dd) or leave empty.");
+        return () -> {
+            if (readOnlyUnitOfWork.execute(session -> session.get(Customer.class, customerId)) == null) {
+                System.out.println("There is no customer with given identifier.");
                 return;
             }
-            for (Object[] result : results) {
-                LocalDate dateOfSale = ((LocalDate) result[0]);
-                int quantitySold = (Integer) result[1];
-                String bookTitle = (String) result[2];
-                float bookPrice = (Float) result[3];
-                System.out.printf("Title: %-20s, Date: %-10s, Price: %-10.2f, Quantity: %d%n",
-                        bookTitle, dateOfSale, bookPrice, quantitySold);
+            try {
+                Sale lastSale = null;
+                while (true) {
+                    Sale previousSale = lastSale;
+                    List<Sale> sales = readOnlyUnitOfWork.execute(session -> {
+                        List<Sale> page = bookstoreService.getPurchaseHistoryPage(session, customerId,
+                                fromDate, toDate, previousSale, HISTORY_PAGE_SIZE);
+                        for (Sale sale : page) {
+                            LocalDate dateOfSale = sale.getDateOfSale();
+                            int quantitySold = sale.getQuantitySold();
+                            String bookTitle = sale.getBook().getTitle();
+                            float bookPrice = sale.getBook().getPrice();
+                            System.out.printf("Title: %-20s, Date: %-10s, Price: %-10.2f, Quantity: %d%n",
+                                    bookTitle, dateOfSale, bookPrice, quantitySold);
+                        }
+                        return page;
+                    });
+                    if (sales.isEmpty()) {
+                        if (lastSale == null) {
+                            System.out.println("Customer with given id didn't purchase any book.");
+                        }
+                        return;
+                    }
+                    if (sales.size() < HISTORY_PAGE_SIZE) {
+                        return;
+                    }
+                    System.out.println("Enter n to see next page or anything else to stop.");
+                    long waitStartTime = System.nanoTime();
+                    String answer = scanner.nextLine();
+                    inputWaitNanos += System.nanoTime() - waitStartTime;
+                    if (!answer.trim().equalsIgnoreCase("n")) {
+                        return;
+                    }
+                    lastSale = sales.get(sales.size() - 1);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        };
     }
 
     /**
      * This method makes user to input genre and prints total revenue of given genre
-     * @param session The Hibernate session
+     * @return Work that prints the revenue
      */
-    private void calculateRevenue(Session session) {
-        String revenueQuery = "SELECT SUM(sale.totalPrice) " +
-                "FROM Sale sale " +
-                "INNER JOIN sale.book book " +
-                "WHERE book.genre = :genre ";
+    private Runnable calculateRevenue() {
         System.out.println("Input the genre you want to calculate revenue for.");
         String genre = scanner.nextLine();
-        try {
-            Query<Double> query = session.createQuery(revenueQuery, Double.class);
-            query.setParameter("genre", genre);
-            double result = query.uniqueResult() != null ? query.uniqueResult() : 0;
-            System.out.println("Total revenue of " + genre + " is " + result);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        return () -> readOnlyUnitOfWork.run(session -> {
+            try {
+                double result = bookstoreService.getRevenue(session, genre);
+                System.out.println("Total revenue of " + genre + " is " + result);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
     }
 
     /**
-     * This method prints information about all books that were sold
-     * @param session The Hibernate session
+     * This method prints information about all books that were sold.
+     * Rows are streamed through a stateless session, so memory use doesn't depend on number of sales.
      */
-    private void getBookReport(Session session) {
-        String reportQuery = "SELECT book.title, customer.name, sale.dateOfSale " +
-                "FROM Sale sale " +
-                "INNER JOIN sale.book book " +
-                "INNER JOIN sale.customer customer ";
+    private void getBookReport() {
         try {
-            Query<Object[]> query = session.createQuery(reportQuery, Object[].class);
-            var results = query.list();
-            if (results.isEmpty()) {
-                System.out.println("No report was found.");
-                return;
-            }
             System.out.printf("%-30s | %-30s | %-10s%n", "Book Title", "Customer Name", "Date of Sale");
             System.out.println("------------------------------------------------------------------------");
-            for (Object[] result : results) {
+            long rowCount = bookstoreService.streamSoldBooks(HibernateUtil.getReadOnlySessionFactory(), result -> {
                 String bookTitle = (String) result[0];
                 String customerName = (String) result[1];
                 LocalDate date = (LocalDate) result[2];
                 System.out.printf("%-30s | %-30s | %-10s%n", bookTitle, customerName, date);
+            });
+            if (rowCount == 0) {
+                System.out.println("No report was found.");
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -365,19 +540,14 @@ public class ConsoleApp {
      * @param session The Hibernate session
      */
     private void getGenreRevenues(Session session) {
-        String reportQuery = "SELECT book.genre, SUM(sale.totalPrice) " +
-                "FROM Sale sale " +
-                "INNER JOIN sale.book book " +
-                "GROUP BY book.genre";
         try {
-            Query<Object[]> query = session.createQuery(reportQuery, Object[].class);
-            var results = query.list();
+            List<GenreRevenue> results = bookstoreService.getGenreRevenues(session);
             if (results.isEmpty()) {
                 System.out.println("No sale was made.");
                 return;
             }
-            for (Object[] result : results) {
-                System.out.printf("Genre: %-20s, Revenue: %f%n", result[0], result[1]);
+            for (GenreRevenue result : results) {
+                System.out.printf("Genre: %-20s, Revenue: %f%n", result.getGenre(), result.getRevenue());
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -385,75 +555,495 @@ public class ConsoleApp {
     }
 
     /**
-     * This method inserts new sale in database
+     * This method checks revenues of genres kept in the rollup against revenues recomputed from all sales
      * @param session The Hibernate session
      */
-    private void processNewSale(Session session) {
-        Transaction transaction = session.beginTransaction();
-        Book book = getBookByID(session);
-        Customer customer = getCustomerByID(session);
-        int quantitySold;
+    private void verifyRevenueRollup(Session session) {
+        try {
+            List<String> mismatches = genreRevenueRollup.verify(session);
+            if (mismatches.isEmpty()) {
+                System.out.println("Revenues of all genres are consistent with sales.");
+                return;
+            }
+            mismatches.forEach(System.out::println);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * This method prints hit and miss counts of second-level cache regions and of query cache
+     */
+    private void printCacheStatistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+        System.out.printf("%-20s | %-10s | %-10s | %-10s%n", "Region", "Hits", "Misses", "Puts");
+        System.out.println("------------------------------------------------------------");
+        String[] regionNames = {BOOKS_CACHE_REGION, CUSTOMERS_CACHE_REGION, CUSTOMER_EMAILS_CACHE_REGION,
+                BookstoreService.BOOK_LISTINGS_CACHE_REGION};
+        for (String regionName : regionNames) {
+            CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(regionName);
+            if (regionStatistics == null) {
+                continue;
+            }
+            System.out.printf("%-20s | %-10d | %-10d | %-10d%n", regionName, regionStatistics.getHitCount(),
+                    regionStatistics.getMissCount(), regionStatistics.getPutCount());
+        }
+        System.out.printf("Query cache hits: %d, misses: %d, puts: %d%n", statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount());
+    }
+
+    /**
+     * This method prints latencies and numbers of statements of actions, latencies of queries
+     * and state of the connection pool and of read replicas. Latencies of actions start after their input
+     * is collected and leave out time spent waiting for user between pages.
+     */
+    private void printMetrics() {
+        System.out.printf("%-30s | %-8s | %-8s | %-10s | %-10s | %-10s | %-10s | %-10s%n", "Action", "Count",
+                "Errors", "p50 ms", "p95 ms", "p99 ms", "Max ms", "Statements");
+        System.out.println("---------------------------------------------------------------------------------------------------------------");
+        Metrics.actionSnapshot().forEach((action, snapshot) -> System.out.printf(
+                "%-30s | %-8d | %-8d | %-10.3f | %-10.3f | %-10.3f | %-10.3f | %-10.1f%n",
+                action, snapshot.count(), snapshot.errors(), snapshot.p50Millis(), snapshot.p95Millis(),
+                snapshot.p99Millis(), snapshot.maxMillis(), Metrics.statementsPerExecution(action, snapshot)));
+        System.out.println();
+        QueryMetrics.snapshot().forEach((query, snapshot) -> {
+            System.out.println(query);
+            System.out.println("    " + snapshot);
+        });
+        PoolMetrics.Snapshot poolMetrics = HibernateUtil.getPoolMetrics();
+        if (poolMetrics != null) {
+            System.out.println();
+            System.out.println("Connection pool: " + poolMetrics);
+        }
+        for (String replicaStatus : HibernateUtil.getReplicaStatus()) {
+            System.out.println("Replica " + replicaStatus);
+        }
+    }
+
+    /**
+     * This method inserts new sale in database
+     * @return Work that processes the sale
+     */
+    private Runnable processNewSale() {
+        int bookId = readBookID();
+        int customerId = readCustomerID();
+        int quantitySold = readQuantitySold();
+        return () -> unitOfWork.run(session -> {
+            Book book = session.get(Book.class, bookId);
+            Customer customer = session.get(Customer.class, customerId);
+            if (book == null || customer == null) {
+                System.out.println("Not valid identifier was passed.");
+                session.getTransaction().markRollbackOnly();
+                return;
+            }
+            Sale sale = saleProcessor.processSale(session, bookId, customerId, quantitySold);
+            if (sale == null) {
+                System.out.println("There isn't enough quantity of book in stock.");
+                session.getTransaction().markRollbackOnly();
+            }
+        });
+    }
+
+    /**
+     * This method makes user to input quantity of sold books until it is positive
+     * @return Inputted quantity
+     */
+    private int readQuantitySold() {
         while (true) {
             System.out.println("Enter quantity sold.");
             if (scanner.hasNextInt()) {
-                quantitySold = scanner.nextInt();
+                int quantitySold = scanner.nextInt();
                 if (quantitySold > 0) {
-                    break;
+                    return quantitySold;
                 }
             }
             System.out.println("Quantity should be a positive integer number.");
         }
-        if (book == null || customer == null) {
-            System.out.println("Not valid identifier was passed.");
-            transaction.rollback();
+    }
+
+    /**
+     * This method makes user to input customer and quantities of books until 0 is entered as id of the book,
+     * and processes them as one order, which either takes all books from stock or none of them
+     * @return Work that processes the order
+     */
+    private Runnable processNewOrder() {
+        int customerId = readCustomerID();
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        while (true) {
+            int bookId = getInt("Enter id of the book or 0 to finish the order.");
+            if (bookId == 0) {
+                break;
+            }
+            int quantity = getInt("Enter quantity sold.");
+            if (quantity <= 0) {
+                System.out.println("Quantity should be a positive integer number.");
+                continue;
+            }
+            quantities.merge(bookId, quantity, Integer::sum);
+        }
+        if (quantities.isEmpty()) {
+            return () -> System.out.println("Order has no books.");
+        }
+        return () -> unitOfWork.run(session -> processNewOrder(session, customerId, quantities));
+    }
+
+    private void processNewOrder(Session session, int customerId, Map<Integer, Integer> quantities) {
+        if (session.get(Customer.class, customerId) == null) {
+            System.out.println("There is no customer with given identifier.");
+            session.getTransaction().markRollbackOnly();
             return;
         }
-        if (book.getQuantityInStock() < quantitySold) {
-            System.out.println("There isn't enough quantity of book in stock.");
-            transaction.rollback();
+        Order order = saleProcessor.processOrder(session, customerId, quantities);
+        if (order == null) {
+            System.out.println("Some book doesn't exist or there isn't enough quantity of it in stock, " +
+                    "nothing was sold.");
+            session.getTransaction().markRollbackOnly();
             return;
         }
-        Sale sale = new Sale(book, customer, LocalDate.now(), quantitySold, quantitySold * book.getPrice());
-        session.persist(sale);
-        session.flush();
-        transaction.commit();
+        System.out.printf("%-30s | %-10s | %-12s%n", "Book Title", "Quantity", "Total Price");
+        System.out.println("-----------------------------------------------------------");
+        for (Sale sale : order.getSales()) {
+            System.out.printf("%-30s | %-10d | %-12.2f%n", sale.getBook().getTitle(), sale.getQuantitySold(),
+                    sale.getTotalPrice());
+        }
+        System.out.printf("Order %d was processed, total price is %.2f.%n", order.getOrderID(), order.getTotalPrice());
+    }
+
+    /**
+     * This method makes user to input integer number
+     * @param message The message that asks for number
+     * @return Inputted number
+     */
+    private int getInt(String message) {
+        while (true) {
+            System.out.println(message);
+            if (scanner.hasNextInt()) {
+                return scanner.nextInt();
+            }
+            scanner.next();
+            System.out.println("It should be an integer number.");
+        }
+    }
+
+    /**
+     * This method makes user to choose length of periods, grouping and date range,
+     * and prints revenue, units and number of sales of every group in every period
+     * @return Work that prints the report
+     */
+    private Runnable salesReport() {
+        SalesReport report = readSalesReport();
+        return () -> readOnlyUnitOfWork.run(session -> {
+            List<DailySalesRollup.PeriodSales> results = getSales(session, report);
+            if (results.isEmpty()) {
+                System.out.println("No sale was made in given dates.");
+                return;
+            }
+            System.out.printf("%-12s | %-30s | %-12s | %-10s | %-10s%n", "Period", "Name", "Revenue", "Units", "Sales");
+            System.out.println("------------------------------------------------------------------------------------------");
+            for (DailySalesRollup.PeriodSales result : results) {
+                System.out.printf("%-12s | %-30s | %-12.2f | %-10d | %-10d%n", result.period(), result.name(),
+                        result.revenue(), result.units(), result.salesCount());
+            }
+        });
+    }
+
+    /**
+     * This method makes user to choose length of periods, grouping and date range of a sales report
+     * @return Chosen report
+     */
+    private SalesReport readSalesReport() {
+        DailySalesRollup.Granularity granularity = DailySalesRollup.Granularity.values()[choose(
+                "Choose period of the report", "day", "week", "month")];
+        DailySalesRollup.Dimension dimension = DailySalesRollup.Dimension.values()[choose(
+                "Choose what sales are grouped by", "genre", "author", "book")];
+        LocalDate toDate = getOptionalDate("Enter the last date of the report (yyyy-mm-dd) or leave empty for today.");
+        if (toDate == null) {
+            toDate = LocalDate.now();
+        }
+        LocalDate fromDate = getOptionalDate("Enter the first date of the report (yyyy-mm-dd) " +
+                "or leave empty for a month before the last date.");
+        if (fromDate == null) {
+            fromDate = toDate.minusMonths(1);
+        }
+        return new SalesReport(granularity, dimension, fromDate, toDate);
     }
 
     /**
-     * This method makes user to input id and gives Book instance of the book that has that id in database
-     * If there is no book with given id it returns null
+     * This method gives revenue, units and number of sales of every group in every period of the report
      * @param session The Hibernate session
-     * @return Book instance with inputted id
+     * @param report The report
+     * @return Sales ordered by period and name
+     */
+    private List<DailySalesRollup.PeriodSales> getSales(Session session, SalesReport report) {
+        return bookstoreService.getSales(session, report.granularity(), report.dimension(), report.fromDate(),
+                report.toDate());
+    }
+
+    /**
+     * Length of periods, grouping and date range of a sales report
+     */
+    private record SalesReport(DailySalesRollup.Granularity granularity, DailySalesRollup.Dimension dimension,
+                               LocalDate fromDate, LocalDate toDate) {
+    }
+
+    /**
+     * This method makes user to choose a report, format and file, writes the report to the file
+     * and prints number of written rows and bytes and throughput
+     * @return Work that writes the report
+     */
+    private Runnable exportReport() {
+        int report = choose("Choose the report to export", "all books sold", "revenue of each genre",
+                "sales by day, week or month");
+        ReportExporter.Format format = ReportExporter.Format.values()[choose("Choose format of the file",
+                "CSV", "columnar binary")];
+        int parts = report == 0
+                ? getPositiveInt("Enter number of files the report is split into, they are written in parallel.")
+                : 1;
+        SalesReport salesReport = report == 2 ? readSalesReport() : null;
+        System.out.println("Enter path of the file or leave empty for report." + format.getExtension() + ".");
+        String input = scanner.nextLine().trim();
+        Path file = Path.of(input.isEmpty() ? "report." + format.getExtension() : input);
+        return () -> exportReport(report, format, parts, salesReport, file);
+    }
+
+    private void exportReport(int report, ReportExporter.Format format, int parts, SalesReport salesReport,
+                              Path file) {
+        try {
+            long startTime = System.nanoTime();
+            ReportExporter.ExportResult result = switch (report) {
+                case 0 -> reportExporter.exportSoldBooks(HibernateUtil.getReadOnlySessionFactory(), file, format,
+                        parts);
+                case 1 -> reportExporter.exportGenreRevenues(
+                        readOnlyUnitOfWork.execute(bookstoreService::getGenreRevenues), file, format);
+                default -> reportExporter.exportSales(
+                        readOnlyUnitOfWork.execute(session -> getSales(session, salesReport)), file, format);
+            };
+            double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+            System.out.printf("Exported %d rows, %d bytes in %.3f s (%.0f rows/s, %.1f MB/s) to:%n",
+                    result.rowCount(), result.byteCount(), seconds, result.rowCount() / seconds,
+                    result.byteCount() / seconds / (1 << 20));
+            result.files().forEach(System.out::println);
+        } catch (IOException e) {
+            System.out.println("The report couldn't be written: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method makes user to choose window, metric and genre and prints books that sold the most
+     * @return Work that prints the books
      */
-    private Book getBookByID(Session session) {
-        int id;
+    private Runnable printBestsellers() {
+        if (bestsellers == null) {
+            return () -> System.out.println("Bestsellers are disabled by bookstore.bestsellers.enabled setting.");
+        }
+        Bestsellers.Window window = Bestsellers.Window.values()[choose("Choose period of sales",
+                "today", "last 7 days", "last 30 days", "all time")];
+        Bestsellers.Metric metric = Bestsellers.Metric.values()[choose("Choose what books are ordered by",
+                "sold copies", "revenue")];
+        System.out.println("Enter genre or leave empty for books of all genres.");
+        String genre = scanner.nextLine().trim();
+        return () -> printBestsellers(window, metric, genre.isEmpty() ? null : genre);
+    }
+
+    private void printBestsellers(Bestsellers.Window window, Bestsellers.Metric metric, String genre) {
+        List<Bestsellers.Bestseller> results = bestsellers.getTop(window, metric, genre);
+        if (results.isEmpty()) {
+            System.out.println("No sale was made in this period.");
+            return;
+        }
+        System.out.printf("%-4s | %-30s | %-20s | %-10s | %-12s%n", "Rank", "Book Title", "Genre", "Copies", "Revenue");
+        System.out.println("------------------------------------------------------------------------------------");
+        for (int i = 0; i < results.size(); i++) {
+            Bestsellers.Bestseller result = results.get(i);
+            System.out.printf("%-4d | %-30s | %-20s | %-10d | %-12.2f%n", i + 1, result.title(), result.genre(),
+                    result.units(), result.revenue());
+        }
+    }
+
+    /**
+     * This method prints books which quantity in stock is at most the threshold of the watchlist
+     */
+    private void printLowStockWatchlist() {
+        if (stockWatchlist == null) {
+            System.out.println("Watchlist is disabled by bookstore.watchlist.enabled setting.");
+            return;
+        }
+        List<StockWatchlist.LowStockBook> results = stockWatchlist.getBooks(WATCHLIST_LIMIT);
+        if (results.isEmpty()) {
+            System.out.println("Every book has more than " + stockWatchlist.getThreshold() + " copies in stock.");
+            return;
+        }
+        System.out.printf("%d books have at most %d copies in stock.%n", stockWatchlist.size(),
+                stockWatchlist.getThreshold());
+        System.out.printf("%-10s | %-30s | %-15s%n", "ID", "Book Title", "Quantity in Stock");
+        System.out.println("------------------------------------------------------------");
+        for (StockWatchlist.LowStockBook result : results) {
+            System.out.printf("%-10d | %-30s | %-15d%n", result.bookId(), result.title(), result.quantityInStock());
+        }
+    }
+
+    /**
+     * This method makes user to input email and prints the customer that has it
+     * @return Work that prints the customer
+     */
+    private Runnable findCustomerByEmail() {
+        System.out.println("Enter email of the customer.");
+        String email = scanner.nextLine().trim();
+        return () -> {
+            Customer customer = HibernateUtil.getCustomerDirectory().findByEmail(email);
+            if (customer == null) {
+                System.out.println("There is no customer with given email.");
+                return;
+            }
+            printCustomer(customer);
+        };
+    }
+
+    /**
+     * This method makes user to input name, email and phone of a customer and adds the customer.
+     * If some customer already has given email, that customer is printed instead.
+     * @return Work that adds the customer
+     */
+    private Runnable addCustomer() {
+        System.out.println("Input name.");
+        String name = scanner.nextLine().trim();
+        String email = getMatchingInput("Input email.", EMAIL_REGEX, "Not valid email was given.");
+        String phone = getMatchingInput("Input phone number.", PHONE_REGEX, "Not valid phone number was given.");
+        return () -> {
+            Customer customer = HibernateUtil.getCustomerDirectory().findOrCreate(name, email, phone);
+            if (!customer.getName().equals(name) || !customer.getPhone().equals(phone)) {
+                System.out.println("Customer with given email already exists.");
+            } else {
+                System.out.println("Customer was successfully added.");
+            }
+            printCustomer(customer);
+        };
+    }
+
+    private static void printCustomer(Customer customer) {
+        System.out.printf("%-10s | %-25s | %-30s | %-15s%n", "ID", "Name", "Email", "Phone");
+        System.out.println("-------------------------------------------------------------------------------------");
+        System.out.printf("%-10d | %-25s | %-30s | %-15s%n", customer.getCustomerID(), customer.getName(),
+                customer.getEmail(), customer.getPhone());
+    }
+
+    /**
+     * This method makes user to input text until it matches the regular expression
+     * @param message The message that asks for text
+     * @param regex The regular expression
+     * @param error The message printed when text doesn't match
+     * @return Inputted text
+     */
+    private String getMatchingInput(String message, String regex, String error) {
+        while (true) {
+            System.out.println(message);
+            String input = scanner.nextLine().trim();
+            if (input.matches(regex)) {
+                return input;
+            }
+            System.out.println(error);
+        }
+    }
+
+    /**
+     * This method makes user to input a positive integer number
+     * @param message The message that asks for number
+     * @return Inputted number
+     */
+    private int getPositiveInt(String message) {
+        while (true) {
+            System.out.println(message);
+            String input = scanner.nextLine().trim();
+            if (input.matches("[1-9][0-9]{0,8}")) {
+                return Integer.parseInt(input);
+            }
+            System.out.println("It should be a positive integer number.");
+        }
+    }
+
+    /**
+     * This method recomputes daily sales of the date range user inputs from sales, month by month
+     * @return Work that recomputes daily sales
+     */
+    private Runnable backfillDailySales() {
+        LocalDate fromDate = getOptionalDate("Enter the first date to recompute (yyyy-mm-dd) " +
+                "or leave empty to start with the first sale.");
+        LocalDate toDate = getOptionalDate("Enter the last date to recompute (yyyy-mm-dd) " +
+                "or leave empty to finish with the last sale.");
+        return () -> {
+            dailySalesRollup.backfill(unitOfWork, fromDate, toDate, (month, rows) ->
+                    System.out.printf("Daily sales from %s were recomputed, %d rows.%n", month, rows));
+            System.out.println("Daily sales were successfully recomputed.");
+        };
+    }
+
+    /**
+     * This method makes user to choose one of options
+     * @param message The message that asks for choice
+     * @param options Descriptions of options
+     * @return Index of chosen option
+     */
+    private int choose(String message, String... options) {
+        while (true) {
+            System.out.println(message);
+            for (int i = 0; i < options.length; i++) {
+                System.out.println((i + 1) + ": " + options[i]);
+            }
+            String choice = scanner.nextLine().trim();
+            for (int i = 0; i < options.length; i++) {
+                if (choice.equals(Integer.toString(i + 1))) {
+                    return i;
+                }
+            }
+            System.out.println("Invalid choice. Try again.");
+        }
+    }
+
+    /**
+     * This method makes user to input date, empty input means that date isn't given
+     * @param message The message that asks for date
+     * @return Inputted date or null if input was empty
+     */
+    private LocalDate getOptionalDate(String message) {
+        while (true) {
+            System.out.println(message);
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) {
+                return null;
+            }
+            try {
+                return LocalDate.parse(input);
+            } catch (DateTimeParseException e) {
+                System.out.println("Date should be in yyyy-mm-dd format.");
+            }
+        }
+    }
+
+    /**
+     * This method makes user to input id of a book
+     * @return Inputted id
+     */
+    private int readBookID() {
         while (true) {
             System.out.println("Enter id of the book.");
             if (scanner.hasNextInt()) {
-                id = scanner.nextInt();
-                break;
+                return scanner.nextInt();
             }
             System.out.println("ID should be an integer number.");
         }
-        return session.get(Book.class, id);
     }
 
     /**
-     * This method makes user to input id and gives Customer instance of that book in database
-     * If there is no customer with given id it returns null
-     * @param session The Hibernate session
-     * @return Customer instance with inputted id
+     * This method makes user to input id of a customer
+     * @return Inputted id
      */
-    private Customer getCustomerByID(Session session) {
-        int id;
+    private int readCustomerID() {
         while (true) {
             System.out.println("Enter id of the customer.");
             if (scanner.hasNextInt()) {
-                id = scanner.nextInt();
-                break;
+                return scanner.nextInt();
             }
             System.out.println("ID should be an integer number.");
         }
-        return session.get(Customer.class, id);
     }
 }
@@ -1,16 +1,41 @@
 package org.bookstore;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
 @Entity
 @Table(name = "customers")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "customers")
+@NaturalIdCache(region = "customer-emails")
+@NamedQuery(name = Customer.COUNT_QUERY, query = "SELECT COUNT(*) FROM Customer")
+@NamedQuery(name = Customer.EMAILS_QUERY, query = "SELECT email FROM Customer")
+@NamedQuery(name = Customer.EXISTING_EMAILS_QUERY, query = "SELECT email FROM Customer WHERE email IN :emails")
 public class Customer {
+    /**
+     * Number of customers
+     */
+    public static final String COUNT_QUERY = "Customer.count";
+    /**
+     * Emails of all customers
+     */
+    public static final String EMAILS_QUERY = "Customer.emails";
+    /**
+     * Emails of the list given as "emails" parameter that belong to customers
+     */
+    public static final String EXISTING_EMAILS_QUERY = "Customer.existingEmails";
+
     @Id
     @Column(name = "customer_id", nullable = false)
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "customers_seq")
+    @SequenceGenerator(name = "customers_seq", sequenceName = "customers_seq", allocationSize = 50)
     private Integer customerID;
     @Column(name = "name", nullable = false)
     private String name;
+    @NaturalId(mutable = true)
     @Column(name = "email", nullable = false, unique = true)
     private String email;
     @Column(name = "phone", nullable = false)
@@ -19,6 +44,14 @@ public class Customer {
     public Customer() {
     }
 
+    /**
+     * Creates reference to existing customer, so associations can be set without loading it
+     * @param customerID The identifier of the customer
+     */
+    Customer(Integer customerID) {
+        this.customerID = customerID;
+    }
+
     public Customer(String name, String email, String phone) {
         this.name = name;
         this.email = email;
@@ -0,0 +1,186 @@
+package org.bookstore;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Finds customers by email, which is their natural id, and adds new ones without creating duplicates.
+ * Lookups are always resolved through natural-id cache and then the database. Emails of all customers are also
+ * kept in a Bloom filter, which is only a hint: find-or-create skips the lookup of email that was never used
+ * and inserts the customer at once. The filter is seeded by one scan of emails and then follows customers
+ * committed through the session factory. Emails added by other processes aren't in it until restart,
+ * they still can't be duplicated, because find-or-create relies on the unique constraint of email.
+ */
+public class CustomerDirectory {
+    private static final int LOAD_FETCH_SIZE = 10_000;
+
+    private final SessionFactory sessionFactory;
+    private final UnitOfWork unitOfWork;
+    private final BloomFilter emails;
+
+    private CustomerDirectory(SessionFactory sessionFactory, BloomFilter emails) {
+        this.sessionFactory = sessionFactory;
+        this.unitOfWork = new UnitOfWork(sessionFactory);
+        this.emails = emails;
+    }
+
+    /**
+     * This method reads emails of all customers and starts following customers committed through the session
+     * factory. Listeners are registered before reading, so no customer committed during the load is missed.
+     * @param sessionFactory The Hibernate session factory of the primary database
+     * @param expectedCustomers Number of customers the filter is sized for, it is at least twice the current number
+     * @param falsePositiveRate Probability that a new email has to be looked up in the database
+     * @return Loaded directory
+     */
+    public static CustomerDirectory load(SessionFactory sessionFactory, long expectedCustomers,
+                                         double falsePositiveRate) {
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            session.beginTransaction();
+            long customerCount = session.createNamedQuery(Customer.COUNT_QUERY, Long.class).getSingleResult();
+            CustomerDirectory directory = new CustomerDirectory(sessionFactory,
+                    new BloomFilter(Math.max(expectedCustomers, 2 * customerCount), falsePositiveRate));
+            EventListenerRegistry listeners = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                    .getServiceRegistry()
+                    .getService(EventListenerRegistry.class);
+            CommitListener listener = directory.new CommitListener();
+            listeners.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+            listeners.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+            addEmails(session, directory.emails);
+            session.getTransaction().commit();
+            return directory;
+        }
+    }
+
+    /**
+     * This method reads emails of all customers into a new filter that doesn't follow later changes,
+     * it is used by imports that add customers with a stateless session
+     * @param session The stateless session with active transaction
+     * @param newCustomers Number of customers that may be added besides the existing ones
+     * @param falsePositiveRate Probability that a new email is reported as maybe existing
+     * @return Filter of emails of all customers
+     */
+    static BloomFilter loadEmails(StatelessSession session, long newCustomers, double falsePositiveRate) {
+        long customerCount = session.createNamedQuery(Customer.COUNT_QUERY, Long.class).getSingleResult();
+        BloomFilter emails = new BloomFilter(Math.max(1, customerCount + newCustomers), falsePositiveRate);
+        addEmails(session, emails);
+        return emails;
+    }
+
+    private static void addEmails(StatelessSession session, BloomFilter emails) {
+        try (ScrollableResults<String> results = session.createNamedQuery(Customer.EMAILS_QUERY, String.class)
+                .setFetchSize(LOAD_FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                emails.add(results.get());
+            }
+        }
+    }
+
+    /**
+     * This method tells whether the email may belong to a customer without asking the database
+     * @param email The email
+     * @return False if no customer known to the directory has the email, true if some customer may have it
+     */
+    public boolean mightExist(String email) {
+        return emails.mightContain(email);
+    }
+
+    /**
+     * This method gives customer with the email, resolved through natural-id cache and customers cache.
+     * Lookup doesn't begin a transaction, so a connection is taken from the pool only when the caches miss.
+     * @param email The email
+     * @return The customer or null if there is no customer with the email
+     */
+    public Customer findByEmail(String email) {
+        return sessionFactory.fromSession(session -> session.bySimpleNaturalId(Customer.class).load(email));
+    }
+
+    /**
+     * This method gives customer with the email, or adds customer with given name, email and phone
+     * if there is none. It is safe to call from many threads and processes at once: customer is inserted
+     * in its own transaction, and when the unique constraint of email rejects it because a concurrent call
+     * committed the same email first, the customer committed by that call is given. Email that isn't
+     * in the filter isn't looked up before the insert, the unique constraint still catches it if it was
+     * added by another process.
+     * @param name The name of the customer, used only if customer is added
+     * @param email The email of the customer
+     * @param phone The phone of the customer, used only if customer is added
+     * @return Existing or added customer
+     */
+    public Customer findOrCreate(String name, String email, String phone) {
+        if (emails.mightContain(email)) {
+            Customer customer = findByEmail(email);
+            if (customer != null) {
+                return customer;
+            }
+        }
+        try {
+            return unitOfWork.execute(session -> {
+                Customer newCustomer = new Customer(name, email, phone);
+                session.persist(newCustomer);
+                session.flush();
+                return newCustomer;
+            });
+        } catch (RuntimeException e) {
+            if (!UnitOfWork.isConstraintViolation(e)) {
+                throw e;
+            }
+            emails.add(email);
+            Customer customer = findByEmail(email);
+            if (customer == null) {
+                throw e;
+            }
+            return customer;
+        }
+    }
+
+    /**
+     * @return Size of the filter of emails in bytes
+     */
+    public long getFilterByteCount() {
+        return emails.getByteCount();
+    }
+
+    /**
+     * Adds emails of customers after transactions that insert or update them commit.
+     * Previous email of updated customer stays in the filter and only costs a lookup.
+     */
+    private class CommitListener implements PostCommitInsertEventListener, PostCommitUpdateEventListener {
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (event.getEntity() instanceof Customer customer) {
+                emails.add(customer.getEmail());
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (event.getEntity() instanceof Customer customer) {
+                emails.add(customer.getEmail());
+            }
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.bookstore;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.NamedNativeQuery;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+@Entity
+@Table(name = "daily_book_sales")
+@NamedNativeQuery(name = DailyBookSales.ADD_SALES_QUERY, query = "UPDATE daily_book_sales " +
+        "SET revenue = revenue + :revenue, units = units + :units, sales_count = sales_count + :salesCount " +
+        "WHERE sale_date = :saleDate AND book_id = :bookId", querySpaces = "daily_book_sales")
+@NamedNativeQuery(name = DailyBookSales.CREATE_QUERY, query = "INSERT INTO daily_book_sales " +
+        "(sale_date, book_id, revenue, units, sales_count) " +
+        "VALUES (:saleDate, :bookId, 0, 0, 0) ON CONFLICT DO NOTHING", querySpaces = "daily_book_sales")
+@NamedNativeQuery(name = DailyBookSales.CLEAR_QUERY, query = "DELETE FROM daily_book_sales " +
+        "WHERE sale_date BETWEEN :fromDate AND :toDate", querySpaces = "daily_book_sales")
+@NamedNativeQuery(name = DailyBookSales.BACKFILL_QUERY, query = "INSERT INTO daily_book_sales " +
+        "(sale_date, book_id, revenue, units, sales_count) " +
+        "SELECT s.date_of_sale, s.book_id, SUM(CAST(s.total_price AS DOUBLE PRECISION)), " +
+        "SUM(s.quantity_sold), COUNT(*) " +
+        "FROM sales s " +
+        "WHERE s.date_of_sale BETWEEN :fromDate AND :toDate " +
+        "GROUP BY s.date_of_sale, s.book_id", querySpaces = "daily_book_sales")
+public class DailyBookSales {
+    /**
+     * Adds "revenue", "units" and "salesCount" parameters to the book given as "bookId" parameter
+     * in the day given as "saleDate" parameter, it updates no row if the book has no row of that day yet
+     */
+    public static final String ADD_SALES_QUERY = "DailyBookSales.addSales";
+    /**
+     * Creates row of the book given as "bookId" parameter in the day given as "saleDate" parameter with no sales,
+     * unless there already is one
+     */
+    public static final String CREATE_QUERY = "DailyBookSales.create";
+    /**
+     * Deletes rows of days from "fromDate" to "toDate" parameters inclusive
+     */
+    public static final String CLEAR_QUERY = "DailyBookSales.clear";
+    /**
+     * Inserts rows of days from "fromDate" to "toDate" parameters inclusive computed from sales,
+     * the days should have no rows
+     */
+    public static final String BACKFILL_QUERY = "DailyBookSales.backfill";
+
+    @EmbeddedId
+    private Key key;
+
+    @Column(name = "revenue", nullable = false)
+    private Double revenue;
+
+    @Column(name = "units", nullable = false)
+    private Long units;
+
+    @Column(name = "sales_count", nullable = false)
+    private Long salesCount;
+
+    public DailyBookSales() {
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public Double getRevenue() {
+        return revenue;
+    }
+
+    public Long getUnits() {
+        return units;
+    }
+
+    public Long getSalesCount() {
+        return salesCount;
+    }
+
+    @Embeddable
+    public static class Key implements Serializable {
+        @Column(name = "sale_date", nullable = false)
+        private LocalDate saleDate;
+
+        @Column(name = "book_id", nullable = false)
+        private Integer bookId;
+
+        public Key() {
+        }
+
+        public Key(LocalDate saleDate, Integer bookId) {
+            this.saleDate = saleDate;
+            this.bookId = bookId;
+        }
+
+        public LocalDate getSaleDate() {
+            return saleDate;
+        }
+
+        public Integer getBookId() {
+            return bookId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key key)) {
+                return false;
+            }
+            return Objects.equals(saleDate, key.saleDate) && Objects.equals(bookId, key.bookId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(saleDate, bookId);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps revenue, units and number of sales of every book per day in daily_book_sales table,
+ * so sales of any date range are answered by combining at most one row per book and day
+ * instead of scanning sales. Rows are grouped by genre, author or book of their current state,
+ * like revenues of genres in {@link GenreRevenueRollup}.
+ * Every change has to be made within transaction that changes sales it depends on.
+ */
+public class DailySalesRollup {
+    public enum Granularity {
+        DAY("day"),
+        WEEK("week"),
+        MONTH("month");
+
+        private final String unit;
+
+        Granularity(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    public enum Dimension {
+        GENRE("b.genre", "b.genre"),
+        AUTHOR("b.author", "b.author"),
+        BOOK("b.title", "b.book_id, b.title");
+
+        private final String name;
+        private final String groupBy;
+
+        Dimension(String name, String groupBy) {
+            this.name = name;
+            this.groupBy = groupBy;
+        }
+    }
+
+    /**
+     * Sales of one genre, author or book in one day, week or month
+     * @param period The first day of the period
+     * @param name The genre, the author or the title of the book
+     */
+    public record PeriodSales(LocalDate period, String name, double revenue, long units, long salesCount) {
+    }
+
+    /**
+     * This method adds the sale to its book and day
+     * @param session The Hibernate session with active transaction
+     * @param sale The persisted sale
+     */
+    public void addSale(Session session, Sale sale) {
+        if (sale.getDateOfSale() == null) {
+            return;
+        }
+        addSales(session, sale.getDateOfSale(), sale.getBook().getBookID(), sale.getTotalPrice(),
+                sale.getQuantitySold(), 1);
+    }
+
+    /**
+     * This method adds several sales of the same book to their day
+     * @param session The Hibernate session with active transaction
+     * @param saleDate The date of the sales
+     * @param bookId The identifier of sold book
+     * @param revenue Total price of the sales
+     * @param units Quantity sold by the sales
+     * @param salesCount Number of the sales
+     */
+    public void addSales(Session session, LocalDate saleDate, int bookId, double revenue, long units,
+                         long salesCount) {
+        if (executeAddSales(session, saleDate, bookId, revenue, units, salesCount) == 0) {
+            session.createNamedMutationQuery(DailyBookSales.CREATE_QUERY)
+                    .setParameter("saleDate", saleDate)
+                    .setParameter("bookId", bookId)
+                    .executeUpdate();
+            executeAddSales(session, saleDate, bookId, revenue, units, salesCount);
+        }
+    }
+
+    /**
+     * This method gives sales of every genre, author or book in every period of the date range
+     * @param session The Hibernate session
+     * @param granularity Length of periods
+     * @param dimension What sales are grouped by
+     * @param fromDate The first day of the range
+     * @param toDate The last day of the range
+     * @return Sales ordered by period and name, periods at the ends of the range include only days within it
+     */
+    public List<PeriodSales> getSales(Session session, Granularity granularity, Dimension dimension,
+                                      LocalDate fromDate, LocalDate toDate) {
+        String period = "CAST(date_trunc('" + granularity.unit + "', d.sale_date) AS DATE)";
+        NativeQuery<Object[]> query = session.createNativeQuery("SELECT " + period + " AS period, " +
+                        dimension.name + " AS name, SUM(d.revenue) AS revenue, SUM(d.units) AS units, " +
+                        "SUM(d.sales_count) AS sales_count " +
+                        "FROM daily_book_sales d " +
+                        "INNER JOIN books b ON b.book_id = d.book_id " +
+                        "WHERE d.sale_date BETWEEN :fromDate AND :toDate " +
+                        "GROUP BY " + period + ", " + dimension.groupBy + " " +
+                        "ORDER BY period, name", Object[].class)
+                .addScalar("period", LocalDate.class)
+                .addScalar("name", String.class)
+                .addScalar("revenue", Double.class)
+                .addScalar("units", Long.class)
+                .addScalar("sales_count", Long.class);
+        return query.setParameter("fromDate", fromDate)
+                .setParameter("toDate", toDate)
+                .list()
+                .stream()
+                .map(row -> new PeriodSales((LocalDate) row[0], (String) row[1], (Double) row[2],
+                        (Long) row[3], (Long) row[4]))
+                .toList();
+    }
+
+    /**
+     * This method recomputes daily sales of the date range from sales.
+     * Days of archived months are skipped, as their sales are only in archive files.
+     * @param session The Hibernate session with active transaction
+     * @param fromDate The first day of the range
+     * @param toDate The last day of the range
+     * @return Number of rows of daily sales in the range
+     */
+    public int backfill(Session session, LocalDate fromDate, LocalDate toDate) {
+        LocalDate archivedUntil = session.createNamedQuery(SalesArchive.ARCHIVED_UNTIL_QUERY, LocalDate.class)
+                .uniqueResult();
+        if (archivedUntil != null && fromDate.isBefore(archivedUntil)) {
+            fromDate = archivedUntil;
+        }
+        if (fromDate.isAfter(toDate)) {
+            return 0;
+        }
+        session.createNamedMutationQuery(DailyBookSales.CLEAR_QUERY)
+                .setParameter("fromDate", fromDate)
+                .setParameter("toDate", toDate)
+                .executeUpdate();
+        return session.createNamedMutationQuery(DailyBookSales.BACKFILL_QUERY)
+                .setParameter("fromDate", fromDate)
+                .setParameter("toDate", toDate)
+                .executeUpdate();
+    }
+
+    /**
+     * This method recomputes daily sales of the date range month by month, every month in its own transaction,
+     * so rows of sales and daily sales are locked only for a short time and work done is kept if it stops
+     * @param unitOfWork The executor of transactions
+     * @param fromDate The first day of the range or null to start with the first sale
+     * @param toDate The last day of the range or null to finish with the last sale
+     * @param progress Consumer of the first day of every finished month and number of its rows
+     */
+    public void backfill(UnitOfWork unitOfWork, LocalDate fromDate, LocalDate toDate,
+                         BiConsumer<LocalDate, Integer> progress) {
+        if (fromDate == null || toDate == null) {
+            Object[] salesDates = unitOfWork.execute(session ->
+                    session.createNamedQuery(Sale.DATES_QUERY, Object[].class).uniqueResult());
+            if (salesDates[0] == null) {
+                return;
+            }
+            fromDate = fromDate == null ? (LocalDate) salesDates[0] : fromDate;
+            toDate = toDate == null ? (LocalDate) salesDates[1] : toDate;
+        }
+        LocalDate monthStart = fromDate;
+        while (!monthStart.isAfter(toDate)) {
+            LocalDate first = monthStart;
+            LocalDate last = monthStart.withDayOfMonth(monthStart.lengthOfMonth());
+            LocalDate monthEnd = last.isAfter(toDate) ? toDate : last;
+            int rows = unitOfWork.execute(session -> backfill(session, first, monthEnd));
+            progress.accept(first, rows);
+            monthStart = last.plusDays(1);
+        }
+    }
+
+    /**
+     * This method recomputes all daily sales except those of archived months,
+     * it should be used after sales were inserted in bulk
+     * @param session The Hibernate session with active transaction
+     */
+    public void rebuild(Session session) {
+        backfill(session, LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31));
+    }
+
+    private int executeAddSales(Session session, LocalDate saleDate, int bookId, double revenue, long units,
+                                long salesCount) {
+        return session.createNamedMutationQuery(DailyBookSales.ADD_SALES_QUERY)
+                .setParameter("revenue", revenue)
+                .setParameter("units", units)
+                .setParameter("salesCount", salesCount)
+                .setParameter("saleDate", saleDate)
+                .setParameter("bookId", bookId)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,85 @@
+package org.bookstore;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.NamedNativeQuery;
+
+@Entity
+@Table(name = "genre_revenues")
+@NamedQuery(name = GenreRevenue.ALL_QUERY, query = "SELECT new org.bookstore.GenreRevenue(genre, revenue, salesCount) " +
+        "FROM GenreRevenue " +
+        "WHERE salesCount > 0 " +
+        "ORDER BY genre")
+@NamedQuery(name = GenreRevenue.REVENUE_QUERY, query = "SELECT revenue FROM GenreRevenue WHERE genre = :genre")
+@NamedNativeQuery(name = GenreRevenue.ADD_REVENUE_QUERY, query = "UPDATE genre_revenues " +
+        "SET revenue = revenue + :revenue, sales_count = sales_count + :salesCount " +
+        "WHERE genre = :genre", querySpaces = "genre_revenues")
+@NamedNativeQuery(name = GenreRevenue.CREATE_QUERY, query = "INSERT INTO genre_revenues (genre, revenue, sales_count) " +
+        "VALUES (:genre, 0, 0) ON CONFLICT DO NOTHING", querySpaces = "genre_revenues")
+@NamedNativeQuery(name = GenreRevenue.CLEAR_QUERY, query = "DELETE FROM genre_revenues",
+        querySpaces = "genre_revenues")
+@NamedNativeQuery(name = GenreRevenue.REBUILD_QUERY, query = "INSERT INTO genre_revenues (genre, revenue, sales_count) " +
+        "SELECT b.genre, SUM(t.revenue), SUM(t.sales_count) " +
+        "FROM (SELECT book_id, SUM(CAST(total_price AS DOUBLE PRECISION)) AS revenue, COUNT(*) AS sales_count " +
+        "FROM sales GROUP BY book_id " +
+        "UNION ALL " +
+        "SELECT book_id, revenue, sales_count FROM archived_book_sales) t " +
+        "INNER JOIN books b ON b.book_id = t.book_id " +
+        "GROUP BY b.genre", querySpaces = "genre_revenues")
+public class GenreRevenue {
+    /**
+     * Revenues of all genres which books were sold, ordered by genre and not managed by the session
+     */
+    public static final String ALL_QUERY = "GenreRevenue.all";
+    /**
+     * Revenue of the genre given as "genre" parameter
+     */
+    public static final String REVENUE_QUERY = "GenreRevenue.revenue";
+    /**
+     * Adds "revenue" and "salesCount" parameters to the genre given as "genre" parameter,
+     * it updates no row if the genre has no row yet
+     */
+    public static final String ADD_REVENUE_QUERY = "GenreRevenue.addRevenue";
+    /**
+     * Creates row of the genre given as "genre" parameter with no revenue, unless the genre already has one
+     */
+    public static final String CREATE_QUERY = "GenreRevenue.create";
+    /**
+     * Deletes revenues of all genres
+     */
+    public static final String CLEAR_QUERY = "GenreRevenue.clear";
+    /**
+     * Inserts revenues of all genres computed from all sales and archived totals, the table should be empty
+     */
+    public static final String REBUILD_QUERY = "GenreRevenue.rebuild";
+
+    @Id
+    @Column(name = "genre", nullable = false)
+    private String genre;
+
+    @Column(name = "revenue", nullable = false)
+    private Double revenue;
+
+    @Column(name = "sales_count", nullable = false)
+    private Long salesCount;
+
+    public GenreRevenue() {
+    }
+
+    public GenreRevenue(String genre, Double revenue, Long salesCount) {
+        this.genre = genre;
+        this.revenue = revenue;
+        this.salesCount = salesCount;
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public Double getRevenue() {
+        return revenue;
+    }
+
+    public Long getSalesCount() {
+        return salesCount;
+    }
+}
@@ -0,0 +1,157 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps revenue of every genre in genre_revenues table, so revenue reports are answered
+ * in time proportional to number of genres instead of number of sales.
+ * Every change has to be made within transaction that changes sales or books it depends on.
+ * Revenue of genres includes archived sales, which are only in archived_book_sales.
+ */
+public class GenreRevenueRollup {
+    private static final double REVENUE_TOLERANCE = 0.01;
+
+    /**
+     * This method adds revenue of new sale to its genre
+     * @param session The Hibernate session with active transaction
+     * @param genre The genre of sold book
+     * @param revenue Total price of the sale
+     */
+    public void addSale(Session session, String genre, double revenue) {
+        addRevenue(session, genre, revenue, 1);
+    }
+
+    /**
+     * This method adds revenue of several new sales to their genre
+     * @param session The Hibernate session with active transaction
+     * @param genre The genre of sold books
+     * @param revenue Total price of the sales
+     * @param salesCount Number of the sales
+     */
+    public void addSales(Session session, String genre, double revenue, long salesCount) {
+        addRevenue(session, genre, revenue, salesCount);
+    }
+
+    /**
+     * This method moves revenue of all sales of the book from its old genre to the new one.
+     * It should be called when genre of the book is changed, after the row of the book was locked
+     * with {@link Book#LOCK_QUERY}, so a concurrent sale of the book, which locks the book when it takes stock,
+     * is either committed and summed or waits until the genre is changed.
+     * Both lock the book and then rows of genres, so they can't deadlock.
+     * @param session The Hibernate session with active transaction
+     * @param bookId The identifier of the book
+     * @param oldGenre The genre book had before
+     * @param newGenre The genre book has now
+     */
+    public void moveBookRevenue(Session session, int bookId, String oldGenre, String newGenre) {
+        Object[] bookRevenue = session.createNamedQuery(Sale.REVENUE_OF_BOOK_QUERY, Object[].class)
+                .setParameter("bookId", bookId)
+                .uniqueResult();
+        long salesCount = (Long) bookRevenue[1];
+        double revenue = salesCount > 0 ? (Double) bookRevenue[0] : 0;
+        ArchivedBookSales archivedSales = session.get(ArchivedBookSales.class, bookId);
+        if (archivedSales != null) {
+            salesCount += archivedSales.getSalesCount();
+            revenue += archivedSales.getRevenue();
+        }
+        if (salesCount == 0) {
+            return;
+        }
+        addRevenue(session, oldGenre, -revenue, -salesCount);
+        addRevenue(session, newGenre, revenue, salesCount);
+    }
+
+    /**
+     * This method gives total revenue of the genre
+     * @param session The Hibernate session
+     * @param genre The genre
+     * @return Total revenue of the genre or 0 if no book of that genre was sold
+     */
+    public double getRevenue(Session session, String genre) {
+        Double revenue = session.createNamedQuery(GenreRevenue.REVENUE_QUERY, Double.class)
+                .setParameter("genre", genre)
+                .uniqueResult();
+        return revenue != null ? revenue : 0;
+    }
+
+    /**
+     * This method gives revenues of all genres which books were sold
+     * @param session The Hibernate session
+     * @return Revenues ordered by genre, they aren't managed by the session
+     */
+    public List<GenreRevenue> getRevenues(Session session) {
+        return session.createNamedQuery(GenreRevenue.ALL_QUERY, GenreRevenue.class).getResultList();
+    }
+
+    /**
+     * This method compares the rollup with revenues recomputed from all sales and archived totals
+     * @param session The Hibernate session
+     * @return Descriptions of genres which rollup differs from recomputed revenue, empty if rollup is consistent
+     */
+    public List<String> verify(Session session) {
+        Map<String, GenreRevenue> rollup = new HashMap<>();
+        for (GenreRevenue genreRevenue : getRevenues(session)) {
+            rollup.put(genreRevenue.getGenre(), genreRevenue);
+        }
+        Map<String, Object[]> expected = new HashMap<>();
+        for (Object[] result : session.createNamedQuery(Sale.REVENUE_BY_GENRE_QUERY, Object[].class).list()) {
+            expected.put((String) result[0], new Object[]{result[1], result[2]});
+        }
+        for (Object[] result : session.createNamedQuery(ArchivedBookSales.REVENUE_BY_GENRE_QUERY, Object[].class)
+                .list()) {
+            expected.merge((String) result[0], new Object[]{result[1], result[2]}, (sales, archived) ->
+                    new Object[]{(Double) sales[0] + (Double) archived[0], (Long) sales[1] + (Long) archived[1]});
+        }
+        List<String> mismatches = new ArrayList<>();
+        for (Map.Entry<String, Object[]> entry : expected.entrySet()) {
+            String genre = entry.getKey();
+            double revenue = (Double) entry.getValue()[0];
+            long salesCount = (Long) entry.getValue()[1];
+            GenreRevenue genreRevenue = rollup.remove(genre);
+            if (genreRevenue == null) {
+                mismatches.add(String.format("Genre %s is missing, expected revenue %f of %d sales",
+                        genre, revenue, salesCount));
+            } else if (genreRevenue.getSalesCount() != salesCount
+                    || Math.abs(genreRevenue.getRevenue() - revenue) > REVENUE_TOLERANCE) {
+                mismatches.add(String.format("Genre %s has revenue %f of %d sales, expected %f of %d sales",
+                        genre, genreRevenue.getRevenue(), genreRevenue.getSalesCount(), revenue, salesCount));
+            }
+        }
+        for (GenreRevenue genreRevenue : rollup.values()) {
+            mismatches.add(String.format("Genre %s has revenue %f of %d sales, but no sales were found",
+                    genreRevenue.getGenre(), genreRevenue.getRevenue(), genreRevenue.getSalesCount()));
+        }
+        return mismatches;
+    }
+
+    /**
+     * This method recomputes the rollup from all sales, it should be used after sales were inserted in bulk
+     * @param session The Hibernate session with active transaction
+     */
+    public void rebuild(Session session) {
+        session.createNamedMutationQuery(GenreRevenue.CLEAR_QUERY).executeUpdate();
+        session.createNamedMutationQuery(GenreRevenue.REBUILD_QUERY).executeUpdate();
+    }
+
+    private void addRevenue(Session session, String genre, double revenue, long salesCount) {
+        if (executeAddRevenue(session, genre, revenue, salesCount) == 0) {
+            session.createNamedMutationQuery(GenreRevenue.CREATE_QUERY)
+                    .setParameter("genre", genre)
+                    .executeUpdate();
+            executeAddRevenue(session, genre, revenue, salesCount);
+        }
+    }
+
+    private int executeAddRevenue(Session session, String genre, double revenue, long salesCount) {
+        return session.createNamedMutationQuery(GenreRevenue.ADD_REVENUE_QUERY)
+                .setParameter("revenue", revenue)
+                .setParameter("salesCount", salesCount)
+                .setParameter("genre", genre)
+                .executeUpdate();
+    }
+}
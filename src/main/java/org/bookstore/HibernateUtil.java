@@ -1,14 +1,65 @@
 package org.bookstore;
 
+import org.flywaydb.core.Flyway;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.JdbcSettings;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 public class HibernateUtil {
+    private static final String POOL_NAME_SETTING = "hibernate.hikari.poolName";
+    private static final String SCHEMA_MIGRATE_SETTING = "bookstore.schema.migrate";
+    private static final String REPLICA_URLS_SETTING = "bookstore.replica.urls";
+    private static final String REPLICA_LAG_QUERY_SETTING = "bookstore.replica.lagQuery";
+    private static final String REPLICA_MAX_LAG_SETTING = "bookstore.replica.maxLagSeconds";
+    private static final String REPLICA_LAG_CHECK_INTERVAL_SETTING = "bookstore.replica.lagCheckIntervalMillis";
+    private static final String SALES_SNAPSHOT_SETTING = "bookstore.salesSnapshot.enabled";
+    private static final String INGESTION_SETTING = "bookstore.ingestion.enabled";
+    private static final String INGESTION_JOURNAL_SETTING = "bookstore.ingestion.journal";
+    private static final String INGESTION_BATCH_SIZE_SETTING = "bookstore.ingestion.batchSize";
+    private static final String INGESTION_FLUSH_INTERVAL_SETTING = "bookstore.ingestion.flushIntervalMillis";
+    private static final String INGESTION_QUEUE_CAPACITY_SETTING = "bookstore.ingestion.queueCapacity";
+    private static final String BESTSELLERS_SETTING = "bookstore.bestsellers.enabled";
+    private static final String BESTSELLERS_SIZE_SETTING = "bookstore.bestsellers.size";
+    private static final String WATCHLIST_SETTING = "bookstore.watchlist.enabled";
+    private static final String WATCHLIST_THRESHOLD_SETTING = "bookstore.watchlist.threshold";
+    private static final String EXPECTED_CUSTOMERS_SETTING = "bookstore.customerEmails.expectedCustomers";
+    private static final String EMAIL_FALSE_POSITIVE_RATE_SETTING = "bookstore.customerEmails.falsePositiveRate";
+    private static final String PARTITIONS_AHEAD_SETTING = "bookstore.sales.partitionsAhead";
+    private static final String FAST_START_SETTING = "bookstore.fastStart";
+    private static final Map<String, Object> FAST_START_SETTINGS = Map.of(
+            AvailableSettings.HBM2DDL_AUTO, "none",
+            SCHEMA_MIGRATE_SETTING, "false",
+            AvailableSettings.QUERY_STARTUP_CHECKING, "false",
+            "hibernate.temp.use_jdbc_metadata_defaults", "false");
+    private static final String DEFAULT_REPLICA_LAG_QUERY = "SELECT CASE " +
+            "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
     private static StandardServiceRegistry registry;
     private static SessionFactory sessionFactory;
+    private static ReplicaRouter replicaRouter;
+    private static SalesSnapshot salesSnapshot;
+    private static SaleIngestion saleIngestion;
+    private static Bestsellers bestsellers;
+    private static StockWatchlist stockWatchlist;
+    private static CustomerDirectory customerDirectory;
 
     /**
      * This method initializes and manages Hibernate configuration and services
@@ -17,12 +68,20 @@ public class HibernateUtil {
     public static SessionFactory getSessionFactory() {
         if (sessionFactory == null) {
             try {
-                registry = new StandardServiceRegistryBuilder().configure().build();
+                registry = configuredRegistryBuilder().build();
+
+                migrateSchema(registry);
 
                 Metadata metadata = new MetadataSources(registry).getMetadataBuilder().build();
 
                 sessionFactory = metadata.getSessionFactoryBuilder().build();
 
+                Metrics.registerMBean();
+
+                replicaRouter = createReplicaRouter(registry, sessionFactory);
+
+                createSalesPartitions(registry, sessionFactory);
+
             } catch (Exception e) {
                 e.printStackTrace();
 
@@ -34,10 +93,287 @@ public class HibernateUtil {
         return sessionFactory;
     }
 
+    /**
+     * This method gives session factory for read-only work such as listings, purchase history and reports.
+     * It is a session factory of a read replica from "bookstore.replica.urls" which replication lag
+     * is within "bookstore.replica.maxLagSeconds", or the primary session factory when there is no such replica.
+     * Second-level cache isn't used by replicas.
+     * @return The Hibernate session factory for read-only work
+     */
+    public static SessionFactory getReadOnlySessionFactory() {
+        getSessionFactory();
+        return replicaRouter == null ? sessionFactory : replicaRouter.choose();
+    }
+
+    /**
+     * This method gives state of read replicas
+     * @return Descriptions of replicas with their lag and availability, empty if there are no replicas
+     */
+    public static List<String> getReplicaStatus() {
+        return replicaRouter == null ? List.of() : replicaRouter.describe();
+    }
+
+    /**
+     * This method gives in-memory snapshot of sales when "bookstore.salesSnapshot.enabled" is true.
+     * The snapshot is loaded from the primary on the first call and follows sales committed
+     * through the session factory afterwards.
+     * @return The snapshot of sales or null if it isn't enabled
+     */
+    public static synchronized SalesSnapshot getSalesSnapshot() {
+        getSessionFactory();
+        if (salesSnapshot == null && registry.getService(ConfigurationService.class)
+                .getSetting(SALES_SNAPSHOT_SETTING, StandardConverters.BOOLEAN, false)) {
+            salesSnapshot = SalesSnapshot.load(sessionFactory);
+        }
+        return salesSnapshot;
+    }
+
+    /**
+     * This method gives live bestsellers when "bookstore.bestsellers.enabled" is true, every list of them
+     * has "bookstore.bestsellers.size" books. They are counted from the primary on the first call
+     * and follow sales committed through the session factory afterwards.
+     * @return The bestsellers or null if they aren't enabled
+     */
+    public static synchronized Bestsellers getBestsellers() {
+        getSessionFactory();
+        ConfigurationService configuration = registry.getService(ConfigurationService.class);
+        if (bestsellers == null && configuration.getSetting(BESTSELLERS_SETTING, StandardConverters.BOOLEAN, false)) {
+            bestsellers = Bestsellers.load(sessionFactory,
+                    configuration.getSetting(BESTSELLERS_SIZE_SETTING, StandardConverters.INTEGER, 10));
+        }
+        return bestsellers;
+    }
+
+    /**
+     * This method gives watchlist of books which quantity in stock is at most "bookstore.watchlist.threshold"
+     * when "bookstore.watchlist.enabled" is true. It is read from the primary on the first call
+     * and follows books and sales committed through the session factory afterwards.
+     * @return The watchlist or null if it isn't enabled
+     */
+    public static synchronized StockWatchlist getStockWatchlist() {
+        getSessionFactory();
+        ConfigurationService configuration = registry.getService(ConfigurationService.class);
+        if (stockWatchlist == null && configuration.getSetting(WATCHLIST_SETTING, StandardConverters.BOOLEAN, false)) {
+            stockWatchlist = StockWatchlist.load(sessionFactory,
+                    configuration.getSetting(WATCHLIST_THRESHOLD_SETTING, StandardConverters.INTEGER, 5));
+        }
+        return stockWatchlist;
+    }
+
+    /**
+     * This method gives directory of customers by email. Filter of their emails is sized for
+     * "bookstore.customerEmails.expectedCustomers" customers and "bookstore.customerEmails.falsePositiveRate",
+     * it is read from the primary on the first call and follows customers committed through the session factory.
+     * @return The directory of customers
+     */
+    public static synchronized CustomerDirectory getCustomerDirectory() {
+        getSessionFactory();
+        if (customerDirectory == null) {
+            ConfigurationService configuration = registry.getService(ConfigurationService.class);
+            customerDirectory = CustomerDirectory.load(sessionFactory,
+                    configuration.getSetting(EXPECTED_CUSTOMERS_SETTING, StandardConverters.INTEGER, 1_000_000),
+                    getEmailFalsePositiveRate());
+        }
+        return customerDirectory;
+    }
+
+    /**
+     * @return False positive rate of filters of customer emails from "bookstore.customerEmails.falsePositiveRate"
+     */
+    static double getEmailFalsePositiveRate() {
+        getSessionFactory();
+        return Double.parseDouble(registry.getService(ConfigurationService.class)
+                .getSetting(EMAIL_FALSE_POSITIVE_RATE_SETTING, StandardConverters.STRING, "0.01"));
+    }
+
+    /**
+     * This method gives write-behind ingestion of sales when "bookstore.ingestion.enabled" is true.
+     * It is started on the first call, after sales left in its journal by previous run are committed.
+     * @return The ingestion of sales or null if it isn't enabled
+     */
+    public static synchronized SaleIngestion getSaleIngestion() {
+        getSessionFactory();
+        ConfigurationService configuration = registry.getService(ConfigurationService.class);
+        if (saleIngestion == null && configuration.getSetting(INGESTION_SETTING, StandardConverters.BOOLEAN, false)) {
+            try {
+                saleIngestion = SaleIngestion.start(sessionFactory,
+                        Path.of(configuration.getSetting(INGESTION_JOURNAL_SETTING, StandardConverters.STRING,
+                                "sales.journal")),
+                        configuration.getSetting(INGESTION_BATCH_SIZE_SETTING, StandardConverters.INTEGER, 200),
+                        configuration.getSetting(INGESTION_FLUSH_INTERVAL_SETTING, StandardConverters.INTEGER, 5),
+                        configuration.getSetting(INGESTION_QUEUE_CAPACITY_SETTING, StandardConverters.INTEGER,
+                                10_000));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return saleIngestion;
+    }
+
+    /**
+     * This method gives metrics of the connection pool used by session factory
+     * @return Snapshot of pool metrics or null if pool wasn't started yet
+     */
+    public static PoolMetrics.Snapshot getPoolMetrics() {
+        if (registry == null) {
+            return null;
+        }
+        Object poolName = registry.getService(ConfigurationService.class).getSettings().get(POOL_NAME_SETTING);
+        return poolName == null ? null : PoolMetrics.snapshot(poolName.toString());
+    }
+
+    /**
+     * This method gives integer setting of hibernate.cfg.xml or of system property that overrides it
+     * @param name The name of the setting
+     * @param defaultValue The value used when setting isn't given
+     * @return Value of the setting
+     */
+    public static int getSetting(String name, int defaultValue) {
+        getSessionFactory();
+        return registry.getService(ConfigurationService.class)
+                .getSetting(name, StandardConverters.INTEGER, defaultValue);
+    }
+
+    /**
+     * This method gives string setting of hibernate.cfg.xml or of system property that overrides it
+     * @param name The name of the setting
+     * @param defaultValue The value used when setting isn't given
+     * @return Value of the setting
+     */
+    public static String getSetting(String name, String defaultValue) {
+        getSessionFactory();
+        return registry.getService(ConfigurationService.class)
+                .getSetting(name, StandardConverters.STRING, defaultValue);
+    }
+
+    /**
+     * This method creates partitions of sales of the current month and of "bookstore.sales.partitionsAhead"
+     * following months that don't exist yet. Failure is reported but doesn't stop startup,
+     * as sales of months without partition still go to the default partition.
+     * @param registry The service registry
+     * @param sessionFactory The session factory of the primary
+     */
+    private static void createSalesPartitions(StandardServiceRegistry registry, SessionFactory sessionFactory) {
+        int monthsAhead = registry.getService(ConfigurationService.class)
+                .getSetting(PARTITIONS_AHEAD_SETTING, StandardConverters.INTEGER, 3);
+        try {
+            new UnitOfWork(sessionFactory).run(session ->
+                    new SalesPartitions().createPartitions(session, LocalDate.now(), monthsAhead));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * This method builds session factories of read replicas. They use the same settings as the primary,
+     * except for connection URL and pool name, their connections are read-only, and they neither migrate
+     * schema nor use second-level cache. Replicas that can't be started are left out.
+     * @param registry The service registry of the primary
+     * @param primary The session factory of the primary
+     * @return Router between replicas and the primary
+     */
+    private static ReplicaRouter createReplicaRouter(StandardServiceRegistry registry, SessionFactory primary) {
+        ConfigurationService configuration = registry.getService(ConfigurationService.class);
+        String poolName = configuration.getSetting(POOL_NAME_SETTING, StandardConverters.STRING, "bookstore");
+        String[] urls = configuration.getSetting(REPLICA_URLS_SETTING, StandardConverters.STRING, "").split(",");
+        List<ReplicaRouter.Replica> replicas = new ArrayList<>();
+        for (int i = 0; i < urls.length; i++) {
+            String url = urls[i].trim();
+            if (url.isEmpty()) {
+                continue;
+            }
+            StandardServiceRegistry replicaRegistry = null;
+            try {
+                replicaRegistry = configuredRegistryBuilder()
+                        .applySetting(JdbcSettings.JAKARTA_JDBC_URL, url)
+                        .applySetting(POOL_NAME_SETTING, poolName + "-replica-" + (i + 1))
+                        .applySetting("hibernate.hikari.readOnly", "true")
+                        .applySetting(SCHEMA_MIGRATE_SETTING, "false")
+                        .applySetting(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false")
+                        .applySetting(AvailableSettings.USE_QUERY_CACHE, "false")
+                        .build();
+                SessionFactory replicaSessionFactory = new MetadataSources(replicaRegistry).getMetadataBuilder()
+                        .build()
+                        .getSessionFactoryBuilder()
+                        .build();
+                replicas.add(new ReplicaRouter.Replica(url, replicaRegistry, replicaSessionFactory));
+            } catch (Exception e) {
+                System.out.println("Replica " + url + " can't be used, read-only work goes to other databases.");
+                e.printStackTrace();
+                if (replicaRegistry != null) {
+                    StandardServiceRegistryBuilder.destroy(replicaRegistry);
+                }
+            }
+        }
+        return new ReplicaRouter(primary, replicas,
+                configuration.getSetting(REPLICA_LAG_QUERY_SETTING, StandardConverters.STRING, DEFAULT_REPLICA_LAG_QUERY),
+                configuration.getSetting(REPLICA_MAX_LAG_SETTING, StandardConverters.INTEGER, 10),
+                configuration.getSetting(REPLICA_LAG_CHECK_INTERVAL_SETTING, StandardConverters.INTEGER, 1000));
+    }
+
+    /**
+     * This method brings database schema to the latest version with migrations from db/migration.
+     * Databases that were created by hbm2ddl before migrations existed are baselined at version 1.
+     * Migrations are locked with a session advisory lock instead of one held by an open transaction,
+     * since CREATE INDEX CONCURRENTLY waits for every open transaction and would wait for the lock forever.
+     * @param registry The service registry which connection provider is used
+     */
+    private static void migrateSchema(StandardServiceRegistry registry) {
+        ConfigurationService configuration = registry.getService(ConfigurationService.class);
+        if (!configuration.getSetting(SCHEMA_MIGRATE_SETTING, StandardConverters.BOOLEAN, false)) {
+            return;
+        }
+        DataSource dataSource = registry.getService(ConnectionProvider.class).unwrap(DataSource.class);
+        Flyway.configure()
+                .dataSource(dataSource)
+                .configuration(Map.of("flyway.postgresql.transactional.lock", "false"))
+                .baselineOnMigrate(true)
+                .baselineVersion("1")
+                .load()
+                .migrate();
+    }
+
+    /**
+     * This method gives registry builder with settings of hibernate.cfg.xml overridden by system properties.
+     * When "bookstore.fastStart" is true, schema is neither migrated nor validated, named queries aren't checked
+     * and database isn't asked for its metadata, so the first query runs sooner. Schema and queries
+     * should then be checked once per deployment with "startup-check" command.
+     * @return Configured registry builder
+     */
+    private static StandardServiceRegistryBuilder configuredRegistryBuilder() {
+        StandardServiceRegistryBuilder builder = new StandardServiceRegistryBuilder().configure()
+                .applySettings(hibernateSystemProperties());
+        if (Boolean.parseBoolean(String.valueOf(builder.getSettings().get(FAST_START_SETTING)))) {
+            builder.applySettings(FAST_START_SETTINGS);
+        }
+        return builder;
+    }
+
+    /**
+     * Settings given as "hibernate.*" or "bookstore.*" system properties override the ones from hibernate.cfg.xml,
+     * for example -Dhibernate.hikari.maximumPoolSize=32
+     * @return System properties which names start with "hibernate." or "bookstore."
+     */
+    private static Properties hibernateSystemProperties() {
+        Properties properties = new Properties();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("hibernate.") || name.startsWith("bookstore.")) {
+                properties.setProperty(name, System.getProperty(name));
+            }
+        }
+        return properties;
+    }
+
     /**
      * When the application is shutting down this method should be called to release resources
      */
     public static void shutdown() {
+        if (saleIngestion != null) {
+            saleIngestion.close();
+        }
+        if (replicaRouter != null) {
+            replicaRouter.close();
+        }
         if (registry != null) {
             StandardServiceRegistryBuilder.destroy(registry);
         }
@@ -0,0 +1,103 @@
+package org.bookstore;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts executions and errors of named operations and keeps histograms of their latencies.
+ * Latencies are recorded in microseconds with two significant digits, up to ten minutes,
+ * so every histogram takes a few dozens of kilobytes regardless of number of recorded values.
+ */
+public class LatencyMetrics {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    /**
+     * Name under which executions of operations are recorded once there are histograms of as many names as allowed
+     */
+    public static final String OTHER_NAME = "(other)";
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final int maxNames;
+
+    public LatencyMetrics() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxNames Maximal number of operations that get their own histogram, executions of other operations
+     *                 are recorded together under {@link #OTHER_NAME}
+     */
+    public LatencyMetrics(int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    /**
+     * This method records one execution of the operation
+     * @param name The name of the operation
+     * @param elapsedNanos Time the operation took in nanoseconds
+     * @param failed Whether the operation finished with error
+     */
+    public void record(String name, long elapsedNanos, boolean failed) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            String timerName = timers.size() < maxNames ? name : OTHER_NAME;
+            timer = timers.computeIfAbsent(timerName, key -> new Timer());
+        }
+        timer.record(elapsedNanos, failed);
+    }
+
+    /**
+     * This method gives current metrics of all operations that were recorded
+     * @return Snapshots of metrics ordered by name of operation
+     */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshots = new TreeMap<>();
+        timers.forEach((name, timer) -> snapshots.put(name, timer.snapshot()));
+        return snapshots;
+    }
+
+    /**
+     * This method forgets all recorded executions
+     */
+    public void reset() {
+        timers.clear();
+    }
+
+    public record Snapshot(long count, long errors, double p50Millis, double p95Millis, double p99Millis,
+                           double maxMillis) {
+        @Override
+        public String toString() {
+            return String.format("count: %d, errors: %d, p50: %.3f ms, p95: %.3f ms, p99: %.3f ms, max: %.3f ms",
+                    count, errors, p50Millis, p95Millis, p99Millis, maxMillis);
+        }
+    }
+
+    private static class Timer {
+        private final Histogram histogram = new ConcurrentHistogram(1, HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final LongAdder errors = new LongAdder();
+
+        private void record(long elapsedNanos, boolean failed) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+            histogram.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        private Snapshot snapshot() {
+            double microsInMillisecond = TimeUnit.MILLISECONDS.toMicros(1);
+            return new Snapshot(histogram.getTotalCount(), errors.sum(),
+                    histogram.getValueAtPercentile(50) / microsInMillisecond,
+                    histogram.getValueAtPercentile(95) / microsInMillisecond,
+                    histogram.getValueAtPercentile(99) / microsInMillisecond,
+                    histogram.getMaxValue() / microsInMillisecond);
+        }
+    }
+}
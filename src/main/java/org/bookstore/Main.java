@@ -1,8 +1,132 @@
 package org.bookstore;
 
+import org.hibernate.SessionFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("import")) {
+            BulkImporter.ImportType type = BulkImporter.ImportType.valueOf(args[1].toUpperCase());
+            try {
+                new BulkImporter(HibernateUtil.getSessionFactory(), HibernateUtil.getEmailFalsePositiveRate())
+                        .importFile(type, Path.of(args[2]));
+            } finally {
+                HibernateUtil.shutdown();
+            }
+            return;
+        }
+        if (args.length == 1 && args[0].equals("startup-check")) {
+            System.exit(startupCheck() ? 0 : 1);
+        }
+        if (args.length == 1 && args[0].equals("archive-sales")) {
+            try {
+                for (SalesArchive archive : maintainSales()) {
+                    System.out.printf("Archived %d sales of %s to %s, revenue %.2f%n", archive.getSalesCount(),
+                            archive.getFromDate(), archive.getFileName(), archive.getRevenue());
+                }
+            } finally {
+                HibernateUtil.shutdown();
+            }
+            return;
+        }
+        if (args.length == 1 && args[0].equals("serve")) {
+            serve();
+            return;
+        }
         ConsoleApp consoleApp = new ConsoleApp();
         consoleApp.run();
     }
-}
\ No newline at end of file
+
+    /**
+     * This method migrates and validates schema and checks all named queries against the mapping,
+     * regardless of "bookstore.fastStart", and runs the first query. It is meant to be run once per deployment,
+     * so that the application itself can be started in fast-start mode, and as the training run of AppCDS archive.
+     * @return Whether schema and named queries are valid
+     */
+    private static boolean startupCheck() {
+        long startTime = System.nanoTime();
+        System.setProperty("bookstore.fastStart", "false");
+        try {
+            SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+            if (sessionFactory == null) {
+                System.out.println("Startup check failed, database can't be reached " +
+                        "or schema or named queries don't match the mapping.");
+                return false;
+            }
+            sessionFactory.inSession(session -> session.createNamedQuery(GenreRevenue.ALL_QUERY, GenreRevenue.class)
+                    .setMaxResults(1)
+                    .list());
+            System.out.printf("Schema and named queries are valid, the first query finished after %d ms.%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            return true;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            System.out.println("Startup check failed, the first query can't be run.");
+            return false;
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    /**
+     * This method starts HTTP API, it is configured with "bookstore.http.*" settings
+     * and stops when the process is terminated
+     * @throws IOException If the port can't be bound
+     */
+    private static void serve() throws IOException {
+        SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+        BookstoreServer server = new BookstoreServer(sessionFactory, HibernateUtil::getReadOnlySessionFactory,
+                HibernateUtil.getSetting("bookstore.http.port", 8080),
+                HibernateUtil.getSetting("bookstore.http.threads", 64),
+                HibernateUtil.getSetting("bookstore.http.queueCapacity", 10_000),
+                HibernateUtil.getSetting("hibernate.hikari.maximumPoolSize", 10),
+                HibernateUtil.getSetting("bookstore.http.databaseTimeoutMillis", 1000));
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sales-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                maintainSales();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 1, 1, TimeUnit.DAYS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            maintenance.shutdownNow();
+            server.stop(5);
+            HibernateUtil.shutdown();
+        }));
+        server.start();
+        System.out.println("Bookstore API is listening on port " + server.getPort());
+    }
+
+    /**
+     * This method creates partitions of sales for "bookstore.sales.partitionsAhead" months and archives
+     * months older than "bookstore.sales.retentionMonths" full months to "bookstore.sales.archiveDirectory".
+     * Nothing is archived when retention is 0.
+     * @return Archived months
+     * @throws IOException If the archive directory can't be created
+     */
+    private static List<SalesArchive> maintainSales() throws IOException {
+        SalesPartitions salesPartitions = new SalesPartitions();
+        UnitOfWork unitOfWork = new UnitOfWork(HibernateUtil.getSessionFactory());
+        LocalDate today = LocalDate.now();
+        unitOfWork.run(session -> salesPartitions.createPartitions(session, today,
+                HibernateUtil.getSetting("bookstore.sales.partitionsAhead", 3)));
+        int retentionMonths = HibernateUtil.getSetting("bookstore.sales.retentionMonths", 0);
+        if (retentionMonths <= 0) {
+            return List.of();
+        }
+        return salesPartitions.archive(unitOfWork, today.withDayOfMonth(1).minusMonths(retentionMonths),
+                Path.of(HibernateUtil.getSetting("bookstore.sales.archiveDirectory", "sales-archive")));
+    }
+}
@@ -0,0 +1,96 @@
+package org.bookstore;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects latencies and numbers of SQL statements of console actions
+ * and publishes them in JMX together with latencies of queries and metrics of the connection pool.
+ */
+public class Metrics implements MetricsMXBean {
+    private static final String OBJECT_NAME = "org.bookstore:type=Metrics";
+
+    private static final LatencyMetrics actions = new LatencyMetrics();
+    private static final Map<String, LongAdder> actionStatements = new ConcurrentHashMap<>();
+
+    /**
+     * This method records one execution of the action
+     * @param action The name of the action
+     * @param elapsedNanos Time the action took in nanoseconds
+     * @param statements Number of SQL statements the action executed
+     * @param failed Whether the action finished with error
+     */
+    public static void recordAction(String action, long elapsedNanos, long statements, boolean failed) {
+        actions.record(action, elapsedNanos, failed);
+        actionStatements.computeIfAbsent(action, key -> new LongAdder()).add(statements);
+    }
+
+    /**
+     * This method gives current latencies of all executed actions
+     * @return Snapshots of metrics ordered by name of action
+     */
+    public static Map<String, LatencyMetrics.Snapshot> actionSnapshot() {
+        return actions.snapshot();
+    }
+
+    /**
+     * This method gives average number of SQL statements executed by the action
+     * @param action The name of the action
+     * @param snapshot Metrics of the action
+     * @return Statements per execution or 0 if action wasn't executed
+     */
+    public static double statementsPerExecution(String action, LatencyMetrics.Snapshot snapshot) {
+        LongAdder statements = actionStatements.get(action);
+        return statements == null || snapshot.count() == 0 ? 0 : (double) statements.sum() / snapshot.count();
+    }
+
+    /**
+     * This method registers metrics in platform MBean server, it does nothing if they are already registered
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Metrics(), name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Map<String, String> getActionLatencies() {
+        Map<String, String> latencies = new LinkedHashMap<>();
+        actionSnapshot().forEach((action, snapshot) -> latencies.put(action,
+                String.format("%s, statements per execution: %.1f", snapshot,
+                        statementsPerExecution(action, snapshot))));
+        return latencies;
+    }
+
+    @Override
+    public Map<String, String> getQueryLatencies() {
+        Map<String, String> latencies = new LinkedHashMap<>();
+        QueryMetrics.snapshot().forEach((query, snapshot) -> latencies.put(query, snapshot.toString()));
+        return latencies;
+    }
+
+    @Override
+    public String getConnectionPool() {
+        PoolMetrics.Snapshot snapshot = HibernateUtil.getPoolMetrics();
+        return snapshot == null ? "" : snapshot.toString();
+    }
+
+    @Override
+    public void reset() {
+        actions.reset();
+        actionStatements.clear();
+        QueryMetrics.reset();
+    }
+}
@@ -0,0 +1,28 @@
+package org.bookstore;
+
+import java.util.Map;
+
+/**
+ * Metrics of the bookstore available in JMX as "org.bookstore:type=Metrics"
+ */
+public interface MetricsMXBean {
+    /**
+     * @return Latencies of console actions by name of action
+     */
+    Map<String, String> getActionLatencies();
+
+    /**
+     * @return Latencies of queries by query string
+     */
+    Map<String, String> getQueryLatencies();
+
+    /**
+     * @return Current state of the connection pool
+     */
+    String getConnectionPool();
+
+    /**
+     * This method forgets latencies of all actions and queries
+     */
+    void reset();
+}
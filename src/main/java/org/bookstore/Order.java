@@ -0,0 +1,68 @@
+package org.bookstore;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Books bought by a customer at once, every book of the order is recorded as a sale that refers to it
+ */
+@Entity
+@Table(name = "orders")
+public class Order {
+    @Id
+    @Column(name = "order_id", nullable = false)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
+    private Integer orderID;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "customer_id", nullable = false)
+    private Customer customer;
+    @Column(name = "date_of_order", nullable = false)
+    private LocalDate dateOfOrder;
+    @Column(name = "total_price", nullable = false, columnDefinition = "REAL CHECK (total_price >= 0)")
+    private Float totalPrice;
+    @OneToMany(mappedBy = "order")
+    private List<Sale> sales = new ArrayList<>();
+
+    public Order() {
+    }
+
+    public Order(Customer customer, LocalDate dateOfOrder) {
+        this.customer = customer;
+        this.dateOfOrder = dateOfOrder;
+        this.totalPrice = 0f;
+    }
+
+    /**
+     * This method adds the sale to the order and its total price to total price of the order
+     * @param sale The sale of one book of the order
+     */
+    public void addSale(Sale sale) {
+        sale.setOrder(this);
+        sales.add(sale);
+        totalPrice += sale.getTotalPrice();
+    }
+
+    public Integer getOrderID() {
+        return orderID;
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public LocalDate getDateOfOrder() {
+        return dateOfOrder;
+    }
+
+    public Float getTotalPrice() {
+        return totalPrice;
+    }
+
+    public List<Sale> getSales() {
+        return sales;
+    }
+}
@@ -0,0 +1,80 @@
+package org.bookstore;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects metrics of HikariCP connection pools.
+ * Pool creates it from the "hibernate.hikari.metricsTrackerFactory" property in hibernate.cfg.xml.
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+    private static final Map<String, Tracker> trackers = new ConcurrentHashMap<>();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        Tracker tracker = new Tracker(poolStats);
+        trackers.put(poolName, tracker);
+        return tracker;
+    }
+
+    /**
+     * This method gives current state of the pool with given name
+     * @param poolName The name of the pool
+     * @return Snapshot of pool metrics or null if there is no pool with given name
+     */
+    public static Snapshot snapshot(String poolName) {
+        Tracker tracker = trackers.get(poolName);
+        return tracker == null ? null : tracker.snapshot();
+    }
+
+    public record Snapshot(int activeConnections, int idleConnections, int totalConnections, int waitingThreads,
+                           long acquisitions, double averageAcquireMillis, double maxAcquireMillis, long timeouts) {
+        @Override
+        public String toString() {
+            return String.format("active: %d, idle: %d, total: %d, waiting threads: %d, acquisitions: %d, " +
+                            "average acquire: %.3f ms, max acquire: %.3f ms, timeouts: %d",
+                    activeConnections, idleConnections, totalConnections, waitingThreads,
+                    acquisitions, averageAcquireMillis, maxAcquireMillis, timeouts);
+        }
+    }
+
+    private static class Tracker implements IMetricsTracker {
+        private final PoolStats poolStats;
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder acquireNanos = new LongAdder();
+        private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder timeouts = new LongAdder();
+
+        private Tracker(PoolStats poolStats) {
+            this.poolStats = poolStats;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquisitions.increment();
+            acquireNanos.add(elapsedAcquiredNanos);
+            maxAcquireNanos.accumulate(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+
+        private Snapshot snapshot() {
+            long count = acquisitions.sum();
+            double nanosInMillisecond = TimeUnit.MILLISECONDS.toNanos(1);
+            double average = count == 0 ? 0 : acquireNanos.sum() / nanosInMillisecond / count;
+            return new Snapshot(poolStats.getActiveConnections(), poolStats.getIdleConnections(),
+                    poolStats.getTotalConnections(), poolStats.getPendingThreads(),
+                    count, average, maxAcquireNanos.get() / nanosInMillisecond, timeouts.sum());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.bookstore;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Collects latencies of SQL statements and counts of SQL statements.
+ * Latencies are recorded in nanoseconds by {@link TimedConnectionProvider} for every statement executed
+ * through its connections. Hibernate creates this class from the "hibernate.session_factory.statement_inspector"
+ * property in hibernate.cfg.xml to count statements prepared by each thread.
+ * Statements that differ only in number of parameters of IN lists are recorded as one query,
+ * and only a limited number of queries get their own histogram.
+ */
+public class QueryMetrics implements StatementInspector {
+    private static final int MAX_QUERIES = 500;
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final String IN_LIST_REPLACEMENT = "IN (?...)";
+
+    private static final LatencyMetrics queries = new LatencyMetrics(MAX_QUERIES);
+    private static final ThreadLocal<long[]> statementCount = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public String inspect(String sql) {
+        statementCount.get()[0]++;
+        return sql;
+    }
+
+    /**
+     * This method gives number of SQL statements prepared by current thread since it was started,
+     * difference of two calls gives number of statements executed between them
+     * @return Number of statements
+     */
+    public static long statementCount() {
+        return statementCount.get()[0];
+    }
+
+    /**
+     * This method records one execution of the SQL statement
+     * @param sql The SQL of the statement
+     * @param elapsedNanos Time the execution took in nanoseconds
+     * @param failed Whether the execution threw exception
+     */
+    static void recordStatement(String sql, long elapsedNanos, boolean failed) {
+        queries.record(normalize(sql), elapsedNanos, failed);
+    }
+
+    /**
+     * This method replaces every IN list of parameters with "IN (?...)", so queries with lists of any length
+     * are recorded under the same SQL
+     * @param sql The SQL of the statement
+     * @return The SQL with collapsed IN lists
+     */
+    static String normalize(String sql) {
+        if (sql.indexOf('?') < 0) {
+            return sql;
+        }
+        return IN_LIST.matcher(sql).replaceAll(IN_LIST_REPLACEMENT);
+    }
+
+    /**
+     * This method gives current latencies of all executed queries
+     * @return Snapshots of metrics ordered by query string
+     */
+    public static Map<String, LatencyMetrics.Snapshot> snapshot() {
+        return queries.snapshot();
+    }
+
+    /**
+     * This method forgets latencies of all executed queries
+     */
+    public static void reset() {
+        queries.reset();
+    }
+}
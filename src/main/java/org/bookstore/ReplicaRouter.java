@@ -0,0 +1,128 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses session factory for read-only work. Replication lag of every replica is checked periodically
+ * with the lag query, replicas that lag more than the tolerance or can't be queried aren't chosen
+ * until they catch up. Work is spread over available replicas in turn, and goes to the primary
+ * when none of them is available.
+ */
+class ReplicaRouter {
+    private final SessionFactory primary;
+    private final List<Replica> replicas;
+    private final String lagQuery;
+    private final double maxLagSeconds;
+    private final ScheduledExecutorService lagChecker;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    /**
+     * @param primary The session factory of the primary database
+     * @param replicas Session factories of replicas and registries they were built from
+     * @param lagQuery Query that gives replication lag of a replica in seconds
+     * @param maxLagSeconds Maximal lag of replica that can be chosen
+     * @param lagCheckIntervalMillis Time between checks of lag
+     */
+    ReplicaRouter(SessionFactory primary, List<Replica> replicas, String lagQuery, double maxLagSeconds,
+                  long lagCheckIntervalMillis) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.lagQuery = lagQuery;
+        this.maxLagSeconds = maxLagSeconds;
+        checkLag();
+        if (replicas.isEmpty()) {
+            this.lagChecker = null;
+            return;
+        }
+        this.lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagChecker.scheduleWithFixedDelay(this::checkLag, lagCheckIntervalMillis, lagCheckIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method gives session factory of the next available replica, or of the primary if there is none
+     * @return The session factory for read-only work
+     */
+    SessionFactory choose() {
+        int replicaCount = replicas.size();
+        int first = Math.floorMod(nextReplica.getAndIncrement(), Math.max(replicaCount, 1));
+        for (int i = 0; i < replicaCount; i++) {
+            Replica replica = replicas.get((first + i) % replicaCount);
+            if (replica.available) {
+                return replica.sessionFactory;
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * This method gives state of all replicas
+     * @return Descriptions of replicas with their lag and availability
+     */
+    List<String> describe() {
+        List<String> descriptions = new ArrayList<>();
+        for (Replica replica : replicas) {
+            descriptions.add(String.format("%s: lag %.1f s, %s", replica.url, replica.lagSeconds,
+                    replica.available ? "available" : "not available"));
+        }
+        return descriptions;
+    }
+
+    void close() {
+        if (lagChecker != null) {
+            lagChecker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.sessionFactory.close();
+            StandardServiceRegistryBuilder.destroy(replica.registry);
+        }
+    }
+
+    private void checkLag() {
+        for (Replica replica : replicas) {
+            try (Session session = replica.sessionFactory.openSession()) {
+                double lagSeconds = session.doReturningWork(connection -> {
+                    try (Statement statement = connection.createStatement();
+                         ResultSet resultSet = statement.executeQuery(lagQuery)) {
+                        resultSet.next();
+                        return resultSet.getDouble(1);
+                    }
+                });
+                replica.lagSeconds = lagSeconds;
+                replica.available = lagSeconds <= maxLagSeconds;
+            } catch (RuntimeException e) {
+                replica.available = false;
+            }
+        }
+    }
+
+    static class Replica {
+        private final String url;
+        private final StandardServiceRegistry registry;
+        private final SessionFactory sessionFactory;
+        private volatile boolean available;
+        private volatile double lagSeconds;
+
+        Replica(String url, StandardServiceRegistry registry, SessionFactory sessionFactory) {
+            this.url = url;
+            this.registry = registry;
+            this.sessionFactory = sessionFactory;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Writes reports to files as CSV or in a compact columnar binary format. Rows are encoded straight into
+ * a direct buffer which is written to a file channel when it is full, so rows aren't kept in memory
+ * and every write is one large system call without copying through a heap buffer.
+ * <p>
+ * Columnar files start with magic "BKCOL", format version byte 1, number of columns as int and, for every column,
+ * type byte ({@link ColumnType#ordinal()}), name length as short and UTF-8 name. Then follow blocks of up to
+ * {@value #BLOCK_ROWS} rows, every block starts with number of rows as int and holds every column as byte length
+ * as int followed by its values. Longs are int64, doubles are float64, dates are int32 epoch days and strings are
+ * dictionary encoded: number of distinct strings of the block as int, every string as length and UTF-8 bytes,
+ * then index into the dictionary for every row as int32. Null is Integer.MIN_VALUE for dates, -1 for strings
+ * and NaN for doubles. The file ends with a block of 0 rows. All numbers are big-endian.
+ */
+public class ReportExporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BLOCK_ROWS = 1 << 16;
+    private static final byte[] COLUMNAR_MAGIC = "BKCOL".getBytes(StandardCharsets.US_ASCII);
+    private static final byte COLUMNAR_VERSION = 1;
+    private static final int NULL_DATE = Integer.MIN_VALUE;
+    private static final int NULL_STRING = -1;
+
+    private static final List<Column> SOLD_BOOKS_COLUMNS = List.of(new Column("book_title", ColumnType.STRING),
+            new Column("customer_name", ColumnType.STRING), new Column("date_of_sale", ColumnType.DATE));
+    private static final List<Column> GENRE_REVENUES_COLUMNS = List.of(new Column("genre", ColumnType.STRING),
+            new Column("revenue", ColumnType.DOUBLE));
+    private static final List<Column> SALES_COLUMNS = List.of(new Column("period", ColumnType.DATE),
+            new Column("name", ColumnType.STRING), new Column("revenue", ColumnType.DOUBLE),
+            new Column("units", ColumnType.LONG), new Column("sales_count", ColumnType.LONG));
+
+    public enum Format {
+        CSV("csv"),
+        COLUMNAR("bcol");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    public enum ColumnType {
+        STRING,
+        DATE,
+        DOUBLE,
+        LONG
+    }
+
+    public record Column(String name, ColumnType type) {
+    }
+
+    /**
+     * @param files Written files, one for every part
+     * @param rowCount Number of written rows
+     * @param byteCount Number of written bytes
+     */
+    public record ExportResult(List<Path> files, long rowCount, long byteCount) {
+    }
+
+    /**
+     * Source of rows of a report which gives every row to the consumer and returns number of rows
+     */
+    @FunctionalInterface
+    public interface RowSource {
+        long stream(Consumer<Object[]> rowConsumer);
+    }
+
+    private final BookstoreService bookstoreService;
+
+    public ReportExporter(BookstoreService bookstoreService) {
+        this.bookstoreService = bookstoreService;
+    }
+
+    /**
+     * This method writes title of the book, name of the customer and date of every sale to files.
+     * Bounds of all parts are computed once before they are written, then every part of sales is streamed
+     * from the database or from the snapshot of sales by its own thread into its own file, so the number of parts
+     * shouldn't be larger than the number of connections in the pool.
+     * @param sessionFactory The Hibernate session factory
+     * @param file The file of the report, with one part its name is used as is, otherwise ".part-N" is added
+     *             before extension of every part
+     * @param format The format of files
+     * @param parts Number of parts
+     * @return Written files and number of rows and bytes in all of them
+     * @throws IOException If a file can't be written
+     */
+    public ExportResult exportSoldBooks(SessionFactory sessionFactory, Path file, Format format, int parts)
+            throws IOException {
+        if (parts == 1) {
+            return export(file, format, SOLD_BOOKS_COLUMNS, rowConsumer ->
+                    bookstoreService.streamSoldBooks(sessionFactory, rowConsumer));
+        }
+        List<BookstoreService.SoldBooksPart> soldBooksParts = bookstoreService.splitSoldBooks(sessionFactory, parts);
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try {
+            List<Future<ExportResult>> futures = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                int part = i;
+                BookstoreService.SoldBooksPart soldBooksPart = soldBooksParts.get(part);
+                futures.add(executor.submit(() -> export(partFile(file, part), format, SOLD_BOOKS_COLUMNS,
+                        rowConsumer -> bookstoreService.streamSoldBooks(sessionFactory, soldBooksPart, rowConsumer))));
+            }
+            List<Path> files = new ArrayList<>();
+            long rowCount = 0;
+            long byteCount = 0;
+            for (Future<ExportResult> future : futures) {
+                ExportResult result = future.get();
+                files.addAll(result.files());
+                rowCount += result.rowCount();
+                byteCount += result.byteCount();
+            }
+            return new ExportResult(files, rowCount, byteCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * This method writes genre and revenue of every genre to the file
+     * @param genreRevenues Revenues of genres
+     * @param file The file of the report
+     * @param format The format of the file
+     * @return Written file and number of rows and bytes in it
+     * @throws IOException If the file can't be written
+     */
+    public ExportResult exportGenreRevenues(List<GenreRevenue> genreRevenues, Path file, Format format)
+            throws IOException {
+        return export(file, format, GENRE_REVENUES_COLUMNS, rowConsumer -> {
+            Object[] row = new Object[2];
+            for (GenreRevenue genreRevenue : genreRevenues) {
+                row[0] = genreRevenue.getGenre();
+                row[1] = genreRevenue.getRevenue();
+                rowConsumer.accept(row);
+            }
+            return genreRevenues.size();
+        });
+    }
+
+    /**
+     * This method writes period, name, revenue, units and number of sales of every group of sales to the file
+     * @param sales Sales of groups in periods
+     * @param file The file of the report
+     * @param format The format of the file
+     * @return Written file and number of rows and bytes in it
+     * @throws IOException If the file can't be written
+     */
+    public ExportResult exportSales(List<DailySalesRollup.PeriodSales> sales, Path file, Format format)
+            throws IOException {
+        return export(file, format, SALES_COLUMNS, rowConsumer -> {
+            Object[] row = new Object[5];
+            for (DailySalesRollup.PeriodSales periodSales : sales) {
+                row[0] = periodSales.period();
+                row[1] = periodSales.name();
+                row[2] = periodSales.revenue();
+                row[3] = periodSales.units();
+                row[4] = periodSales.salesCount();
+                rowConsumer.accept(row);
+            }
+            return sales.size();
+        });
+    }
+
+    /**
+     * This method writes rows given by the source to the file. Row arrays may be reused by the source.
+     * @param file The file, it is replaced if it exists
+     * @param format The format of the file
+     * @param columns Names and types of values of rows
+     * @param rowSource The source of rows
+     * @return Written file and number of rows and bytes in it
+     * @throws IOException If the file can't be written
+     */
+    public static ExportResult export(Path file, Format format, List<Column> columns, RowSource rowSource)
+            throws IOException {
+        try (RowWriter writer = format == Format.CSV
+                ? new CsvWriter(file, columns)
+                : new ColumnarWriter(file, columns)) {
+            long rowCount;
+            try {
+                rowCount = rowSource.stream(writer::write);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+            return new ExportResult(List.of(file), rowCount, writer.getByteCount());
+        }
+    }
+
+    private static Path partFile(Path file, int part) {
+        String name = file.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        String partName = extension > 0
+                ? name.substring(0, extension) + ".part-" + part + name.substring(extension)
+                : name + ".part-" + part;
+        return file.resolveSibling(partName);
+    }
+
+    /**
+     * Encodes rows into a direct buffer and writes it to the file channel whenever it is full
+     */
+    private abstract static class RowWriter implements Closeable {
+        protected final List<Column> columns;
+        private final FileChannel channel;
+        protected final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long byteCount;
+
+        RowWriter(Path file, List<Column> columns) throws IOException {
+            this.columns = columns;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        /**
+         * @throws UncheckedIOException If the file can't be written
+         */
+        abstract void write(Object[] row);
+
+        /**
+         * This method writes everything that is still buffered
+         */
+        void finish() throws IOException {
+            flush();
+        }
+
+        long getByteCount() {
+            return byteCount;
+        }
+
+        /**
+         * This method makes sure the buffer has room for given number of bytes, which shouldn't exceed its capacity
+         */
+        protected void reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * This method writes bytes which may not fit in the buffer
+         */
+        protected void putBytes(byte[] bytes) {
+            if (bytes.length > buffer.capacity()) {
+                try {
+                    flush();
+                    writeFully(ByteBuffer.wrap(bytes));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            reserve(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                byteCount += channel.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes header with names of columns and one line per row, values that contain separators or quotes are quoted
+     */
+    private static class CsvWriter extends RowWriter {
+        CsvWriter(Path file, List<Column> columns) throws IOException {
+            super(file, columns);
+            for (int i = 0; i < columns.size(); i++) {
+                putString(columns.get(i).name(), i == columns.size() - 1 ? '\n' : ',');
+            }
+        }
+
+        @Override
+        void write(Object[] row) {
+            for (int i = 0; i < columns.size(); i++) {
+                putString(row[i] == null ? "" : row[i].toString(), i == columns.size() - 1 ? '\n' : ',');
+            }
+        }
+
+        /**
+         * ASCII values are encoded byte by byte into the buffer, others are quoted or encoded as UTF-8 first
+         */
+        private void putString(String value, char separator) {
+            int length = value.length();
+            if (length + 1 <= buffer.capacity()) {
+                reserve(length + 1);
+                int start = buffer.position();
+                boolean ascii = true;
+                for (int i = 0; i < length; i++) {
+                    char c = value.charAt(i);
+                    if (c >= 0x80 || c == ',' || c == '"' || c == '\n' || c == '\r') {
+                        ascii = false;
+                        break;
+                    }
+                    buffer.put((byte) c);
+                }
+                if (ascii) {
+                    buffer.put((byte) separator);
+                    return;
+                }
+                buffer.position(start);
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                    || value.indexOf('\r') >= 0) {
+                value = '"' + value.replace("\"", "\"\"") + '"';
+            }
+            putBytes((value + separator).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Keeps values of up to {@value #BLOCK_ROWS} rows in arrays per column and writes them column after column
+     */
+    private static class ColumnarWriter extends RowWriter {
+        private final long[][] longs;
+        private final double[][] doubles;
+        private final int[][] ints;
+        private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        private final List<List<byte[]>> dictionaryBytes = new ArrayList<>();
+        private int rows;
+
+        ColumnarWriter(Path file, List<Column> columns) throws IOException {
+            super(file, columns);
+            longs = new long[columns.size()][];
+            doubles = new double[columns.size()][];
+            ints = new int[columns.size()][];
+            reserve(COLUMNAR_MAGIC.length + 5);
+            buffer.put(COLUMNAR_MAGIC).put(COLUMNAR_VERSION).putInt(columns.size());
+            for (int i = 0; i < columns.size(); i++) {
+                Column column = columns.get(i);
+                switch (column.type()) {
+                    case LONG -> longs[i] = new long[BLOCK_ROWS];
+                    case DOUBLE -> doubles[i] = new double[BLOCK_ROWS];
+                    case DATE, STRING -> ints[i] = new int[BLOCK_ROWS];
+                }
+                dictionaries.add(column.type() == ColumnType.STRING ? new HashMap<>() : null);
+                dictionaryBytes.add(column.type() == ColumnType.STRING ? new ArrayList<>() : null);
+                byte[] name = column.name().getBytes(StandardCharsets.UTF_8);
+                reserve(3);
+                buffer.put((byte) column.type().ordinal()).putShort((short) name.length);
+                putBytes(name);
+            }
+        }
+
+        @Override
+        void write(Object[] row) {
+            for (int i = 0; i < columns.size(); i++) {
+                Object value = row[i];
+                switch (columns.get(i).type()) {
+                    case LONG -> longs[i][rows] = value == null ? 0 : ((Number) value).longValue();
+                    case DOUBLE -> doubles[i][rows] = value == null ? Double.NaN : ((Number) value).doubleValue();
+                    case DATE -> ints[i][rows] = value == null ? NULL_DATE : (int) ((LocalDate) value).toEpochDay();
+                    case STRING -> ints[i][rows] = value == null ? NULL_STRING : dictionaryIndex(i, value.toString());
+                }
+            }
+            rows++;
+            if (rows == BLOCK_ROWS) {
+                writeBlock();
+            }
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (rows > 0) {
+                writeBlock();
+            }
+            reserve(4);
+            buffer.putInt(0);
+            super.finish();
+        }
+
+        private int dictionaryIndex(int column, String value) {
+            Map<String, Integer> dictionary = dictionaries.get(column);
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(value, index);
+                dictionaryBytes.get(column).add(value.getBytes(StandardCharsets.UTF_8));
+            }
+            return index;
+        }
+
+        private void writeBlock() {
+            reserve(4);
+            buffer.putInt(rows);
+            for (int i = 0; i < columns.size(); i++) {
+                switch (columns.get(i).type()) {
+                    case LONG -> {
+                        reserve(4);
+                        buffer.putInt(rows * Long.BYTES);
+                        for (int row = 0; row < rows; row++) {
+                            reserve(Long.BYTES);
+                            buffer.putLong(longs[i][row]);
+                        }
+                    }
+                    case DOUBLE -> {
+                        reserve(4);
+                        buffer.putInt(rows * Double.BYTES);
+                        for (int row = 0; row < rows; row++) {
+                            reserve(Double.BYTES);
+                            buffer.putDouble(doubles[i][row]);
+                        }
+                    }
+                    case DATE -> {
+                        reserve(4);
+                        buffer.putInt(rows * Integer.BYTES);
+                        putInts(ints[i]);
+                    }
+                    case STRING -> {
+                        List<byte[]> strings = dictionaryBytes.get(i);
+                        int length = Integer.BYTES + rows * Integer.BYTES;
+                        for (byte[] string : strings) {
+                            length += Integer.BYTES + string.length;
+                        }
+                        reserve(8);
+                        buffer.putInt(length).putInt(strings.size());
+                        for (byte[] string : strings) {
+                            reserve(4);
+                            buffer.putInt(string.length);
+                            putBytes(string);
+                        }
+                        putInts(ints[i]);
+                        strings.clear();
+                        dictionaries.get(i).clear();
+                    }
+                }
+            }
+            rows = 0;
+        }
+
+        private void putInts(int[] values) {
+            for (int row = 0; row < rows; row++) {
+                reserve(Integer.BYTES);
+                buffer.putInt(values[row]);
+            }
+        }
+    }
+}
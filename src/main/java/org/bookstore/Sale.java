@@ -6,18 +6,80 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "sales")
+@NamedEntityGraph(name = Sale.WITH_BOOK_GRAPH, attributeNodes = @NamedAttributeNode("book"))
+@NamedQuery(name = Sale.SOLD_BOOKS_QUERY, query = "SELECT book.title, customer.name, sale.dateOfSale " +
+        "FROM Sale sale " +
+        "INNER JOIN sale.book book " +
+        "INNER JOIN sale.customer customer")
+@NamedQuery(name = Sale.SOLD_BOOKS_IN_RANGE_QUERY, query = "SELECT book.title, customer.name, sale.dateOfSale " +
+        "FROM Sale sale " +
+        "INNER JOIN sale.book book " +
+        "INNER JOIN sale.customer customer " +
+        "WHERE sale.saleID >= :fromId AND sale.saleID < :toId")
+@NamedQuery(name = Sale.REVENUE_BY_GENRE_QUERY, query = "SELECT book.genre, SUM(sale.totalPrice), COUNT(sale) " +
+        "FROM Sale sale " +
+        "INNER JOIN sale.book book " +
+        "GROUP BY book.genre")
+@NamedQuery(name = Sale.REVENUE_OF_BOOK_QUERY, query = "SELECT SUM(sale.totalPrice), COUNT(sale) " +
+        "FROM Sale sale " +
+        "WHERE sale.book.id = :bookId")
+@NamedQuery(name = Sale.DATES_QUERY, query = "SELECT MIN(dateOfSale), MAX(dateOfSale) FROM Sale")
+@NamedQuery(name = Sale.IDS_QUERY, query = "SELECT MIN(saleID), MAX(saleID) FROM Sale")
+@NamedQuery(name = Sale.EXISTING_IDS_QUERY, query = "SELECT saleID FROM Sale WHERE saleID IN :ids")
+@Table(name = "sales", indexes = {
+        @Index(name = "idx_sales_customer_date_id", columnList = "customer_id, date_of_sale, sale_id"),
+        @Index(name = "idx_sales_book_total_price", columnList = "book_id, total_price"),
+        @Index(name = "idx_sales_order", columnList = "order_id")
+})
 public class Sale {
+    /**
+     * Fetch plan for loading sales together with sold books, e.g. for purchase history
+     */
+    public static final String WITH_BOOK_GRAPH = "Sale.withBook";
+    /**
+     * Title of sold book, name of customer and date of every sale
+     */
+    public static final String SOLD_BOOKS_QUERY = "Sale.soldBooks";
+    /**
+     * Title of sold book, name of customer and date of every sale which identifier is at least "fromId"
+     * and less than "toId"
+     */
+    public static final String SOLD_BOOKS_IN_RANGE_QUERY = "Sale.soldBooksInRange";
+    /**
+     * Genre, revenue and number of sales of every genre computed from all sales
+     */
+    public static final String REVENUE_BY_GENRE_QUERY = "Sale.revenueByGenre";
+    /**
+     * Revenue and number of sales of the book given as "bookId" parameter
+     */
+    public static final String REVENUE_OF_BOOK_QUERY = "Sale.revenueOfBook";
+    /**
+     * Dates of the first and the last sale
+     */
+    public static final String DATES_QUERY = "Sale.dates";
+    /**
+     * The smallest and the largest identifier of sales
+     */
+    public static final String IDS_QUERY = "Sale.ids";
+    /**
+     * Identifiers of the list given as "ids" parameter that belong to sales
+     */
+    public static final String EXISTING_IDS_QUERY = "Sale.existingIds";
+
     @Id
     @Column(name = "sale_id", nullable = false)
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sales_seq")
+    @SequenceGenerator(name = "sales_seq", sequenceName = "sales_seq", allocationSize = 50)
     private Integer saleID;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "book_id", nullable = false)
     private Book book;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "customer_id", nullable = false)
     private Customer customer;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "order_id")
+    private Order order;
     @Column(name = "date_of_sale")
     private LocalDate dateOfSale;
     @Column(name = "quantity_sold", nullable = false, columnDefinition = "INTEGER CHECK (quantity_sold >= 0)")
@@ -45,6 +107,10 @@ public class Sale {
         this.customer = customer;
     }
 
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
     public void setDateOfSale(LocalDate dateOfSale) {
         this.dateOfSale = dateOfSale;
     }
@@ -69,6 +135,13 @@ public class Sale {
         return customer;
     }
 
+    /**
+     * @return The order the sale belongs to, or null if the book was sold alone
+     */
+    public Order getOrder() {
+        return order;
+    }
+
     public LocalDate getDateOfSale() {
         return dateOfSale;
     }
@@ -0,0 +1,543 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-behind ingestion of sales for peaks of load. Producer threads put sales into a bounded lock-free queue
+ * and a single writer thread takes them in batches of up to "batchSize" sales, waiting at most
+ * "flushIntervalMillis" for a batch to fill. Every batch is appended to a local journal file and forced to disk,
+ * then its stock is checked and its sales are inserted by {@link SaleProcessor#processSales} in one transaction,
+ * which also saves sequence number of the last journal record of the batch. If the process stops after a batch
+ * was written to the journal, its sales are committed when the journal is replayed on the next start,
+ * and the saved sequence number makes sure that sales committed before aren't committed again.
+ * Every submitted sale therefore has two futures: it is accepted when its journal record is on disk,
+ * and committed when its transaction commits or rejects it.
+ * <p>
+ * A sale that can't be committed with its batch is retried in its own transaction, and it is rejected alone
+ * only when a constraint of the database refuses it, for example because its customer doesn't exist.
+ * Other failures, like the database that can't be reached, are retried by the writer until they succeed,
+ * so the queue fills up and producers wait for space in it.
+ */
+public class SaleIngestion implements AutoCloseable {
+    private static final int RECORD_SIZE = 32;
+    private static final int CHECKSUMMED_SIZE = RECORD_SIZE - Integer.BYTES;
+    private static final int REPLAY_BUFFER_RECORDS = 4096;
+    private static final long JOURNAL_TRUNCATE_BYTES = 64L << 20;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long PRODUCER_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final UnitOfWork unitOfWork;
+    private final SaleProcessor saleProcessor;
+    private final Path journalPath;
+    private final String journalName;
+    private final FileChannel journal;
+    private final ByteBuffer journalBuffer;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final SaleQueue queue;
+    private final Thread writer;
+    private final AtomicInteger activeProducers = new AtomicInteger();
+    private volatile boolean writerWaiting;
+    private volatile boolean closed;
+    private long nextSequence;
+    private boolean journalWritable = true;
+
+    /**
+     * Futures of a submitted sale
+     * @param accepted Completed when the sale is written to the journal and forced to disk, so it will be committed
+     *                 even if the process stops. When the journal can't be written, it is completed together
+     *                 with the committed future.
+     * @param committed Completed with the committed sale, with null if book doesn't exist or there isn't enough
+     *                  quantity of it in stock, and exceptionally if a constraint of the database rejected the sale
+     */
+    public record Submission(CompletableFuture<Void> accepted, CompletableFuture<Sale> committed) {
+    }
+
+    private SaleIngestion(SessionFactory sessionFactory, Path journalPath, int batchSize, int flushIntervalMillis,
+                          int queueCapacity) throws IOException {
+        if (batchSize <= 0 || queueCapacity <= 0 || flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Batch size and queue capacity should be positive " +
+                    "and flush interval shouldn't be negative.");
+        }
+        this.unitOfWork = new UnitOfWork(sessionFactory);
+        this.saleProcessor = new SaleProcessor(sessionFactory);
+        this.journalPath = journalPath.toAbsolutePath();
+        this.journalName = this.journalPath.getFileName().toString();
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.queue = new SaleQueue(queueCapacity);
+        this.journalBuffer = ByteBuffer.allocateDirect(batchSize * RECORD_SIZE);
+        this.journal = FileChannel.open(this.journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock journalLock;
+        try {
+            journalLock = journal.tryLock();
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        if (journalLock == null) {
+            journal.close();
+            throw new IllegalStateException("Journal " + this.journalPath + " is used by another process.");
+        }
+        this.writer = new Thread(this::writeBatches, "sale-ingestion-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * This method opens the journal, commits sales that were written to it but weren't committed before,
+     * and starts the writer thread
+     * @param sessionFactory The Hibernate session factory
+     * @param journalPath The journal file, it is created if it doesn't exist. Its name identifies the journal
+     *                    in sale_journal_checkpoints table, so every journal should have a different name.
+     * @param batchSize Maximal number of sales committed in one transaction
+     * @param flushIntervalMillis Maximal time the writer waits for a batch to fill after its first sale,
+     *                            0 commits sales that were queued while the previous batch was committed
+     * @param queueCapacity Maximal number of sales waiting for the writer, it is rounded up to a power of two
+     * @return Started ingestion
+     * @throws IOException If the journal can't be read or written
+     */
+    public static SaleIngestion start(SessionFactory sessionFactory, Path journalPath, int batchSize,
+                                      int flushIntervalMillis, int queueCapacity) throws IOException {
+        SaleIngestion ingestion = new SaleIngestion(sessionFactory, journalPath, batchSize, flushIntervalMillis,
+                queueCapacity);
+        try {
+            ingestion.replay();
+        } catch (IOException | RuntimeException e) {
+            ingestion.journal.close();
+            throw e;
+        }
+        ingestion.writer.start();
+        return ingestion;
+    }
+
+    /**
+     * This method queues the sale for the writer, it waits while the queue is full.
+     * The date of sale is the date the sale is submitted, also when it is committed later.
+     * @param bookId The identifier of sold book
+     * @param customerId The identifier of customer
+     * @param quantity Quantity of sold books
+     * @return Futures of acceptance and commit of the sale
+     * @throws IllegalStateException If the ingestion is closed
+     */
+    public Submission submit(int bookId, int customerId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity should be a positive integer number.");
+        }
+        PendingSale sale = new PendingSale(new SaleProcessor.SaleRequest(bookId, customerId, quantity,
+                LocalDate.now()), new Submission(new CompletableFuture<>(), new CompletableFuture<>()));
+        activeProducers.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Sale ingestion is closed.");
+            }
+            while (!queue.offer(sale)) {
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(this, PRODUCER_WAIT_NANOS);
+            }
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+        return sale.submission;
+    }
+
+    /**
+     * This method stops accepting sales, waits until the writer commits all queued sales and closes the journal,
+     * which also releases its lock
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * This method commits journal records which sequence numbers are greater than the saved one,
+     * in batches of the usual size. Reading stops at the first record that wasn't written completely,
+     * such record wasn't forced to disk, so its sale wasn't accepted. Then the journal is emptied.
+     */
+    private void replay() throws IOException {
+        long lastCommittedSequence = unitOfWork.execute(session -> {
+            SaleJournalCheckpoint checkpoint = session.get(SaleJournalCheckpoint.class, journalName);
+            return checkpoint == null ? 0 : checkpoint.getLastSequence();
+        });
+        long lastSequence = lastCommittedSequence;
+        int replayedSales = 0;
+        List<PendingSale> batch = new ArrayList<>(batchSize);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(REPLAY_BUFFER_RECORDS * RECORD_SIZE);
+        CRC32C checksum = new CRC32C();
+        long position = 0;
+        boolean complete = true;
+        while (complete) {
+            buffer.clear();
+            while (buffer.hasRemaining() && journal.read(buffer, position + buffer.position()) > 0) {
+                // reads until the buffer is full or the end of the journal
+            }
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                break;
+            }
+            while (buffer.remaining() >= RECORD_SIZE) {
+                checksum.reset();
+                checksum.update(buffer.slice(buffer.position(), CHECKSUMMED_SIZE));
+                long sequence = buffer.getLong();
+                int bookId = buffer.getInt();
+                int customerId = buffer.getInt();
+                int quantity = buffer.getInt();
+                long epochDay = buffer.getLong();
+                if (buffer.getInt() != (int) checksum.getValue()) {
+                    complete = false;
+                    break;
+                }
+                lastSequence = Math.max(lastSequence, sequence);
+                if (sequence <= lastCommittedSequence) {
+                    continue;
+                }
+                PendingSale sale = new PendingSale(new SaleProcessor.SaleRequest(bookId, customerId, quantity,
+                        LocalDate.ofEpochDay(epochDay)), null);
+                sale.sequence = sequence;
+                batch.add(sale);
+                if (batch.size() == batchSize) {
+                    commitToDatabase(batch);
+                    replayedSales += batch.size();
+                    batch.clear();
+                }
+            }
+            if (buffer.hasRemaining()) {
+                complete = false;
+            }
+            position += buffer.position();
+        }
+        if (!batch.isEmpty()) {
+            commitToDatabase(batch);
+            replayedSales += batch.size();
+        }
+        nextSequence = lastSequence + 1;
+        journal.truncate(0);
+        journal.force(true);
+        if (replayedSales > 0) {
+            System.out.println("Committed " + replayedSales + " sales from journal " + journalPath + ".");
+        }
+    }
+
+    /**
+     * This method takes sales from the queue and commits them until the ingestion is closed and the queue is empty
+     */
+    private void writeBatches() {
+        List<PendingSale> batch = new ArrayList<>(batchSize);
+        while (true) {
+            PendingSale sale = queue.poll();
+            if (sale == null) {
+                if (closed && activeProducers.get() == 0 && queue.isEmpty()) {
+                    return;
+                }
+                awaitSales(IDLE_WAIT_NANOS);
+                continue;
+            }
+            batch.add(sale);
+            long deadline = System.nanoTime() + flushIntervalNanos;
+            while (batch.size() < batchSize) {
+                sale = queue.poll();
+                if (sale != null) {
+                    batch.add(sale);
+                    continue;
+                }
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0 || closed) {
+                    break;
+                }
+                awaitSales(remainingNanos);
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void awaitSales(long nanos) {
+        writerWaiting = true;
+        if (queue.isEmpty()) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        writerWaiting = false;
+    }
+
+    /**
+     * This method writes the batch to the journal and commits it. When the journal can't be written,
+     * the batch is still committed, only without protection against stop of the process before commit.
+     */
+    private void commit(List<PendingSale> batch) {
+        if (journalWritable) {
+            try {
+                appendToJournal(batch);
+            } catch (IOException e) {
+                System.out.println("Sales can't be written to journal " + journalPath
+                        + ", they are committed without it.");
+                e.printStackTrace();
+            }
+        }
+        commitToDatabase(batch);
+        try {
+            if (journal.size() >= JOURNAL_TRUNCATE_BYTES) {
+                journal.truncate(0);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * This method appends records of the batch to the journal and accepts its sales when they are on disk.
+     * If writing fails, the journal is truncated back to its end before the batch, so records of later batches
+     * don't follow a torn record, which replay would stop at. If even that fails, the journal isn't written
+     * anymore, and sales of later batches are accepted only when they are committed.
+     */
+    private void appendToJournal(List<PendingSale> batch) throws IOException {
+        long batchStart = journal.position();
+        journalBuffer.clear();
+        CRC32C checksum = new CRC32C();
+        for (PendingSale sale : batch) {
+            sale.sequence = nextSequence++;
+            int start = journalBuffer.position();
+            journalBuffer.putLong(sale.sequence)
+                    .putInt(sale.request.bookId())
+                    .putInt(sale.request.customerId())
+                    .putInt(sale.request.quantity())
+                    .putLong(sale.request.dateOfSale().toEpochDay());
+            checksum.reset();
+            checksum.update(journalBuffer.slice(start, CHECKSUMMED_SIZE));
+            journalBuffer.putInt((int) checksum.getValue());
+        }
+        journalBuffer.flip();
+        try {
+            while (journalBuffer.hasRemaining()) {
+                journal.write(journalBuffer);
+            }
+            journal.force(false);
+        } catch (IOException e) {
+            discardJournalFrom(batchStart, e);
+            throw e;
+        }
+        for (PendingSale sale : batch) {
+            sale.accept();
+        }
+    }
+
+    private void discardJournalFrom(long position, IOException cause) {
+        try {
+            journal.truncate(position);
+            journal.position(position);
+            journal.force(false);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            journalWritable = false;
+            System.out.println("Journal " + journalPath + " can't be repaired, sales are committed without it.");
+        }
+    }
+
+    /**
+     * This method commits all sales of the batch in one transaction. If that fails, every sale is committed
+     * in its own transaction and the ones that a constraint of the database refuses are rejected,
+     * and if it fails for another reason, for example because the database can't be reached,
+     * it is retried until it succeeds.
+     */
+    private void commitToDatabase(List<PendingSale> batch) {
+        long lastSequence = batch.get(batch.size() - 1).sequence;
+        List<SaleProcessor.SaleRequest> requests = new ArrayList<>(batch.size());
+        for (PendingSale sale : batch) {
+            requests.add(sale.request);
+        }
+        try {
+            List<Sale> sales = unitOfWork.execute(session -> {
+                List<Sale> processedSales = saleProcessor.processSales(session, requests);
+                saveCheckpoint(session, lastSequence);
+                return processedSales;
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(sales.get(i));
+            }
+            return;
+        } catch (RuntimeException e) {
+            // sales are committed one by one below, so only the failing ones are rejected
+        }
+        while (true) {
+            try {
+                commitOneByOne(batch);
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Sales can't be committed, they are retried in a second.");
+                e.printStackTrace();
+                LockSupport.parkNanos(this, RETRY_DELAY_NANOS);
+            }
+        }
+    }
+
+    private void commitOneByOne(List<PendingSale> batch) {
+        for (PendingSale sale : batch) {
+            if (sale.isDone()) {
+                continue;
+            }
+            try {
+                sale.complete(unitOfWork.execute(session -> {
+                    Sale processedSale = saleProcessor.processSales(session, List.of(sale.request)).get(0);
+                    saveCheckpoint(session, sale.sequence);
+                    return processedSale;
+                }));
+            } catch (RuntimeException e) {
+                if (!UnitOfWork.isConstraintViolation(e)) {
+                    throw e;
+                }
+                unitOfWork.run(session -> saveCheckpoint(session, sale.sequence));
+                sale.fail(e);
+            }
+        }
+    }
+
+    private void saveCheckpoint(Session session, long lastSequence) {
+        int updatedRows = session.createNamedMutationQuery(SaleJournalCheckpoint.UPDATE_QUERY)
+                .setParameter("lastSequence", lastSequence)
+                .setParameter("journal", journalName)
+                .executeUpdate();
+        if (updatedRows == 0) {
+            session.createNamedMutationQuery(SaleJournalCheckpoint.CREATE_QUERY)
+                    .setParameter("journal", journalName)
+                    .setParameter("lastSequence", lastSequence)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Sale waiting for commit, sales replayed from the journal have no futures
+     */
+    private static class PendingSale {
+        private final SaleProcessor.SaleRequest request;
+        private final Submission submission;
+        private long sequence;
+        private boolean done;
+
+        private PendingSale(SaleProcessor.SaleRequest request, Submission submission) {
+            this.request = request;
+            this.submission = submission;
+        }
+
+        private boolean isDone() {
+            return done;
+        }
+
+        private void accept() {
+            if (submission != null) {
+                submission.accepted().complete(null);
+            }
+        }
+
+        private void complete(Sale sale) {
+            done = true;
+            if (submission != null) {
+                submission.accepted().complete(null);
+                submission.committed().complete(sale);
+            }
+        }
+
+        private void fail(Throwable cause) {
+            done = true;
+            if (submission != null) {
+                submission.accepted().complete(null);
+                submission.committed().completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Bounded queue of many producers and one consumer on a ring of slots. Every slot has a sequence number
+     * that tells whether it is free for the producer of given position or filled for the consumer,
+     * so producers only compete for the tail position with compare-and-set and never block each other.
+     */
+    private static class SaleQueue {
+        private final PendingSale[] sales;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private long head;
+
+        private SaleQueue(int capacity) {
+            int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+            sales = new PendingSale[size];
+            sequences = new AtomicLongArray(size);
+            mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        private boolean offer(PendingSale sale) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long sequence = sequences.get(index);
+                if (sequence == position) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        sales[index] = sale;
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (sequence < position) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * This method may be called only by the consumer
+         */
+        private PendingSale poll() {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            PendingSale sale = sales[index];
+            sales[index] = null;
+            sequences.set(index, head + sales.length);
+            head++;
+            return sale;
+        }
+
+        /**
+         * This method may be called only by the consumer
+         */
+        private boolean isEmpty() {
+            return sequences.get((int) head & mask) != head + 1;
+        }
+    }
+}
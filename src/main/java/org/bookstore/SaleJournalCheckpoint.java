@@ -0,0 +1,42 @@
+package org.bookstore;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.NamedNativeQuery;
+
+@Entity
+@Table(name = "sale_journal_checkpoints")
+@NamedNativeQuery(name = SaleJournalCheckpoint.UPDATE_QUERY, query = "UPDATE sale_journal_checkpoints " +
+        "SET last_sequence = :lastSequence " +
+        "WHERE journal = :journal", querySpaces = "sale_journal_checkpoints")
+@NamedNativeQuery(name = SaleJournalCheckpoint.CREATE_QUERY, query = "INSERT INTO sale_journal_checkpoints " +
+        "(journal, last_sequence) " +
+        "VALUES (:journal, :lastSequence)", querySpaces = "sale_journal_checkpoints")
+public class SaleJournalCheckpoint {
+    /**
+     * Sets "lastSequence" parameter as the last committed sequence number of the journal given as "journal"
+     * parameter, it updates no row if the journal has no checkpoint yet
+     */
+    public static final String UPDATE_QUERY = "SaleJournalCheckpoint.update";
+    /**
+     * Creates checkpoint of the journal given as "journal" parameter with "lastSequence" parameter
+     */
+    public static final String CREATE_QUERY = "SaleJournalCheckpoint.create";
+
+    @Id
+    @Column(name = "journal", nullable = false)
+    private String journal;
+
+    @Column(name = "last_sequence", nullable = false)
+    private Long lastSequence;
+
+    public SaleJournalCheckpoint() {
+    }
+
+    public String getJournal() {
+        return journal;
+    }
+
+    public Long getLastSequence() {
+        return lastSequence;
+    }
+}
@@ -0,0 +1,252 @@
+package org.bookstore;
+
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class SaleProcessor {
+    private static final String LOCK_BOOKS_QUERY = "SELECT * FROM books " +
+            "WHERE book_id IN (:bookIds) " +
+            "ORDER BY book_id " +
+            "FOR UPDATE";
+
+    private static final Comparator<BookDay> BOOK_DAY_ORDER =
+            Comparator.comparingInt(BookDay::bookId).thenComparing(BookDay::saleDate);
+
+    private final UnitOfWork unitOfWork;
+    private final GenreRevenueRollup genreRevenueRollup = new GenreRevenueRollup();
+    private final DailySalesRollup dailySalesRollup = new DailySalesRollup();
+
+    public SaleProcessor(SessionFactory sessionFactory) {
+        this.unitOfWork = new UnitOfWork(sessionFactory);
+    }
+
+    /**
+     * This method processes sale in its own session and transaction, so it can be called from many threads at once
+     * @param bookId The identifier of sold book
+     * @param customerId The identifier of customer
+     * @param quantity Quantity of sold books
+     * @return Persisted sale or null if there isn't enough quantity of book in stock
+     */
+    public Sale processSale(int bookId, int customerId, int quantity) {
+        return unitOfWork.execute(session -> {
+            Sale sale = processSale(session, bookId, customerId, quantity);
+            if (sale == null) {
+                session.getTransaction().markRollbackOnly();
+            }
+            return sale;
+        });
+    }
+
+    /**
+     * This method takes quantity from stock and inserts sale within transaction of given session.
+     * Stock is taken with one conditional update, so the row lock it holds until commit makes
+     * concurrent sales of the same book wait for each other instead of overselling. The book is then refreshed,
+     * because the caller may have loaded it before the update and its quantity in stock would be stale.
+     * Only the cache entry of the sold book is evicted, right after the update and again after the transaction
+     * completes, so stock read by a concurrent transaction before commit isn't kept in the cache.
+     * Other cached books and cached listings of books stay valid.
+     * Revenue of the sale is added to genre revenue rollup and to daily sales rollup in the same transaction.
+     * @param session The Hibernate session with active transaction
+     * @param bookId The identifier of sold book
+     * @param customerId The identifier of customer
+     * @param quantity Quantity of sold books
+     * @return Persisted sale or null if book doesn't exist or there isn't enough quantity of it in stock
+     */
+    public Sale processSale(Session session, int bookId, int customerId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity should be a positive integer number.");
+        }
+        int updatedRows = session.createNamedMutationQuery(Book.TAKE_STOCK_QUERY)
+                .setParameter("quantity", quantity)
+                .setParameter("bookId", bookId)
+                .executeUpdate();
+        if (updatedRows == 0) {
+            return null;
+        }
+        Cache cache = session.getSessionFactory().getCache();
+        cache.evictEntityData(Book.class, bookId);
+        session.unwrap(SessionImplementor.class).getActionQueue()
+                .registerProcess((success, completedSession) -> cache.evictEntityData(Book.class, bookId));
+        Book book = session.getReference(Book.class, bookId);
+        session.refresh(book);
+        Customer customer = session.getReference(Customer.class, customerId);
+        Sale sale = new Sale(book, customer, LocalDate.now(), quantity, quantity * book.getPrice());
+        session.persist(sale);
+        genreRevenueRollup.addSale(session, book.getGenre(), sale.getTotalPrice());
+        dailySalesRollup.addSale(session, sale);
+        return sale;
+    }
+
+    /**
+     * This method processes order in its own session and transaction, so it can be called from many threads at once
+     * @param customerId The identifier of customer
+     * @param quantities Quantities of sold books by their identifiers
+     * @return Persisted order or null if some book doesn't exist or there isn't enough quantity of it in stock
+     */
+    public Order processOrder(int customerId, Map<Integer, Integer> quantities) {
+        return unitOfWork.execute(session -> {
+            Order order = processOrder(session, customerId, quantities);
+            if (order == null) {
+                session.getTransaction().markRollbackOnly();
+            }
+            return order;
+        });
+    }
+
+    /**
+     * This method takes quantities of all books of the order from stock and inserts their sales within transaction
+     * of given session. Books are locked and read by one query in order of their identifiers, so concurrent orders
+     * of the same books wait for each other instead of deadlocking, and they shouldn't be loaded by the session
+     * before. Stock of every book is checked before anything is changed, then the order, sales and new stock
+     * are written by one flush, so sales are inserted in one JDBC batch and stock is updated in another.
+     * Revenues are added to genre revenue rollup once per genre, in order of genres.
+     * @param session The Hibernate session with active transaction
+     * @param customerId The identifier of customer
+     * @param quantities Quantities of sold books by their identifiers
+     * @return Persisted order or null if some book doesn't exist or there isn't enough quantity of it in stock
+     */
+    public Order processOrder(Session session, int customerId, Map<Integer, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            throw new IllegalArgumentException("Order should have at least one book.");
+        }
+        SortedMap<Integer, Integer> lines = new TreeMap<>(quantities);
+        for (int quantity : lines.values()) {
+            if (quantity <= 0) {
+                throw new IllegalArgumentException("Quantity should be a positive integer number.");
+            }
+        }
+        List<Book> books = lockBooks(session, lines.keySet());
+        if (books.size() != lines.size()) {
+            return null;
+        }
+        for (Book book : books) {
+            if (book.getQuantityInStock() < lines.get(book.getBookID())) {
+                return null;
+            }
+        }
+        Customer customer = session.getReference(Customer.class, customerId);
+        Order order = new Order(customer, LocalDate.now());
+        session.persist(order);
+        for (Book book : books) {
+            int quantity = lines.get(book.getBookID());
+            book.setQuantityInStock(book.getQuantityInStock() - quantity);
+            Sale sale = new Sale(book, customer, order.getDateOfOrder(), quantity, quantity * book.getPrice());
+            order.addSale(sale);
+            session.persist(sale);
+        }
+        session.flush();
+        addToRollups(session, order.getSales());
+        return order;
+    }
+
+    /**
+     * This method processes many independent sales within transaction of given session, for example sales
+     * collected by {@link SaleIngestion}. All their books are locked and read by one query in order of identifiers,
+     * then sales are checked against stock in the given order, so a sale that doesn't fit in stock is rejected
+     * without rejecting the others. Sales are inserted and stock is updated by one flush, and rollups are
+     * updated once per genre and once per book and day instead of once per sale.
+     * Books shouldn't be loaded by the session before.
+     * @param session The Hibernate session with active transaction
+     * @param requests The sales to process
+     * @return Persisted sales in order of requests, with null for every sale that was rejected because its book
+     * doesn't exist or there isn't enough quantity of it in stock
+     */
+    public List<Sale> processSales(Session session, List<SaleRequest> requests) {
+        SortedSet<Integer> bookIds = new TreeSet<>();
+        for (SaleRequest request : requests) {
+            if (request.quantity() <= 0) {
+                throw new IllegalArgumentException("Quantity should be a positive integer number.");
+            }
+            bookIds.add(request.bookId());
+        }
+        if (bookIds.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, Book> books = new HashMap<>();
+        for (Book book : lockBooks(session, bookIds)) {
+            books.put(book.getBookID(), book);
+        }
+        List<Sale> sales = new ArrayList<>(requests.size());
+        List<Sale> persistedSales = new ArrayList<>(requests.size());
+        for (SaleRequest request : requests) {
+            Book book = books.get(request.bookId());
+            if (book == null || book.getQuantityInStock() < request.quantity()) {
+                sales.add(null);
+                continue;
+            }
+            book.setQuantityInStock(book.getQuantityInStock() - request.quantity());
+            Customer customer = session.getReference(Customer.class, request.customerId());
+            Sale sale = new Sale(book, customer, request.dateOfSale(), request.quantity(),
+                    request.quantity() * book.getPrice());
+            session.persist(sale);
+            sales.add(sale);
+            persistedSales.add(sale);
+        }
+        session.flush();
+        addToRollups(session, persistedSales);
+        return sales;
+    }
+
+    /**
+     * Sale that waits to be processed
+     * @param dateOfSale The date sale was made, it can be earlier than the date it is processed
+     */
+    public record SaleRequest(int bookId, int customerId, int quantity, LocalDate dateOfSale) {
+    }
+
+    private List<Book> lockBooks(Session session, Collection<Integer> bookIds) {
+        return session.createNativeQuery(LOCK_BOOKS_QUERY, Book.class)
+                .setParameter("bookIds", bookIds)
+                .list();
+    }
+
+    /**
+     * This method adds sales to genre revenue rollup once per genre and to daily sales rollup once per book and day.
+     * Rows of rollups are updated in order of genres and of books, so concurrent transactions wait for each other
+     * instead of deadlocking.
+     */
+    private void addToRollups(Session session, List<Sale> sales) {
+        SortedMap<String, Totals> genreTotals = new TreeMap<>();
+        SortedMap<BookDay, Totals> dailyTotals = new TreeMap<>(BOOK_DAY_ORDER);
+        for (Sale sale : sales) {
+            genreTotals.computeIfAbsent(sale.getBook().getGenre(), genre -> new Totals()).add(sale);
+            if (sale.getDateOfSale() != null) {
+                dailyTotals.computeIfAbsent(new BookDay(sale.getBook().getBookID(), sale.getDateOfSale()),
+                        bookDay -> new Totals()).add(sale);
+            }
+        }
+        genreTotals.forEach((genre, totals) ->
+                genreRevenueRollup.addSales(session, genre, totals.revenue, totals.salesCount));
+        dailyTotals.forEach((bookDay, totals) -> dailySalesRollup.addSales(session, bookDay.saleDate(),
+                bookDay.bookId(), totals.revenue, totals.units, totals.salesCount));
+    }
+
+    private record BookDay(int bookId, LocalDate saleDate) {
+    }
+
+    private static class Totals {
+        private double revenue;
+        private long units;
+        private long salesCount;
+
+        private void add(Sale sale) {
+            revenue += sale.getTotalPrice();
+            units += sale.getQuantitySold();
+            salesCount++;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.bookstore;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Month of sales which partition was moved to a compressed file by {@link SalesPartitions#archive}
+ */
+@Entity
+@Table(name = "sales_archives")
+@NamedQuery(name = SalesArchive.ALL_QUERY, query = "FROM SalesArchive ORDER BY fromDate")
+@NamedQuery(name = SalesArchive.ARCHIVED_UNTIL_QUERY, query = "SELECT MAX(toDate) FROM SalesArchive")
+public class SalesArchive {
+    /**
+     * All archived months ordered by date
+     */
+    public static final String ALL_QUERY = "SalesArchive.all";
+    /**
+     * The first day after the last archived month, null if nothing was archived
+     */
+    public static final String ARCHIVED_UNTIL_QUERY = "SalesArchive.archivedUntil";
+
+    @Id
+    @Column(name = "partition_name", nullable = false)
+    private String partitionName;
+
+    @Column(name = "from_date", nullable = false)
+    private LocalDate fromDate;
+
+    @Column(name = "to_date", nullable = false)
+    private LocalDate toDate;
+
+    @Column(name = "file_name", nullable = false, length = 1024)
+    private String fileName;
+
+    @Column(name = "sales_count", nullable = false)
+    private Long salesCount;
+
+    @Column(name = "revenue", nullable = false)
+    private Double revenue;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+
+    public SalesArchive() {
+    }
+
+    /**
+     * @param fromDate The first day of the month
+     * @param toDate The first day of the next month
+     */
+    public SalesArchive(String partitionName, LocalDate fromDate, LocalDate toDate, String fileName,
+                        Long salesCount, Double revenue, LocalDateTime archivedAt) {
+        this.partitionName = partitionName;
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+        this.fileName = fileName;
+        this.salesCount = salesCount;
+        this.revenue = revenue;
+        this.archivedAt = archivedAt;
+    }
+
+    public String getPartitionName() {
+        return partitionName;
+    }
+
+    public LocalDate getFromDate() {
+        return fromDate;
+    }
+
+    public LocalDate getToDate() {
+        return toDate;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Long getSalesCount() {
+        return salesCount;
+    }
+
+    public Double getRevenue() {
+        return revenue;
+    }
+
+    public LocalDateTime getArchivedAt() {
+        return archivedAt;
+    }
+}
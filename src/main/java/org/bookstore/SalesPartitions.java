@@ -0,0 +1,187 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Maintains monthly partitions of sales table, which is range partitioned by date_of_sale on PostgreSQL.
+ * Partitions are created a few months ahead, so sales of a new month never go to the default partition,
+ * and partitions older than retention period can be moved to gzip compressed CSV files. Totals of every book
+ * in archived partitions are kept in archived_book_sales, so all-time revenue reports still include them.
+ * Daily sales of archived months are kept as well, so analytics still cover them.
+ * When sales table isn't partitioned, for example in H2 databases of benchmarks, maintenance does nothing.
+ */
+public class SalesPartitions {
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'sales_y'yyyy'm'MM");
+    private static final int ARCHIVE_FETCH_SIZE = 10_000;
+    private static final String ARCHIVE_HEADER = "sale_id,book_id,customer_id,order_id,date_of_sale," +
+            "quantity_sold,total_price\n";
+
+    private static final String IS_PARTITIONED_QUERY = "SELECT COUNT(*) FROM pg_partitioned_table " +
+            "WHERE partrelid = to_regclass('sales')";
+    private static final String CREATE_PARTITION_QUERY = "SELECT create_sales_partition(:month)";
+    private static final String PARTITIONS_QUERY = "SELECT c.relname " +
+            "FROM pg_inherits i " +
+            "INNER JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = to_regclass('sales') " +
+            "ORDER BY c.relname";
+    private static final String ADD_ARCHIVED_TOTALS_QUERY = "INSERT INTO archived_book_sales " +
+            "(book_id, revenue, units, sales_count) " +
+            "SELECT book_id, SUM(CAST(total_price AS DOUBLE PRECISION)), SUM(quantity_sold), COUNT(*) " +
+            "FROM %s " +
+            "GROUP BY book_id " +
+            "ON CONFLICT (book_id) DO UPDATE SET revenue = archived_book_sales.revenue + EXCLUDED.revenue, " +
+            "units = archived_book_sales.units + EXCLUDED.units, " +
+            "sales_count = archived_book_sales.sales_count + EXCLUDED.sales_count";
+
+    /**
+     * This method tells whether sales table is partitioned, which is the case in PostgreSQL after migration V11
+     * @param session The Hibernate session
+     * @return Whether sales table is partitioned
+     */
+    public boolean isPartitioned(Session session) {
+        boolean postgres = session.doReturningWork(connection ->
+                "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName()));
+        return postgres && session.createNativeQuery(IS_PARTITIONED_QUERY, Long.class).getSingleResult() > 0;
+    }
+
+    /**
+     * This method creates partitions of the month of the day and of following months which don't exist yet.
+     * Sales of those months that went to the default partition are moved to the new partitions.
+     * @param session The Hibernate session with active transaction
+     * @param day The day which month is the first one
+     * @param monthsAhead Number of following months
+     * @return Number of created partitions, 0 if sales table isn't partitioned
+     */
+    public int createPartitions(Session session, LocalDate day, int monthsAhead) {
+        if (!isPartitioned(session)) {
+            return 0;
+        }
+        int createdPartitions = 0;
+        LocalDate month = day.withDayOfMonth(1);
+        for (int i = 0; i <= monthsAhead; i++) {
+            if (session.createNativeQuery(CREATE_PARTITION_QUERY, Boolean.class)
+                    .setParameter("month", month.plusMonths(i))
+                    .getSingleResult()) {
+                createdPartitions++;
+            }
+        }
+        return createdPartitions;
+    }
+
+    /**
+     * This method moves every partition of a month that ended before the given day to a file in the directory,
+     * every partition in its own transaction. Rows of a partition are written to a temporary file that is forced
+     * to disk and renamed, then totals of the partition are added to archived_book_sales, the month is recorded
+     * in sales_archives and the partition is dropped, all in the same transaction. Writes to the partition
+     * are blocked while it is archived, reads aren't.
+     * @param unitOfWork The executor of transactions
+     * @param before The first day that isn't archived, only whole months before it are archived
+     * @param directory The directory of archive files, it is created if it doesn't exist
+     * @return Archived months, empty if sales table isn't partitioned or there was nothing to archive
+     * @throws IOException If the directory can't be created
+     */
+    public List<SalesArchive> archive(UnitOfWork unitOfWork, LocalDate before, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<LocalDate> months = unitOfWork.execute(session -> {
+            List<LocalDate> partitionMonths = new ArrayList<>();
+            if (!isPartitioned(session)) {
+                return partitionMonths;
+            }
+            for (String partition : session.createNativeQuery(PARTITIONS_QUERY, String.class).list()) {
+                LocalDate month = monthOf(partition);
+                if (month != null && !month.plusMonths(1).isAfter(before)) {
+                    partitionMonths.add(month);
+                }
+            }
+            return partitionMonths;
+        });
+        List<SalesArchive> archives = new ArrayList<>();
+        for (LocalDate month : months) {
+            archives.add(unitOfWork.execute(session -> archivePartition(session, month, directory)));
+        }
+        return archives;
+    }
+
+    private SalesArchive archivePartition(Session session, LocalDate month, Path directory) {
+        String partition = PARTITION_NAME.format(month);
+        session.createNativeMutationQuery("LOCK TABLE " + partition + " IN EXCLUSIVE MODE").executeUpdate();
+        Path file = directory.resolve(partition + ".csv.gz").toAbsolutePath();
+        Path temporaryFile = directory.resolve(partition + ".csv.gz.tmp");
+        double[] revenue = new double[1];
+        long salesCount = session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT sale_id, book_id, customer_id, " +
+                    "order_id, date_of_sale, quantity_sold, total_price FROM " + partition + " ORDER BY sale_id")) {
+                statement.setFetchSize(ARCHIVE_FETCH_SIZE);
+                long rows = 0;
+                try (ResultSet results = statement.executeQuery();
+                     Writer writer = new BufferedWriter(new OutputStreamWriter(
+                             new GZIPOutputStream(Files.newOutputStream(temporaryFile), 1 << 16),
+                             StandardCharsets.UTF_8))) {
+                    writer.write(ARCHIVE_HEADER);
+                    while (results.next()) {
+                        float totalPrice = results.getFloat(7);
+                        writer.write(results.getInt(1) + "," + results.getInt(2) + "," + results.getInt(3) + ","
+                                + valueOf(results.getObject(4)) + "," + valueOf(results.getObject(5)) + ","
+                                + results.getInt(6) + "," + totalPrice + "\n");
+                        revenue[0] += totalPrice;
+                        rows++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return rows;
+            }
+        });
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        session.createNativeMutationQuery(String.format(ADD_ARCHIVED_TOTALS_QUERY, partition)).executeUpdate();
+        SalesArchive archive = new SalesArchive(partition, month, month.plusMonths(1), file.toString(), salesCount,
+                revenue[0], LocalDateTime.now());
+        session.persist(archive);
+        session.createNativeMutationQuery("ALTER TABLE sales DETACH PARTITION " + partition).executeUpdate();
+        session.createNativeMutationQuery("DROP TABLE " + partition).executeUpdate();
+        return archive;
+    }
+
+    /**
+     * @return The first day of the month of partition or null if it isn't a monthly partition
+     */
+    private static LocalDate monthOf(String partition) {
+        try {
+            return LocalDate.parse(partition + "01", DateTimeFormatter.ofPattern("'sales_y'yyyy'm'MMdd"));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String valueOf(Object value) {
+        return value == null ? "" : value.toString();
+    }
+}
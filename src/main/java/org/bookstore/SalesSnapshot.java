@@ -0,0 +1,408 @@
+package org.bookstore;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.Query;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory copy of the sales table kept as primitive columns: book and customer identifiers,
+ * days since epoch, quantities and total prices in cents. Genres of books are dictionary encoded,
+ * titles of books and names of customers are kept once per identifier.
+ * Sales are stored in chunks of fixed size that are never moved, so reports scan chunks in parallel
+ * without locking and without allocating per sale, while new sales are appended.
+ * After the initial load the snapshot follows sales, books and customers committed through
+ * the session factory it was loaded from, changes made by other processes aren't seen until restart.
+ * Totals of archived sales are loaded per book and added to revenues of genres, sales archived after the load
+ * stay in chunks until restart.
+ */
+public class SalesSnapshot {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int LOAD_FETCH_SIZE = 10_000;
+    private static final int NO_GENRE = -1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int MAX_CACHED_DAYS = 1 << 16;
+
+    private final Object writeLock = new Object();
+    private final CommitBuffer commitBuffer = new CommitBuffer();
+    private final Map<String, Integer> genreCodes = new HashMap<>();
+    private volatile String[] genres = new String[0];
+    private volatile int[] bookGenres = new int[0];
+    private volatile String[] bookTitles = new String[0];
+    private volatile String[] customerNames = new String[0];
+    private volatile Chunk[] chunks = new Chunk[0];
+    private long[] archivedCents = new long[0];
+    private long[] archivedCounts = new long[0];
+    private int firstEpochDay = Integer.MAX_VALUE;
+    private int lastEpochDay = Integer.MIN_VALUE;
+    private volatile int size;
+
+    private SalesSnapshot() {
+    }
+
+    /**
+     * This method reads all books, customers and sales in one REPEATABLE READ transaction and starts following
+     * changes committed through the session factory. Listeners are registered before reading, and changes they
+     * report during the load are applied after it, except sales the load has already read, so every sale
+     * is in the snapshot once.
+     * @param sessionFactory The Hibernate session factory of the primary database
+     * @return Loaded snapshot
+     */
+    public static SalesSnapshot load(SessionFactory sessionFactory) {
+        SalesSnapshot snapshot = new SalesSnapshot();
+        EventListenerRegistry listeners = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        CommitListener listener = snapshot.new CommitListener();
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+
+        snapshot.commitBuffer.load(sessionFactory, session -> {
+            scroll(session, "SELECT bookID, title, genre FROM Book", row ->
+                    snapshot.putBook((Integer) row[0], (String) row[1], (String) row[2]));
+            scroll(session, "SELECT customerID, name FROM Customer", row ->
+                    snapshot.putCustomer((Integer) row[0], (String) row[1]));
+            scroll(session, "SELECT bookId, revenue, salesCount FROM ArchivedBookSales", row ->
+                    snapshot.putArchivedSales((Integer) row[0], (Double) row[1], (Long) row[2]));
+            scroll(session, "SELECT book.id, customer.id, dateOfSale, quantitySold, totalPrice FROM Sale", row ->
+                    snapshot.append((Integer) row[0], (Integer) row[1], (LocalDate) row[2], (Integer) row[3],
+                            (Float) row[4]));
+        });
+        return snapshot;
+    }
+
+    private static void scroll(StatelessSession session, String hql, Consumer<Object[]> rowConsumer) {
+        Query<Object[]> query = session.createQuery(hql, Object[].class);
+        query.setFetchSize(LOAD_FETCH_SIZE);
+        try (ScrollableResults<Object[]> results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                rowConsumer.accept(results.get());
+            }
+        }
+    }
+
+    /**
+     * @return Number of sales in the snapshot
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This method sums total prices of sales of every genre, chunks of sales are scanned in parallel
+     * @return Revenues of genres which books were sold, ordered by genre
+     */
+    public List<GenreRevenue> getGenreRevenues() {
+        int count = size;
+        Chunk[] chunks = this.chunks;
+        int[] bookGenres = this.bookGenres;
+        String[] genres = this.genres;
+        int genreCount = genres.length;
+        long[] totals = IntStream.range(0, chunkCount(count)).parallel()
+                .mapToObj(chunk -> {
+                    long[] chunkTotals = new long[genreCount * 2];
+                    Chunk sales = chunks[chunk];
+                    int end = chunkEnd(chunk, count);
+                    for (int i = 0; i < end; i++) {
+                        int genre = genreOf(bookGenres, sales.bookIds[i]);
+                        if (genre >= 0 && genre < genreCount) {
+                            chunkTotals[genre * 2] += sales.priceCents[i];
+                            chunkTotals[genre * 2 + 1]++;
+                        }
+                    }
+                    return chunkTotals;
+                })
+                .reduce(SalesSnapshot::add)
+                .orElseGet(() -> new long[genreCount * 2]);
+        long[] archivedCents = this.archivedCents;
+        long[] archivedCounts = this.archivedCounts;
+        for (int bookId = 0; bookId < archivedCounts.length; bookId++) {
+            int genre = genreOf(bookGenres, bookId);
+            if (genre >= 0 && genre < genreCount) {
+                totals[genre * 2] += archivedCents[bookId];
+                totals[genre * 2 + 1] += archivedCounts[bookId];
+            }
+        }
+        List<GenreRevenue> revenues = new ArrayList<>();
+        for (int genre = 0; genre < genreCount; genre++) {
+            if (totals[genre * 2 + 1] > 0) {
+                revenues.add(new GenreRevenue(genres[genre], totals[genre * 2] / 100.0, totals[genre * 2 + 1]));
+            }
+        }
+        revenues.sort(Comparator.comparing(GenreRevenue::getGenre));
+        return revenues;
+    }
+
+    /**
+     * This method sums total prices of sales of the genre, chunks of sales are scanned in parallel
+     * @param genre The genre
+     * @return Total revenue of the genre or 0 if no book of that genre was sold
+     */
+    public double getRevenue(String genre) {
+        int count = size;
+        Chunk[] chunks = this.chunks;
+        int[] bookGenres = this.bookGenres;
+        Integer code;
+        synchronized (writeLock) {
+            code = genreCodes.get(genre);
+        }
+        if (code == null) {
+            return 0;
+        }
+        int genreCode = code;
+        long cents = IntStream.range(0, chunkCount(count)).parallel()
+                .mapToLong(chunk -> {
+                    long chunkCents = 0;
+                    Chunk sales = chunks[chunk];
+                    int end = chunkEnd(chunk, count);
+                    for (int i = 0; i < end; i++) {
+                        if (genreOf(bookGenres, sales.bookIds[i]) == genreCode) {
+                            chunkCents += sales.priceCents[i];
+                        }
+                    }
+                    return chunkCents;
+                })
+                .sum();
+        long[] archivedCents = this.archivedCents;
+        for (int bookId = 0; bookId < archivedCents.length; bookId++) {
+            if (genreOf(bookGenres, bookId) == genreCode) {
+                cents += archivedCents[bookId];
+            }
+        }
+        return cents / 100.0;
+    }
+
+    /**
+     * This method gives title of the book, name of the customer and date of every sale in order
+     * sales were added. The same row array is given for every sale, so consumer shouldn't keep it,
+     * and dates are shared between sales of the same day.
+     * @param rowConsumer Consumer of rows of book title, customer name and date of sale
+     * @return Number of rows
+     */
+    public long streamSoldBooks(Consumer<Object[]> rowConsumer) {
+        return streamSoldBooks(0, size, rowConsumer);
+    }
+
+    /**
+     * This method gives the same rows as {@link #streamSoldBooks(Consumer)} for sales at positions from "from"
+     * inclusive to "to" exclusive. Sales are only appended, so a range of positions that was taken from
+     * {@link #size()} once can be split into parts that are streamed by different threads at the same time.
+     * @param from The position of the first sale
+     * @param to The position after the last sale, at most {@link #size()}
+     * @param rowConsumer Consumer of rows of book title, customer name and date of sale
+     * @return Number of rows
+     */
+    public long streamSoldBooks(int from, int to, Consumer<Object[]> rowConsumer) {
+        if (from < 0 || from > to || to > size) {
+            throw new IllegalArgumentException("Positions of sales should be within the snapshot.");
+        }
+        Chunk[] chunks = this.chunks;
+        String[] bookTitles = this.bookTitles;
+        String[] customerNames = this.customerNames;
+        int firstEpochDay = this.firstEpochDay;
+        long days = (long) lastEpochDay - firstEpochDay + 1;
+        LocalDate[] dates = new LocalDate[days > 0 && days <= MAX_CACHED_DAYS ? (int) days : 0];
+        Object[] row = new Object[3];
+        for (int index = from; index < to; ) {
+            Chunk sales = chunks[index >>> CHUNK_SHIFT];
+            int offset = index & (CHUNK_SIZE - 1);
+            int end = Math.min(CHUNK_SIZE, offset + to - index);
+            for (int i = offset; i < end; i++) {
+                row[0] = valueOf(bookTitles, sales.bookIds[i]);
+                row[1] = valueOf(customerNames, sales.customerIds[i]);
+                row[2] = dateOf(dates, firstEpochDay, sales.epochDays[i]);
+                rowConsumer.accept(row);
+            }
+            index += end - offset;
+        }
+        return to - from;
+    }
+
+    private void append(int bookId, int customerId, LocalDate dateOfSale, int quantity, float totalPrice) {
+        synchronized (writeLock) {
+            int index = size;
+            int chunk = index >>> CHUNK_SHIFT;
+            if (chunk == chunks.length) {
+                Chunk[] grown = Arrays.copyOf(chunks, chunk + 1);
+                grown[chunk] = new Chunk();
+                chunks = grown;
+            }
+            Chunk sales = chunks[chunk];
+            int offset = index & (CHUNK_SIZE - 1);
+            sales.bookIds[offset] = bookId;
+            sales.customerIds[offset] = customerId;
+            int epochDay = dateOfSale != null ? (int) dateOfSale.toEpochDay() : NO_DATE;
+            sales.epochDays[offset] = epochDay;
+            sales.quantities[offset] = quantity;
+            sales.priceCents[offset] = Math.round(totalPrice * 100.0);
+            if (epochDay != NO_DATE) {
+                firstEpochDay = Math.min(firstEpochDay, epochDay);
+                lastEpochDay = Math.max(lastEpochDay, epochDay);
+            }
+            size = index + 1;
+        }
+    }
+
+    private void putBook(int bookId, String title, String genre) {
+        synchronized (writeLock) {
+            Integer code = genreCodes.get(genre);
+            if (code == null) {
+                code = genres.length;
+                genreCodes.put(genre, code);
+                String[] grown = Arrays.copyOf(genres, code + 1);
+                grown[code] = genre;
+                genres = grown;
+            }
+            if (bookId >= bookGenres.length) {
+                int length = Math.max(bookId + 1, bookGenres.length * 2);
+                int[] grownGenres = Arrays.copyOf(bookGenres, length);
+                Arrays.fill(grownGenres, bookGenres.length, length, NO_GENRE);
+                bookTitles = Arrays.copyOf(bookTitles, length);
+                bookGenres = grownGenres;
+            }
+            bookTitles[bookId] = title;
+            bookGenres[bookId] = code;
+        }
+    }
+
+    private void putArchivedSales(int bookId, double revenue, long salesCount) {
+        synchronized (writeLock) {
+            if (bookId >= archivedCounts.length) {
+                int length = Math.max(bookId + 1, archivedCounts.length * 2);
+                archivedCents = Arrays.copyOf(archivedCents, length);
+                archivedCounts = Arrays.copyOf(archivedCounts, length);
+            }
+            archivedCents[bookId] = Math.round(revenue * 100.0);
+            archivedCounts[bookId] = salesCount;
+        }
+    }
+
+    private void putCustomer(int customerId, String name) {
+        synchronized (writeLock) {
+            if (customerId >= customerNames.length) {
+                customerNames = Arrays.copyOf(customerNames, Math.max(customerId + 1, customerNames.length * 2));
+            }
+            customerNames[customerId] = name;
+        }
+    }
+
+    private static int genreOf(int[] bookGenres, int bookId) {
+        return bookId < bookGenres.length ? bookGenres[bookId] : NO_GENRE;
+    }
+
+    private static LocalDate dateOf(LocalDate[] dates, int firstEpochDay, int epochDay) {
+        if (epochDay == NO_DATE) {
+            return null;
+        }
+        int index = epochDay - firstEpochDay;
+        if (index < 0 || index >= dates.length) {
+            return LocalDate.ofEpochDay(epochDay);
+        }
+        LocalDate date = dates[index];
+        if (date == null) {
+            date = LocalDate.ofEpochDay(epochDay);
+            dates[index] = date;
+        }
+        return date;
+    }
+
+    private static String valueOf(String[] values, int id) {
+        return id < values.length ? values[id] : null;
+    }
+
+    private static int chunkCount(int count) {
+        return (count + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+    }
+
+    private static int chunkEnd(int chunk, int count) {
+        return Math.min(CHUNK_SIZE, count - (chunk << CHUNK_SHIFT));
+    }
+
+    private static long[] add(long[] left, long[] right) {
+        for (int i = 0; i < left.length; i++) {
+            left[i] += right[i];
+        }
+        return left;
+    }
+
+    private static class Chunk {
+        private final int[] bookIds = new int[CHUNK_SIZE];
+        private final int[] customerIds = new int[CHUNK_SIZE];
+        private final int[] epochDays = new int[CHUNK_SIZE];
+        private final int[] quantities = new int[CHUNK_SIZE];
+        private final long[] priceCents = new long[CHUNK_SIZE];
+    }
+
+    /**
+     * Adds sales, books and customers to the snapshot after transactions that insert or update them commit,
+     * so rolled back sales never appear in reports
+     */
+    private class CommitListener implements PostCommitInsertEventListener, PostCommitUpdateEventListener {
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            Object entity = event.getEntity();
+            if (entity instanceof Sale sale) {
+                int bookId = sale.getBook().getBookID();
+                int customerId = sale.getCustomer().getCustomerID();
+                LocalDate dateOfSale = sale.getDateOfSale();
+                int quantity = sale.getQuantitySold();
+                float totalPrice = sale.getTotalPrice();
+                commitBuffer.applySale(sale.getSaleID(), () ->
+                        append(bookId, customerId, dateOfSale, quantity, totalPrice));
+            } else {
+                onPostChange(entity);
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            onPostChange(event.getEntity());
+        }
+
+        private void onPostChange(Object entity) {
+            if (entity instanceof Book book) {
+                int bookId = book.getBookID();
+                String title = book.getTitle();
+                String genre = book.getGenre();
+                commitBuffer.apply(() -> putBook(bookId, title, genre));
+            } else if (entity instanceof Customer customer) {
+                int customerId = customer.getCustomerID();
+                String name = customer.getName();
+                commitBuffer.apply(() -> putCustomer(customerId, name));
+            }
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return true;
+        }
+    }
+}
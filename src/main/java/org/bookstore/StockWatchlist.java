@@ -0,0 +1,151 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Books which quantity in stock is at most the threshold, ordered from the lowest quantity.
+ * Only such books are kept, so memory depends on number of books that are running out instead of all books.
+ * Books are seeded by one indexed query and then followed through books and sales committed through the session
+ * factory, changes made by other processes aren't seen until restart. When concurrent transactions change stock
+ * of the same book, their commits may be seen in either order until the next change of the book.
+ */
+public class StockWatchlist {
+    private static final Comparator<LowStockBook> STOCK_ORDER =
+            Comparator.comparingInt(LowStockBook::quantityInStock).thenComparingInt(LowStockBook::bookId);
+
+    public record LowStockBook(int bookId, String title, int quantityInStock) {
+    }
+
+    private final int threshold;
+    private final Map<Integer, LowStockBook> books = new HashMap<>();
+    private final NavigableSet<LowStockBook> byStock = new TreeSet<>(STOCK_ORDER);
+
+    private StockWatchlist(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * This method reads books which quantity in stock is at most the threshold and starts following
+     * books and sales committed through the session factory. Listeners are registered before reading,
+     * so no change committed during the load is missed.
+     * @param sessionFactory The Hibernate session factory of the primary database
+     * @param threshold The largest quantity in stock of books on the watchlist
+     * @return Loaded watchlist
+     */
+    public static StockWatchlist load(SessionFactory sessionFactory, int threshold) {
+        StockWatchlist watchlist = new StockWatchlist(threshold);
+        EventListenerRegistry listeners = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        CommitListener listener = watchlist.new CommitListener();
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            session.beginTransaction();
+            for (Object[] row : session.createNamedQuery(Book.LOW_STOCK_QUERY, Object[].class)
+                    .setParameter("threshold", threshold)
+                    .list()) {
+                watchlist.update((Integer) row[0], (String) row[1], (Integer) row[2]);
+            }
+            session.getTransaction().commit();
+        }
+        return watchlist;
+    }
+
+    /**
+     * @return The largest quantity in stock of books on the watchlist
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return Number of books on the watchlist
+     */
+    public synchronized int size() {
+        return books.size();
+    }
+
+    /**
+     * This method gives books with the lowest quantity in stock, it reads only as many books as it gives
+     * @param limit Maximal number of books
+     * @return Books ordered from the lowest quantity in stock
+     */
+    public synchronized List<LowStockBook> getBooks(int limit) {
+        List<LowStockBook> lowStockBooks = new ArrayList<>(Math.min(limit, byStock.size()));
+        for (LowStockBook book : byStock) {
+            if (lowStockBooks.size() == limit) {
+                break;
+            }
+            lowStockBooks.add(book);
+        }
+        return lowStockBooks;
+    }
+
+    private synchronized void update(int bookId, String title, int quantityInStock) {
+        LowStockBook oldBook = books.remove(bookId);
+        if (oldBook != null) {
+            byStock.remove(oldBook);
+        }
+        if (quantityInStock <= threshold) {
+            LowStockBook book = new LowStockBook(bookId, title, quantityInStock);
+            books.put(bookId, book);
+            byStock.add(book);
+        }
+    }
+
+    /**
+     * Updates stock of books after transactions that insert or update books, or insert their sales, commit.
+     * Book of a committed sale has quantity in stock left after the sale.
+     */
+    private class CommitListener implements PostCommitInsertEventListener, PostCommitUpdateEventListener {
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            Object entity = event.getEntity();
+            if (entity instanceof Sale sale) {
+                Book book = sale.getBook();
+                update(book.getBookID(), book.getTitle(), book.getQuantityInStock());
+            } else if (entity instanceof Book book) {
+                update(book.getBookID(), book.getTitle(), book.getQuantityInStock());
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (event.getEntity() instanceof Book book) {
+                update(book.getBookID(), book.getTitle(), book.getQuantityInStock());
+            }
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.bookstore;
+
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * HikariCP connection provider that times every SQL statement executed through its connections.
+ * Hibernate creates it from the "connection.provider_class" property in hibernate.cfg.xml.
+ * Statements given by connections are wrapped, so their execute methods are measured with {@link System#nanoTime()}
+ * and recorded in {@link QueryMetrics} by SQL of the statement. Rows read from result sets after execution
+ * aren't included, and a batch is recorded once for all its rows.
+ * Batches of plain statements have no single SQL, so they aren't recorded.
+ */
+public class TimedConnectionProvider extends HikariCPConnectionProvider {
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = super.getConnection();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof Statement statement) {
+                        String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+                        return timed(statement, sql);
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * This method wraps the statement, so its execute methods are timed
+     * @param statement The statement
+     * @param sql SQL of prepared statement or null for plain statement, which SQL is given to execute methods
+     * @return Timed statement that implements the same interface
+     */
+    private static Statement timed(Statement statement, String sql) {
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (!method.getName().startsWith("execute")) {
+                return invoke(statement, method, args);
+            }
+            String executedSql = args != null && args.length > 0 && args[0] instanceof String given ? given : sql;
+            long startTime = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = invoke(statement, method, args);
+                failed = false;
+                return result;
+            } finally {
+                if (executedSql != null) {
+                    QueryMetrics.recordStatement(executedSql, System.nanoTime() - startTime, failed);
+                }
+            }
+        };
+        return (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Executes every operation in its own short-lived session and transaction.
+ * Entities loaded by an operation stop being managed when it finishes, so memory used by sessions
+ * doesn't grow with number of executed operations.
+ * Operation can roll back its changes without throwing exception by marking the transaction
+ * of the session with {@code session.getTransaction().markRollbackOnly()}.
+ */
+public class UnitOfWork {
+    private final Supplier<SessionFactory> sessionFactory;
+    private final boolean readOnly;
+
+    public UnitOfWork(SessionFactory sessionFactory) {
+        this(() -> sessionFactory, false);
+    }
+
+    /**
+     * @param sessionFactory Supplier of session factory, it is asked for every operation,
+     *                       for example {@code HibernateUtil::getReadOnlySessionFactory}
+     * @param readOnly Whether entities loaded by operations are read-only, so they aren't dirty-checked
+     */
+    public UnitOfWork(Supplier<SessionFactory> sessionFactory, boolean readOnly) {
+        this.sessionFactory = sessionFactory;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * This method executes the operation in new session and transaction.
+     * Transaction is committed when operation finishes, unless it was marked as rollback only,
+     * and it is rolled back when operation throws exception.
+     * @param work The operation
+     * @return Result of the operation
+     */
+    public <T> T execute(Function<Session, T> work) {
+        try (Session session = sessionFactory.get().openSession()) {
+            session.setDefaultReadOnly(readOnly);
+            Transaction transaction = session.beginTransaction();
+            try {
+                T result = work.apply(session);
+                if (transaction.getRollbackOnly()) {
+                    transaction.rollback();
+                } else {
+                    transaction.commit();
+                }
+                return result;
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * This method executes the operation that doesn't give result in new session and transaction
+     * @param work The operation
+     */
+    public void run(Consumer<Session> work) {
+        execute(session -> {
+            work.accept(session);
+            return null;
+        });
+    }
+
+    /**
+     * This method tells whether operation failed because a constraint of the database rejected its changes,
+     * so executing it again would fail the same way
+     * @param e The exception thrown by the operation
+     * @return True if the exception was caused by a constraint violation
+     */
+    static boolean isConstraintViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
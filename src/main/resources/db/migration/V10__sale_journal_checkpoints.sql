@@ -0,0 +1,7 @@
+-- Sequence number of the last journal record of SaleIngestion that was committed, written in the same
+-- transaction as the sales, so records replayed from the journal after a crash are applied exactly once
+CREATE TABLE sale_journal_checkpoints (
+    journal VARCHAR(255) NOT NULL,
+    last_sequence BIGINT NOT NULL,
+    PRIMARY KEY (journal)
+);
@@ -0,0 +1,84 @@
+-- Sales are range partitioned by date_of_sale into monthly partitions named sales_yYYYYmMM, so queries
+-- with date filters read only partitions of their dates and old months can be archived by dropping
+-- their partitions, see SalesPartitions. Sales without date or with date without partition go to sales_default.
+-- The table is copied, so this migration should run while the application is stopped.
+-- Primary keys are per partition, as partition key can't be a part of primary key while it is nullable,
+-- identifiers stay unique across partitions because they come from sales_seq.
+ALTER TABLE sales RENAME TO sales_unpartitioned;
+ALTER TABLE sales_unpartitioned DROP CONSTRAINT IF EXISTS fk_sales_order;
+DROP INDEX IF EXISTS idx_sales_customer_date_id;
+DROP INDEX IF EXISTS idx_sales_book_total_price;
+DROP INDEX IF EXISTS idx_sales_order;
+
+CREATE TABLE sales (
+    sale_id INTEGER NOT NULL,
+    book_id INTEGER NOT NULL REFERENCES books,
+    customer_id INTEGER NOT NULL REFERENCES customers,
+    date_of_sale DATE,
+    quantity_sold INTEGER CHECK (quantity_sold >= 0) NOT NULL,
+    total_price REAL CHECK (total_price >= 0) NOT NULL,
+    order_id INTEGER CONSTRAINT fk_sales_order REFERENCES orders
+) PARTITION BY RANGE (date_of_sale);
+
+CREATE INDEX idx_sales_customer_date_id ON sales (customer_id, date_of_sale, sale_id);
+CREATE INDEX idx_sales_book_total_price ON sales (book_id, total_price);
+CREATE INDEX idx_sales_order ON sales (order_id);
+
+CREATE TABLE sales_default PARTITION OF sales DEFAULT;
+ALTER TABLE sales_default ADD PRIMARY KEY (sale_id);
+
+-- Months whose partitions were moved to files by the archival job
+CREATE TABLE sales_archives (
+    partition_name VARCHAR(255) NOT NULL,
+    from_date DATE NOT NULL,
+    to_date DATE NOT NULL,
+    file_name VARCHAR(1024) NOT NULL,
+    sales_count BIGINT NOT NULL,
+    revenue DOUBLE PRECISION NOT NULL,
+    archived_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (partition_name)
+);
+
+-- Totals of archived sales of every book, they are added to sales by all-time revenue reports
+CREATE TABLE archived_book_sales (
+    book_id INTEGER NOT NULL REFERENCES books,
+    revenue DOUBLE PRECISION NOT NULL,
+    units BIGINT NOT NULL,
+    sales_count BIGINT NOT NULL,
+    PRIMARY KEY (book_id)
+);
+
+-- Creates partition of the month that contains given day, unless it exists or the month was archived.
+-- Sales of the month that went to the default partition are moved to the new one before it is attached,
+-- so attaching doesn't fail on them.
+CREATE FUNCTION create_sales_partition(month DATE) RETURNS BOOLEAN AS $$
+DECLARE
+    first_day DATE := date_trunc('month', month);
+    next_first_day DATE := first_day + INTERVAL '1 month';
+    new_partition TEXT := 'sales_y' || to_char(first_day, 'YYYY') || 'm' || to_char(first_day, 'MM');
+BEGIN
+    IF to_regclass(new_partition) IS NOT NULL
+            OR EXISTS (SELECT 1 FROM sales_archives a WHERE a.partition_name = new_partition) THEN
+        RETURN FALSE;
+    END IF;
+    EXECUTE format('CREATE TABLE %I (LIKE sales INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', new_partition);
+    EXECUTE format('ALTER TABLE %I ADD PRIMARY KEY (sale_id)', new_partition);
+    EXECUTE format('WITH moved AS (DELETE FROM sales_default '
+                   'WHERE date_of_sale >= %L AND date_of_sale < %L RETURNING *) '
+                   'INSERT INTO %I SELECT * FROM moved', first_day, next_first_day, new_partition);
+    EXECUTE format('ALTER TABLE sales ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                   new_partition, first_day, next_first_day);
+    RETURN TRUE;
+END
+$$ LANGUAGE plpgsql;
+
+SELECT create_sales_partition(CAST(month AS DATE))
+FROM generate_series(date_trunc('month', COALESCE((SELECT MIN(date_of_sale) FROM sales_unpartitioned), CURRENT_DATE)),
+                     date_trunc('month', CURRENT_DATE) + INTERVAL '3 months',
+                     INTERVAL '1 month') AS month;
+
+INSERT INTO sales (sale_id, book_id, customer_id, date_of_sale, quantity_sold, total_price, order_id)
+SELECT sale_id, book_id, customer_id, date_of_sale, quantity_sold, total_price, order_id
+FROM sales_unpartitioned;
+
+DROP TABLE sales_unpartitioned;
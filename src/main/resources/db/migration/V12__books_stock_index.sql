@@ -0,0 +1,3 @@
+-- The low-stock watchlist is seeded with books which quantity in stock is at most a threshold,
+-- this index serves it with a range scan over the few books that are running out.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_books_quantity_in_stock ON books (quantity_in_stock, book_id);
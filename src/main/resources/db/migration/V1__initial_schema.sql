@@ -0,0 +1,33 @@
+-- Schema as it was created by hbm2ddl before migrations were introduced.
+-- Databases created that way are baselined at this version and skip this script.
+CREATE SEQUENCE IF NOT EXISTS books_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS customers_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS sales_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS books (
+    book_id INTEGER NOT NULL,
+    title VARCHAR(255) NOT NULL,
+    author VARCHAR(255) NOT NULL,
+    genre VARCHAR(255) NOT NULL,
+    price REAL CHECK (price > 0) NOT NULL,
+    quantity_in_stock INTEGER CHECK (quantity_in_stock >= 0) NOT NULL,
+    PRIMARY KEY (book_id)
+);
+
+CREATE TABLE IF NOT EXISTS customers (
+    customer_id INTEGER NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    email VARCHAR(255) NOT NULL UNIQUE,
+    phone VARCHAR(255) NOT NULL,
+    PRIMARY KEY (customer_id)
+);
+
+CREATE TABLE IF NOT EXISTS sales (
+    sale_id INTEGER NOT NULL,
+    book_id INTEGER NOT NULL REFERENCES books,
+    customer_id INTEGER NOT NULL REFERENCES customers,
+    date_of_sale DATE,
+    quantity_sold INTEGER CHECK (quantity_sold >= 0) NOT NULL,
+    total_price REAL CHECK (total_price >= 0) NOT NULL,
+    PRIMARY KEY (sale_id)
+);
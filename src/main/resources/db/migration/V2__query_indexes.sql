@@ -0,0 +1,14 @@
+-- Indexes for every query path of ConsoleApp, they match @Table(indexes = ...) of Book and Sale.
+-- CONCURRENTLY keeps sales and books writable while indexes are built on large tables.
+
+-- Listing books by genre, and finding books of a genre for revenue reports
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_books_genre ON books (genre, book_id);
+
+-- Listing books by author
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_books_author ON books (author);
+
+-- Purchase history of a customer, ordered by date
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_sales_customer_date ON sales (customer_id, date_of_sale);
+
+-- Revenue reports join sales by book and sum total_price, this index covers them
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_sales_book_total_price ON sales (book_id, total_price);
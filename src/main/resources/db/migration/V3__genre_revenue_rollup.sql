@@ -0,0 +1,13 @@
+-- Revenue of every genre, kept up to date by each sale so revenue reports don't scan sales
+CREATE TABLE genre_revenues (
+    genre VARCHAR(255) NOT NULL,
+    revenue DOUBLE PRECISION NOT NULL,
+    sales_count BIGINT NOT NULL,
+    PRIMARY KEY (genre)
+);
+
+INSERT INTO genre_revenues (genre, revenue, sales_count)
+SELECT b.genre, SUM(CAST(s.total_price AS DOUBLE PRECISION)), COUNT(*)
+FROM sales s
+INNER JOIN books b ON b.book_id = s.book_id
+GROUP BY b.genre;
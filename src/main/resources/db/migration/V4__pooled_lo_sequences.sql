@@ -0,0 +1,11 @@
+-- Identifiers are now allocated with pooled-lo optimizer: value returned by a sequence is the lowest identifier
+-- of a block of INCREMENT BY identifiers. Sequences are moved past every identifier that was already used,
+-- so blocks allocated the new way never overlap rows inserted before.
+-- Allocation size follows INCREMENT BY of each sequence (increment_size_mismatch_strategy is "fix"),
+-- so it can be tuned per table, for example: ALTER SEQUENCE sales_seq INCREMENT BY 500;
+SELECT setval('books_seq', GREATEST((SELECT last_value FROM books_seq) + 50,
+                                    (SELECT COALESCE(MAX(book_id), 0) + 1 FROM books)), false);
+SELECT setval('customers_seq', GREATEST((SELECT last_value FROM customers_seq) + 50,
+                                        (SELECT COALESCE(MAX(customer_id), 0) + 1 FROM customers)), false);
+SELECT setval('sales_seq', GREATEST((SELECT last_value FROM sales_seq) + 50,
+                                    (SELECT COALESCE(MAX(sale_id), 0) + 1 FROM sales)), false);
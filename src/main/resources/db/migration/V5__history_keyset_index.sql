@@ -0,0 +1,5 @@
+-- Purchase history is paged by seeking on (date_of_sale, sale_id) within a customer,
+-- this index serves every page with a range scan that starts right after the previous page.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_sales_customer_date_id ON sales (customer_id, date_of_sale, sale_id);
+
+DROP INDEX CONCURRENTLY IF EXISTS idx_sales_customer_date;
@@ -0,0 +1,11 @@
+-- Search of books by title and author, see BookSearch.
+-- Prefix search uses btree indexes of lowercased values in "C" collation, they serve LIKE 'prefix%'
+-- and return matches already ordered. Typo-tolerant search uses trigram GiST indexes, they answer
+-- word similarity filters and return nearest values first, so top results are found without scanning books.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_books_title_prefix ON books ((lower(title) COLLATE "C"));
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_books_author_prefix ON books ((lower(author) COLLATE "C"));
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_books_title_trgm ON books USING gist (lower(title) gist_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_books_author_trgm ON books USING gist (lower(author) gist_trgm_ops);
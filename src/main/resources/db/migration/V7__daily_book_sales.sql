@@ -0,0 +1,16 @@
+-- Revenue, units and number of sales of every book per day, kept up to date by each sale
+-- so analytics over date ranges combine daily rows instead of scanning sales
+CREATE TABLE daily_book_sales (
+    sale_date DATE NOT NULL,
+    book_id INTEGER NOT NULL REFERENCES books,
+    revenue DOUBLE PRECISION NOT NULL,
+    units BIGINT NOT NULL,
+    sales_count BIGINT NOT NULL,
+    PRIMARY KEY (sale_date, book_id)
+);
+
+INSERT INTO daily_book_sales (sale_date, book_id, revenue, units, sales_count)
+SELECT s.date_of_sale, s.book_id, SUM(CAST(s.total_price AS DOUBLE PRECISION)), SUM(s.quantity_sold), COUNT(*)
+FROM sales s
+WHERE s.date_of_sale IS NOT NULL
+GROUP BY s.date_of_sale, s.book_id;
@@ -0,0 +1,15 @@
+-- Orders group sales of several books bought by a customer at once
+CREATE SEQUENCE IF NOT EXISTS orders_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE orders (
+    order_id INTEGER NOT NULL,
+    customer_id INTEGER NOT NULL REFERENCES customers,
+    date_of_order DATE NOT NULL,
+    total_price REAL CHECK (total_price >= 0) NOT NULL,
+    PRIMARY KEY (order_id)
+);
+
+-- Existing sales don't belong to any order, the constraint is validated by the next migration
+-- so adding it doesn't block writes to sales while they are scanned
+ALTER TABLE sales ADD COLUMN order_id INTEGER;
+ALTER TABLE sales ADD CONSTRAINT fk_sales_order FOREIGN KEY (order_id) REFERENCES orders NOT VALID;
@@ -0,0 +1,4 @@
+-- Sales of an order are loaded by order_id
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_sales_order ON sales (order_id);
+
+ALTER TABLE sales VALIDATE CONSTRAINT fk_sales_order;
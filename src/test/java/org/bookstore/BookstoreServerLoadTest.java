@@ -0,0 +1,171 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Thousands of clients send requests to the server at once, every client sends its next request when
+ * the previous one is answered. Clients list books, read purchase history and buy books.
+ */
+class BookstoreServerLoadTest {
+    private static final int CLIENT_COUNT = 2000;
+    private static final int REQUESTS_PER_CLIENT = 5;
+    private static final int BOOK_COUNT = 1000;
+    private static final int CUSTOMER_COUNT = 1000;
+    private static final int GENRE_COUNT = 20;
+    private static final int THREAD_COUNT = 64;
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final long REQUEST_TIMEOUT_SECONDS = 60;
+
+    private static SessionFactory sessionFactory;
+    private static HttpClient httpClient;
+
+    @BeforeAll
+    static void startDatabase() {
+        sessionFactory = TestDatabase.start("bookstore-server-load");
+        TestDatabase.seed(sessionFactory, BOOK_COUNT, 1000, CUSTOMER_COUNT);
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        HibernateUtil.shutdown();
+    }
+
+    @Test
+    void servesThousandsOfConcurrentClients() throws Exception {
+        int databasePermits = HibernateUtil.getSetting("hibernate.hikari.maximumPoolSize", 10);
+        LoadResult result = runLoad(databasePermits, 30_000);
+
+        System.out.printf("%d clients: %s%n", CLIENT_COUNT, result);
+        assertEquals(0, result.unexpectedResponses.get(), "Unexpected responses: " + result.statuses);
+        assertEquals(0, result.rejections.get(), "Requests were rejected although the database wait was long.");
+        assertEquals((long) CLIENT_COUNT * REQUESTS_PER_CLIENT, result.successes.get());
+    }
+
+    @Test
+    void shedsLoadWithRetryAfterWhenDatabaseIsBusy() throws Exception {
+        LoadResult result = runLoad(1, 1);
+
+        System.out.printf("%d clients, one database permit: %s%n", CLIENT_COUNT, result);
+        assertEquals(0, result.unexpectedResponses.get(), "Unexpected responses: " + result.statuses);
+        assertEquals(0, result.rejectionsWithoutRetryAfter.get(), "503 was sent without Retry-After.");
+        assertTrue(result.rejections.get() > 0, "No request was rejected with 503.");
+        assertTrue(result.successes.get() > 0, "No request was served.");
+    }
+
+    private static LoadResult runLoad(int databasePermits, long permitTimeoutMillis) throws Exception {
+        BookstoreServer server = new BookstoreServer(sessionFactory, () -> sessionFactory, 0, THREAD_COUNT,
+                QUEUE_CAPACITY, databasePermits, permitTimeoutMillis);
+        server.start();
+        try {
+            String baseUri = "http://localhost:" + server.getPort();
+            LoadResult result = new LoadResult(CLIENT_COUNT * REQUESTS_PER_CLIENT);
+            long startTime = System.nanoTime();
+            List<CompletableFuture<Void>> clients = new ArrayList<>(CLIENT_COUNT);
+            for (int client = 0; client < CLIENT_COUNT; client++) {
+                clients.add(runClient(baseUri, result, REQUESTS_PER_CLIENT));
+            }
+            CompletableFuture.allOf(clients.toArray(new CompletableFuture[0])).get();
+            result.nanos = System.nanoTime() - startTime;
+
+            HttpResponse<String> afterLoad = httpClient.send(HttpRequest.newBuilder(
+                    URI.create(baseUri + "/books?genre=Genre%201")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, afterLoad.statusCode(), "Server doesn't serve requests after the load.");
+            return result;
+        } finally {
+            server.stop(1);
+        }
+    }
+
+    private static CompletableFuture<Void> runClient(String baseUri, LoadResult result, int remainingRequests) {
+        if (remainingRequests == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long startTime = System.nanoTime();
+        return httpClient.sendAsync(nextRequest(baseUri), HttpResponse.BodyHandlers.discarding())
+                .thenCompose(response -> {
+                    result.record(response, System.nanoTime() - startTime);
+                    return runClient(baseUri, result, remainingRequests - 1);
+                });
+    }
+
+    private static HttpRequest nextRequest(String baseUri) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int customerId = 1 + random.nextInt(CUSTOMER_COUNT);
+        HttpRequest.Builder request = switch (random.nextInt(3)) {
+            case 0 -> HttpRequest.newBuilder(URI.create(baseUri + "/books?genre=Genre%20"
+                    + random.nextInt(GENRE_COUNT)));
+            case 1 -> HttpRequest.newBuilder(URI.create(baseUri + "/customers/" + customerId + "/sales?limit=20"));
+            default -> HttpRequest.newBuilder(URI.create(baseUri + "/sales"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString("bookId=" + (1 + random.nextInt(BOOK_COUNT))
+                            + "&customerId=" + customerId + "&quantity=1"));
+        };
+        return request.timeout(Duration.ofSeconds(REQUEST_TIMEOUT_SECONDS)).build();
+    }
+
+    private static class LoadResult {
+        private final long[] latencies;
+        private final AtomicInteger latencyCount = new AtomicInteger();
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+        private final AtomicLong rejectionsWithoutRetryAfter = new AtomicLong();
+        private final AtomicLong unexpectedResponses = new AtomicLong();
+        private final ConcurrentHashMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+        private long nanos;
+
+        private LoadResult(int requestCount) {
+            latencies = new long[requestCount];
+        }
+
+        private void record(HttpResponse<?> response, long latencyNanos) {
+            latencies[latencyCount.getAndIncrement()] = latencyNanos;
+            int status = response.statusCode();
+            statuses.computeIfAbsent(status, key -> new AtomicLong()).incrementAndGet();
+            if (status == 200 || status == 201) {
+                successes.incrementAndGet();
+            } else if (status == 503) {
+                rejections.incrementAndGet();
+                if (response.headers().firstValue("Retry-After").isEmpty()) {
+                    rejectionsWithoutRetryAfter.incrementAndGet();
+                }
+            } else {
+                unexpectedResponses.incrementAndGet();
+            }
+        }
+
+        @Override
+        public String toString() {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount.get());
+            Arrays.sort(sorted);
+            return String.format("%.0f requests/s, p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms, "
+                            + "%d served, %d rejected with 503",
+                    sorted.length / (nanos / 1e9), percentile(sorted, 0.5), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6, successes.get(), rejections.get());
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+        }
+    }
+}
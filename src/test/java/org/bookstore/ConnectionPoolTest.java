@@ -0,0 +1,94 @@
+package org.bookstore;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many threads run short transactions while the connection pool grows from one connection to eight.
+ * Every transaction holds its connection for a moment after the query, as it would while waiting for
+ * a remote database, so throughput is limited by number of connections rather than by CPU.
+ */
+class ConnectionPoolTest {
+    private static final int[] POOL_SIZES = {1, 2, 4, 8};
+    private static final int THREAD_COUNT = 32;
+    private static final int OPERATION_COUNT = 1000;
+    private static final long DATABASE_LATENCY_MILLIS = 2;
+    private static final int BOOK_COUNT = 1000;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeAll
+    static void startDatabase() {
+        System.setProperty("hibernate.hikari.minimumIdle", "1");
+        System.setProperty("hibernate.hikari.maximumPoolSize", "1");
+        sessionFactory = TestDatabase.start("connection-pool");
+        TestDatabase.seed(sessionFactory, BOOK_COUNT, 100, 10);
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        HibernateUtil.shutdown();
+    }
+
+    @Test
+    void throughputGrowsWithPoolSize() throws Exception {
+        HikariDataSource dataSource = sessionFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .requireService(ConnectionProvider.class).unwrap(HikariDataSource.class);
+        UnitOfWork unitOfWork = new UnitOfWork(sessionFactory);
+        double[] throughputs = new double[POOL_SIZES.length];
+        for (int i = 0; i < POOL_SIZES.length; i++) {
+            dataSource.getHikariConfigMXBean().setMaximumPoolSize(POOL_SIZES[i]);
+            throughputs[i] = runOperations(unitOfWork);
+            PoolMetrics.Snapshot poolMetrics = HibernateUtil.getPoolMetrics();
+            assertNotNull(poolMetrics);
+            assertTrue(poolMetrics.totalConnections() <= POOL_SIZES[i], "Pool opened more connections than its size.");
+            System.out.printf("pool size %d: %.0f operations/s, %s%n", POOL_SIZES[i], throughputs[i], poolMetrics);
+        }
+        assertTrue(throughputs[POOL_SIZES.length - 1] > 3 * throughputs[0],
+                "Eight connections should give more than three times throughput of one connection.");
+    }
+
+    private static double runOperations(UnitOfWork unitOfWork) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        long startTime = System.nanoTime();
+        try {
+            List<Future<?>> operations = new ArrayList<>();
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+                operations.add(executor.submit(() -> unitOfWork.run(session -> {
+                    session.get(Book.class, 1 + ThreadLocalRandom.current().nextInt(BOOK_COUNT));
+                    session.doWork(connection -> sleep());
+                })));
+            }
+            for (Future<?> operation : operations) {
+                operation.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return OPERATION_COUNT / ((System.nanoTime() - startTime) / 1e9);
+    }
+
+    private static void sleep() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(DATABASE_LATENCY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
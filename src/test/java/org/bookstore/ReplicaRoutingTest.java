@@ -0,0 +1,114 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Read-only work is routed between a primary and two replicas in embedded databases. One replica can't be
+ * reached, the other one reports its replication lag from a table that the test changes or drops.
+ */
+class ReplicaRoutingTest {
+    private static final String REPLICA_URL = TestDatabase.url("replica-routing-replica");
+    private static final String UNREACHABLE_REPLICA_URL = "jdbc:h2:tcp://localhost:1/unreachable;MODE=PostgreSQL";
+    private static final String PRIMARY_TITLE = "Title 1";
+    private static final String REPLICA_TITLE = "Replica title";
+    private static final long LAG_CHECK_INTERVAL_MILLIS = 50;
+    private static final long ROUTING_TIMEOUT_MILLIS = 5000;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeAll
+    static void startDatabases() throws SQLException {
+        setReplicaLag(0);
+        System.setProperty("bookstore.replica.urls", UNREACHABLE_REPLICA_URL + "," + REPLICA_URL);
+        System.setProperty("bookstore.replica.lagQuery", "SELECT lag_seconds FROM replica_lag");
+        System.setProperty("bookstore.replica.maxLagSeconds", "1");
+        System.setProperty("bookstore.replica.lagCheckIntervalMillis", String.valueOf(LAG_CHECK_INTERVAL_MILLIS));
+        sessionFactory = TestDatabase.startAt(TestDatabase.url("replica-routing-primary"));
+        TestDatabase.seed(sessionFactory, 1, 100, 1);
+        executeOnReplica("INSERT INTO books (book_id, title, author, genre, price, quantity_in_stock) " +
+                "VALUES (1, '" + REPLICA_TITLE + "', 'Author', 'Genre', 10, 100)");
+    }
+
+    @AfterAll
+    static void stopDatabases() {
+        HibernateUtil.shutdown();
+    }
+
+    @Test
+    void readsFollowReplicationLag() throws Exception {
+        setReplicaLag(0);
+        awaitReadsFrom(REPLICA_TITLE);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(REPLICA_TITLE, readTitle(), "Read went to the primary or the unreachable replica.");
+        }
+        assertEquals(PRIMARY_TITLE, sessionFactory.fromSession(session -> session.get(Book.class, 1).getTitle()),
+                "Primary session factory reads from the replica.");
+
+        setReplicaLag(5);
+        awaitReadsFrom(PRIMARY_TITLE);
+        assertTrue(HibernateUtil.getReplicaStatus().stream().anyMatch(status ->
+                status.startsWith(REPLICA_URL) && status.endsWith("not available")),
+                "Lagging replica is reported as available: " + HibernateUtil.getReplicaStatus());
+
+        setReplicaLag(0);
+        awaitReadsFrom(REPLICA_TITLE);
+    }
+
+    @Test
+    void unreachableReplicasAreSkipped() throws Exception {
+        setReplicaLag(0);
+        awaitReadsFrom(REPLICA_TITLE);
+        assertTrue(HibernateUtil.getReplicaStatus().stream().noneMatch(status ->
+                status.startsWith(UNREACHABLE_REPLICA_URL) && status.endsWith(": available")),
+                "Unreachable replica is reported as available: " + HibernateUtil.getReplicaStatus());
+
+        executeOnReplica("DROP TABLE replica_lag");
+        awaitReadsFrom(PRIMARY_TITLE);
+
+        setReplicaLag(0);
+        awaitReadsFrom(REPLICA_TITLE);
+    }
+
+    private static String readTitle() {
+        return HibernateUtil.getReadOnlySessionFactory().fromSession(session ->
+                session.get(Book.class, 1).getTitle());
+    }
+
+    private static void awaitReadsFrom(String expectedTitle) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ROUTING_TIMEOUT_MILLIS);
+        Supplier<String> message = () -> "Reads didn't go to the database with book \"" + expectedTitle
+                + "\", replicas: " + HibernateUtil.getReplicaStatus();
+        while (!expectedTitle.equals(readTitle())) {
+            assertTrue(System.nanoTime() < deadline, message);
+            TimeUnit.MILLISECONDS.sleep(LAG_CHECK_INTERVAL_MILLIS);
+        }
+    }
+
+    private static void setReplicaLag(double lagSeconds) throws SQLException {
+        executeOnReplica("DROP TABLE IF EXISTS replica_lag",
+                "CREATE TABLE replica_lag (lag_seconds DOUBLE PRECISION NOT NULL)",
+                "INSERT INTO replica_lag VALUES (" + lagSeconds + ")");
+    }
+
+    private static void executeOnReplica(String... statements) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(REPLICA_URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.bookstore;
+
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Counts statements that Hibernate prepares for purchase history and the sold-book report.
+ * Caches are cleared before every test, so a book that isn't fetched together with its sale
+ * would cost one more statement.
+ */
+class SaleFetchPlanTest {
+    private static final int BOOK_COUNT = 50;
+    private static final int CUSTOMER_COUNT = 10;
+    private static final long SALES_COUNT = 500;
+    private static final int PAGE_SIZE = 100;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeAll
+    static void startDatabase() {
+        sessionFactory = TestDatabase.start("sale-fetch-plan");
+        TestDatabase.seed(sessionFactory, BOOK_COUNT, 100, CUSTOMER_COUNT);
+        TestDatabase.seedSales(sessionFactory, SALES_COUNT, BOOK_COUNT, CUSTOMER_COUNT);
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        HibernateUtil.shutdown();
+    }
+
+    @BeforeEach
+    void clearStatistics() {
+        sessionFactory.getCache().evictAllRegions();
+        sessionFactory.getStatistics().clear();
+    }
+
+    @Test
+    void purchaseHistoryLoadsSalesWithBooksInOneStatement() {
+        Statistics statistics = sessionFactory.getStatistics();
+        BookstoreService bookstoreService = new BookstoreService();
+        Set<String> titles = new HashSet<>();
+        List<Sale> sales = sessionFactory.fromSession(session -> {
+            List<Sale> page = bookstoreService.getPurchaseHistoryPage(session, 1, null, null, null, PAGE_SIZE);
+            for (Sale sale : page) {
+                assertTrue(Hibernate.isInitialized(sale.getBook()), "Book of sale " + sale.getSaleID()
+                        + " wasn't fetched with the sale.");
+                titles.add(sale.getBook().getTitle());
+            }
+            return page;
+        });
+
+        assertEquals(SALES_COUNT / CUSTOMER_COUNT, sales.size());
+        assertTrue(titles.size() > 1, "Sales of the customer should be of different books.");
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityFetchCount());
+    }
+
+    @Test
+    void soldBookReportIsOneStatement() {
+        Statistics statistics = sessionFactory.getStatistics();
+        long rowCount = new BookstoreService().streamSoldBooks(sessionFactory, row -> {
+        });
+
+        assertEquals(SALES_COUNT, rowCount);
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityFetchCount());
+    }
+}
@@ -0,0 +1,97 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hundreds of threads sell a few hot books at once until their stock runs out.
+ */
+class SaleProcessorTest {
+    private static final int HOT_BOOK_COUNT = 5;
+    private static final int QUANTITY_IN_STOCK = 2000;
+    private static final int CUSTOMER_COUNT = 100;
+    private static final int THREAD_COUNT = 200;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeAll
+    static void startDatabase() {
+        sessionFactory = TestDatabase.start("sale-processor");
+        TestDatabase.seed(sessionFactory, HOT_BOOK_COUNT, QUANTITY_IN_STOCK, CUSTOMER_COUNT);
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        HibernateUtil.shutdown();
+    }
+
+    @Test
+    void concurrentSalesNeverOversell() throws Exception {
+        SaleProcessor saleProcessor = new SaleProcessor(sessionFactory);
+        AtomicLong sales = new AtomicLong();
+        AtomicLong rejectedSales = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        long startTime = System.nanoTime();
+        try {
+            List<Future<?>> callers = new ArrayList<>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                callers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int rejectedInRow = 0;
+                    while (rejectedInRow < 20) {
+                        int bookId = 1 + random.nextInt(HOT_BOOK_COUNT);
+                        int customerId = 1 + random.nextInt(CUSTOMER_COUNT);
+                        if (saleProcessor.processSale(bookId, customerId, 1 + random.nextInt(3)) == null) {
+                            rejectedSales.incrementAndGet();
+                            rejectedInRow++;
+                        } else {
+                            sales.incrementAndGet();
+                            rejectedInRow = 0;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> caller : callers) {
+                caller.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("%d sales and %d rejected sales by %d threads, %.0f sales/s%n",
+                sales.get(), rejectedSales.get(), THREAD_COUNT, sales.get() / seconds);
+
+        sessionFactory.inSession(session -> {
+            for (int bookId = 1; bookId <= HOT_BOOK_COUNT; bookId++) {
+                int quantityInStock = session.createNativeQuery(
+                                "SELECT quantity_in_stock FROM books WHERE book_id = :bookId", Integer.class)
+                        .setParameter("bookId", bookId)
+                        .getSingleResult();
+                long quantitySold = session.createNativeQuery(
+                                "SELECT COALESCE(SUM(quantity_sold), 0) FROM sales WHERE book_id = :bookId", Long.class)
+                        .setParameter("bookId", bookId)
+                        .getSingleResult();
+                assertTrue(quantityInStock >= 0, "Stock of book " + bookId + " is negative.");
+                assertEquals(QUANTITY_IN_STOCK, quantityInStock + quantitySold,
+                        "Stock and sold quantity of book " + bookId + " don't add up to the initial stock.");
+                assertTrue(quantityInStock < 3, "Book " + bookId + " wasn't sold out.");
+            }
+            long salesCount = session.createNativeQuery("SELECT COUNT(*) FROM sales", Long.class).getSingleResult();
+            assertEquals(sales.get(), salesCount);
+        });
+    }
+}
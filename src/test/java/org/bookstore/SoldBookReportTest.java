@@ -0,0 +1,75 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The sold-book report streams two million sales, more rows than the heap could hold at once. Surefire runs
+ * this class with a small heap, see the "small-heap-tests" execution in pom.xml, and the database is kept
+ * in a file, so the heap holds only the rows that are being streamed. H2 reads rows of the query lazily,
+ * as PostgreSQL does with a cursor, otherwise it would copy the whole result before the first row is returned.
+ */
+class SoldBookReportTest {
+    private static final long SALES_COUNT = 2_000_000;
+    private static final int BOOK_COUNT = 100_000;
+    private static final int CUSTOMER_COUNT = 200_000;
+    private static final long HEAP_CHECK_INTERVAL = 200_000;
+    private static final long MAX_HEAP_GROWTH_BYTES = 16L * 1024 * 1024;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeAll
+    static void startDatabase() {
+        sessionFactory = TestDatabase.startAt("jdbc:h2:file:./target/test-databases/sold-book-report;MODE=PostgreSQL;"
+                + "LAZY_QUERY_EXECUTION=TRUE");
+        TestDatabase.seed(sessionFactory, BOOK_COUNT, 100, CUSTOMER_COUNT);
+        TestDatabase.seedSales(sessionFactory, SALES_COUNT, BOOK_COUNT, CUSTOMER_COUNT);
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        HibernateUtil.shutdown();
+    }
+
+    @Test
+    void reportStreamsInConstantMemory() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long[] firstRowNanos = new long[1];
+        long[] heapAfterFirstCheck = new long[1];
+        long[] maxHeapGrowth = new long[1];
+        long[] rows = new long[1];
+        BookstoreService bookstoreService = new BookstoreService(null);
+        long startTime = System.nanoTime();
+        long rowCount = bookstoreService.streamSoldBooks(sessionFactory, row -> {
+            if (rows[0]++ == 0) {
+                firstRowNanos[0] = System.nanoTime() - startTime;
+            }
+            if (rows[0] % HEAP_CHECK_INTERVAL == 0) {
+                System.gc();
+                long usedHeap = memory.getHeapMemoryUsage().getUsed();
+                if (rows[0] == HEAP_CHECK_INTERVAL) {
+                    heapAfterFirstCheck[0] = usedHeap;
+                }
+                maxHeapGrowth[0] = Math.max(maxHeapGrowth[0], usedHeap - heapAfterFirstCheck[0]);
+                System.out.printf("%d rows, used heap %d MB%n", rows[0], usedHeap / 1024 / 1024);
+            }
+        });
+        long totalNanos = System.nanoTime() - startTime;
+        System.out.printf("First row after %.1f ms, %d rows after %.1f s, max heap %d MB%n", firstRowNanos[0] / 1e6,
+                rowCount, totalNanos / 1e9, memory.getHeapMemoryUsage().getMax() / 1024 / 1024);
+
+        assertEquals(SALES_COUNT, rowCount);
+        assertEquals(SALES_COUNT, rows[0]);
+        assertTrue(maxHeapGrowth[0] < MAX_HEAP_GROWTH_BYTES,
+                "Heap grew by " + maxHeapGrowth[0] / 1024 / 1024 + " MB while the report was streamed.");
+        assertTrue(firstRowNanos[0] < totalNanos / 10, "First row came only after most of the report was read.");
+    }
+}
@@ -0,0 +1,116 @@
+package org.bookstore;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+/**
+ * Embedded H2 database in PostgreSQL mode used by tests, seeded with synthetic books, customers and sales.
+ * It is configured with system properties, which override settings of hibernate.cfg.xml in {@link HibernateUtil},
+ * so every test class should run in its own JVM.
+ */
+final class TestDatabase {
+    private static final int SEED_BATCH_SIZE = 100_000;
+    private static final String SEED_BOOKS_QUERY = "INSERT INTO books " +
+            "(book_id, title, author, genre, price, quantity_in_stock) " +
+            "SELECT X, CONCAT('Title ', X), CONCAT('Author ', MOD(X, 100)), CONCAT('Genre ', MOD(X, 20)), " +
+            "5 + MOD(X, 50), :quantityInStock " +
+            "FROM SYSTEM_RANGE(1, :bookCount)";
+    private static final String SEED_CUSTOMERS_QUERY = "INSERT INTO customers " +
+            "(customer_id, name, email, phone) " +
+            "SELECT X, CONCAT('Customer ', X), CONCAT('customer', X, '@example.com'), CONCAT('555', X) " +
+            "FROM SYSTEM_RANGE(1, :customerCount)";
+    private static final String SEED_SALES_QUERY = "INSERT INTO sales " +
+            "(sale_id, book_id, customer_id, date_of_sale, quantity_sold, total_price) " +
+            "SELECT X, 1 + MOD(X * 7919, :bookCount), 1 + MOD(X, :customerCount), " +
+            "DATEADD(DAY, -MOD(X, 3650), CURRENT_DATE), 1, 5 + MOD(1 + MOD(X * 7919, :bookCount), 50) " +
+            "FROM SYSTEM_RANGE(:fromId, :toId)";
+
+    private TestDatabase() {
+    }
+
+    /**
+     * This method configures embedded in-memory database with the given name and starts the session factory
+     * @param name The name of the database
+     * @return The Hibernate session factory
+     */
+    static SessionFactory start(String name) {
+        return startAt(url(name));
+    }
+
+    /**
+     * This method gives JDBC URL of embedded in-memory database with the given name
+     * @param name The name of the database
+     * @return The JDBC URL
+     */
+    static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * This method configures database with the given H2 URL and starts the session factory.
+     * Schema is created by Hibernate, since migrations are written for PostgreSQL.
+     * @param url The JDBC URL of H2 database
+     * @return The Hibernate session factory
+     */
+    static SessionFactory startAt(String url) {
+        System.setProperty("hibernate.connection.url", url);
+        System.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        System.setProperty("hibernate.connection.username", "sa");
+        System.setProperty("hibernate.connection.password", "");
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        System.setProperty("bookstore.schema.migrate", "false");
+        SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+        if (sessionFactory == null) {
+            throw new IllegalStateException("Session factory of " + url + " can't be started.");
+        }
+        return sessionFactory;
+    }
+
+    /**
+     * This method inserts books and customers, sequences of identifiers continue after them
+     * @param sessionFactory The Hibernate session factory
+     * @param bookCount Number of books
+     * @param quantityInStock Quantity in stock of every book
+     * @param customerCount Number of customers
+     */
+    static void seed(SessionFactory sessionFactory, int bookCount, int quantityInStock, int customerCount) {
+        sessionFactory.inTransaction(session -> {
+            session.createNativeMutationQuery(SEED_BOOKS_QUERY)
+                    .setParameter("quantityInStock", quantityInStock)
+                    .setParameter("bookCount", bookCount)
+                    .executeUpdate();
+            session.createNativeMutationQuery(SEED_CUSTOMERS_QUERY)
+                    .setParameter("customerCount", customerCount)
+                    .executeUpdate();
+            restartSequence(session, "books_seq", bookCount);
+            restartSequence(session, "customers_seq", customerCount);
+        });
+    }
+
+    /**
+     * This method inserts sales of seeded books and customers in transactions of a hundred thousand sales,
+     * so the database doesn't hold all of them uncommitted
+     * @param sessionFactory The Hibernate session factory
+     * @param salesCount Number of sales
+     * @param bookCount Number of seeded books
+     * @param customerCount Number of seeded customers
+     */
+    static void seedSales(SessionFactory sessionFactory, long salesCount, int bookCount, int customerCount) {
+        for (long fromId = 1; fromId <= salesCount; fromId += SEED_BATCH_SIZE) {
+            long toId = Math.min(salesCount, fromId + SEED_BATCH_SIZE - 1);
+            long from = fromId;
+            sessionFactory.inTransaction(session -> session.createNativeMutationQuery(SEED_SALES_QUERY)
+                    .setParameter("bookCount", bookCount)
+                    .setParameter("customerCount", customerCount)
+                    .setParameter("fromId", from)
+                    .setParameter("toId", toId)
+                    .executeUpdate());
+        }
+        sessionFactory.inTransaction(session -> restartSequence(session, "sales_seq", salesCount));
+    }
+
+    private static void restartSequence(Session session, String sequence, long seededRows) {
+        session.createNativeMutationQuery("ALTER SEQUENCE " + sequence + " RESTART WITH " + (seededRows + 1000))
+                .executeUpdate();
+    }
+}
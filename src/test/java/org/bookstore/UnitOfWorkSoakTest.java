@@ -0,0 +1,91 @@
+package org.bookstore;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A million operations read and change books and customers, every one in its own unit of work,
+ * some of them roll back or fail. Surefire runs this class with a small heap, see the "small-heap-tests"
+ * execution in pom.xml, and used heap has to stay flat, since nothing outlives the session of an operation.
+ */
+class UnitOfWorkSoakTest {
+    private static final int OPERATION_COUNT = 1_000_000;
+    private static final int BOOK_COUNT = 10_000;
+    private static final int CUSTOMER_COUNT = 10_000;
+    private static final int HEAP_CHECK_INTERVAL = 100_000;
+    private static final long MAX_HEAP_GROWTH_BYTES = 16L * 1024 * 1024;
+
+    private static SessionFactory sessionFactory;
+
+    @BeforeAll
+    static void startDatabase() {
+        sessionFactory = TestDatabase.start("unit-of-work-soak");
+        TestDatabase.seed(sessionFactory, BOOK_COUNT, 100, CUSTOMER_COUNT);
+    }
+
+    @AfterAll
+    static void stopDatabase() {
+        HibernateUtil.shutdown();
+    }
+
+    @Test
+    void heapStaysFlatAcrossOperations() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        UnitOfWork unitOfWork = new UnitOfWork(sessionFactory);
+        long heapAfterFirstCheck = 0;
+        long maxHeapGrowth = 0;
+        long startTime = System.nanoTime();
+        for (int operation = 1; operation <= OPERATION_COUNT; operation++) {
+            runOperation(unitOfWork, operation);
+            if (operation % HEAP_CHECK_INTERVAL == 0) {
+                System.gc();
+                long usedHeap = memory.getHeapMemoryUsage().getUsed();
+                if (operation == HEAP_CHECK_INTERVAL) {
+                    heapAfterFirstCheck = usedHeap;
+                }
+                maxHeapGrowth = Math.max(maxHeapGrowth, usedHeap - heapAfterFirstCheck);
+                System.out.printf("%d operations, used heap %d MB%n", operation, usedHeap / 1024 / 1024);
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("%d operations after %.1f s, %.0f operations/s, max heap %d MB%n", OPERATION_COUNT, seconds,
+                OPERATION_COUNT / seconds, memory.getHeapMemoryUsage().getMax() / 1024 / 1024);
+
+        assertTrue(maxHeapGrowth < MAX_HEAP_GROWTH_BYTES,
+                "Heap grew by " + maxHeapGrowth / 1024 / 1024 + " MB while operations were executed.");
+        long quantityInStock = unitOfWork.execute(session -> session.createNativeQuery(
+                "SELECT SUM(quantity_in_stock) FROM books", Long.class).getSingleResult());
+        assertEquals(100L * BOOK_COUNT, quantityInStock, "Rolled back and failed operations changed stock.");
+    }
+
+    private static void runOperation(UnitOfWork unitOfWork, int operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int bookId = 1 + random.nextInt(BOOK_COUNT);
+        switch (operation % 10) {
+            case 0 -> unitOfWork.run(session -> session.get(Book.class, bookId)
+                    .setPrice(5f + random.nextInt(50)));
+            case 1 -> unitOfWork.run(session -> {
+                session.get(Book.class, bookId).setQuantityInStock(0);
+                session.getTransaction().markRollbackOnly();
+            });
+            case 2 -> assertThrows(IllegalStateException.class, () -> unitOfWork.run(session -> {
+                session.get(Book.class, bookId).setQuantityInStock(0);
+                throw new IllegalStateException("Operation failed.");
+            }));
+            default -> unitOfWork.execute(session -> {
+                session.get(Customer.class, 1 + random.nextInt(CUSTOMER_COUNT));
+                return session.get(Book.class, bookId).getTitle();
+            });
+        }
+    }
+}